@@ -1,7 +1,11 @@
 package org.auto.deploy;
 
 import lombok.extern.slf4j.Slf4j;
+import org.auto.deploy.item.SourceMonitor;
+import org.auto.deploy.item.SourceWatcher;
 import org.auto.deploy.item.TaskScheduler;
+import org.auto.deploy.ssh.SessionPool;
+import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.ApplicationListener;
@@ -15,16 +19,24 @@ import org.springframework.context.event.ContextClosedEvent;
  */
 @Slf4j
 @SpringBootApplication
-public class AutoDeployApplication implements ApplicationListener<ContextClosedEvent> {
+public class AutoDeployApplication implements CommandLineRunner, ApplicationListener<ContextClosedEvent> {
 
     public static void main(String[] args) {
         SpringApplication.run(AutoDeployApplication.class, args);
     }
 
+    @Override
+    public void run(String... args) {
+        log.debug("应用启动!");
+        SourceMonitor.start();
+    }
+
     @Override
     public void onApplicationEvent(ContextClosedEvent event) {
         log.debug("应用关闭!");
         TaskScheduler.shutdown();
+        SourceWatcher.shutdown();
+        SessionPool.shutdown();
     }
 
 }
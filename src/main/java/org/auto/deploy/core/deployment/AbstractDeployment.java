@@ -1,11 +1,24 @@
 package org.auto.deploy.core.deployment;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.auto.deploy.core.deployment.archive.ArchiveCache;
+import org.auto.deploy.core.deployment.archive.ArchiveCodec;
+import org.auto.deploy.core.deployment.archive.ArchiveCodecSelector;
+import org.auto.deploy.core.deployment.archive.ArchiveRelay;
 import org.auto.deploy.core.server.Server;
+import org.auto.deploy.ssh.CmdPlan;
+import org.auto.deploy.ssh.CmdResult;
+import org.auto.deploy.ssh.Ssh;
 import org.auto.deploy.util.*;
 
 import java.io.*;
@@ -23,15 +36,43 @@ import java.util.function.Function;
 @Slf4j
 public abstract class AbstractDeployment implements Deployment {
 
+    // 执行计划脚本文件名
+    private static final String PLAN_NAME = ".auto-deploy-plan.sh";
+
+    // 解压超时时间
+    private static final Duration DECOMPRESS_TIMEOUT = Duration.ofMinutes(5);
+
     protected Server server;
 
-    // .tar.gz
-    private File tempTarGzFile;
+    private Config config;
+
+    // 归档编码
+    private ArchiveCodec codec;
+
+    // 归档文件，.tar / .tar.gz / .tar.zst / .tar.lz4
+    private File archiveFile;
+
+    // 归档文件缓存，部署到多台主机时共用，为null时不缓存
+    private ArchiveCache archiveCache;
+
+    // 归档文件是否来自缓存（由缓存删除）
+    private boolean archiveCached;
+
+    // 归档文件中继，部署到多台主机时由上级主机转发缓存的归档文件，为null时由本机上传
+    private ArchiveRelay archiveRelay;
+
+    // 项目名称
+    protected String itemName;
 
     // temp dir
     private File tempDir;
 
     public AbstractDeployment(Server server) {
+        this(new Config(), server);
+    }
+
+    public AbstractDeployment(Config config, Server server) {
+        this.config = config;
         this.server = server;
     }
 
@@ -40,49 +81,230 @@ public abstract class AbstractDeployment implements Deployment {
         try {
             createTempDir();
             init();
+            boolean stream = BooleanUtils.isTrue(config.getStream());
+            if (!stream && BooleanUtils.isTrue(config.getPlan())) {
+                deployByPlan();
+                return;
+            }
+
             clean();
-            compress();
-            uploadArchive();
-            decompress();
-            deleteArchive();
-            afterPost();
+            if (stream) {
+                streamArchive();
+            } else {
+                File[] files = getFiles();
+                codec = selectCodec(files, false);
+                compress(files);
+                uploadArchive();
+                decompress();
+            }
+            post();
         } finally {
             close();
         }
     }
 
-    protected void afterPost() throws Exception {
+    /**
+     * 添加解压之后执行的步骤（例如授予可执行权限、启动应用），按顺序执行，任一步骤执行失败时不再执行后续步骤
+     *
+     * @param plan 命令执行计划
+     * @throws Exception
+     */
+    protected void afterPost(CmdPlan plan) throws Exception {
     }
 
-    private void deleteArchive() throws Exception {
-        log.debug("删除服务器上的压缩文件 ...\n\t{}", tempTarGzFile.getName());
-        server.executeCmd(String.format("rm -rf ./%s", tempTarGzFile.getName()));
-        log.debug("已删除服务器上的压缩文件!\n\t{}", tempTarGzFile.getName());
+    private void post() throws Exception {
+        CmdPlan plan = new CmdPlan();
+        afterPost(plan);
+        if (!plan.isEmpty()) {
+            server.executeSteps(plan);
+        }
     }
 
+    /**
+     * 以执行计划部署：清除、解压、删除压缩文件及 {@link #afterPost(CmdPlan)} 的步骤编译为一个脚本，随归档文件上传，
+     * 通过一条命令（只解压出脚本并执行）完成，只需要一次往返
+     *
+     * @throws Exception
+     */
+    private void deployByPlan() throws Exception {
+        File[] files = getFiles();
+        codec = selectCodec(files, false);
+        archiveFile = newArchiveFile();
+        String archiveName = archiveFile.getName();
+
+        // 执行计划
+        CmdPlan plan = new CmdPlan();
+        plan.addIgnoreError("clean", "./clean.sh", Ssh.DEFAULT_TIMEOUT);
+        // 与逐条执行一致，解压、删除压缩文件及授权失败时继续执行后续步骤
+        plan.addIgnoreError("decompress", codec.getDecompressCmd(archiveName), DECOMPRESS_TIMEOUT);
+        plan.addIgnoreError("rm archive", String.format("rm -rf ./%s", archiveName), Ssh.DEFAULT_TIMEOUT);
+        afterPost(plan);
+        File planFile = Path.of(tempDir.getAbsolutePath(), PLAN_NAME).toFile();
+        FileUtils.write(planFile, plan.toScript(server::sudo), StandardCharsets.UTF_8);
+        log.debug("执行计划: {}\n{}", planFile.getAbsolutePath(), FileUtils.readFileToString(planFile, StandardCharsets.UTF_8));
+
+        compress(ArrayUtils.add(files, planFile));
+        uploadArchive();
+
+        // 只解压出执行计划脚本并执行
+        String cmd = String.format("%s %s && sh ./%s", codec.getDecompressCmd(archiveName), PLAN_NAME, PLAN_NAME);
+        log.debug("执行计划 ...\n\t{}", cmd);
+        long beginTime = System.currentTimeMillis();
+        List<CmdResult> results = server.executePlan(cmd, plan);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < results.size(); i++) {
+            builder.append(String.format("\n\t[%s] exit status %d, %d ms", plan.getSteps().get(i).getName(), results.get(i).getExitStatus(), results.get(i).getTime()));
+        }
+        log.info("执行计划完成，耗时 {} ms{}", System.currentTimeMillis() - beginTime, builder);
+    }
+
+    /**
+     * 解压服务器上的压缩文件，并删除压缩文件（批量执行，执行失败时继续执行）
+     *
+     * @throws Exception
+     */
     private void decompress() throws Exception {
-        log.debug("解压服务器上的压缩文件 ...\n\t{}", tempTarGzFile.getName());
-        String cmd = String.format("tar -zxvf ./%s", tempTarGzFile.getName());
-        server.executeCmd(cmd, Duration.ofMinutes(5));
-        log.debug("已解压服务器上的压缩文件!\n\t{}", tempTarGzFile.getName());
+        log.debug("解压并删除服务器上的压缩文件 ...\n\t{}", archiveFile.getName());
+        server.executeBatch(List.of(codec.getDecompressCmd(archiveFile.getName()),
+                String.format("rm -rf ./%s", archiveFile.getName())), DECOMPRESS_TIMEOUT, true);
+        log.debug("已解压并删除服务器上的压缩文件!\n\t{}", archiveFile.getName());
     }
 
     private void uploadArchive() throws Exception {
-        log.debug("上传压缩文件到服务器 ...\n\t{}", tempTarGzFile.getAbsolutePath());
-        server.uploadFile(tempTarGzFile.getAbsolutePath(), tempTarGzFile.getName());
-        log.debug("已上传压缩文件到服务器!\n\t{}", tempTarGzFile.getAbsolutePath());
+        // 只有所有主机共用的（缓存的）归档文件可以中继
+        if (archiveCached && Objects.nonNull(archiveRelay)) {
+            archiveRelay.upload(server, archiveFile);
+            return;
+        }
+
+        log.debug("上传压缩文件到服务器 ...\n\t{}", archiveFile.getAbsolutePath());
+        server.uploadFile(archiveFile.getAbsolutePath(), archiveFile.getName());
+        log.debug("已上传压缩文件到服务器!\n\t{}", archiveFile.getAbsolutePath());
     }
 
-    private void compress() throws IOException {
+    /**
+     * 流式部署：边打包压缩边写入服务器端 tar 的标准输入，打包压缩、传输、解压同时进行，不产生临时归档文件
+     *
+     * @throws Exception
+     */
+    private void streamArchive() throws Exception {
         File[] files = getFiles();
-        log.debug("压缩资源文件 ...\n\t{}", StringUtils.join(files, "\n\t"));
 
-        // 获取临时目录，用于压缩后的文件（tar.gz）
-        tempTarGzFile = Path.of(FileUtils.getTempDirectoryPath(), String.format("temp_%s.tar.gz", UUID.randomUUID().toString().replace("-", ""))).toFile();
+        // 归档编码
+        codec = selectCodec(files, true);
+        String cmd = codec.getStreamDecompressCmd(server.getAbsoluteWorkDir());
+        log.debug("流式传输资源文件到服务器（{}） ...\n\t{}", codec.getType().getValue(), StringUtils.join(files, "\n\t"));
+
+        // 原始大小、压缩后大小
+        long[] sizes = new long[2];
+        PathFilter filter = newPathFilter();
+        server.executeCmd(cmd, os -> {
+            CountingOutputStream archiveOut = new CountingOutputStream(os);
+            CountingOutputStream rawOut = null;
+            try {
+                rawOut = new CountingOutputStream(codec.compress(new BufferedOutputStream(archiveOut)));
+                CompressionUtils.tar(files, rawOut, filter);
+                rawOut.close();
+            } finally {
+                IOUtils.closeQuietly(rawOut);
+            }
+            sizes[0] = rawOut.getByteCount();
+            sizes[1] = archiveOut.getByteCount();
+        }, Duration.ofMinutes(5));
+        log.debug("已流式传输资源文件到服务器!\n\t{}", cmd);
+
+        // 部署记录
+        logRecord(sizes[0], sizes[1], filter);
+    }
+
+    private ArchiveCodec selectCodec(File[] files, boolean stream) throws Exception {
+        return ArchiveCodecSelector.select(Optional.ofNullable(config.getCodec()).orElse(ArchiveCodec.Type.GZIP),
+                Optional.ofNullable(config.getGzipThreads()).orElse(1),
+                server, files, stream);
+    }
 
-        // 压缩
-        CompressionUtils.tarGz(files, tempTarGzFile);
-        log.debug("已压缩压资源文件!\n\t{}", tempTarGzFile.getAbsolutePath());
+    private void logRecord(long rawSize, long archiveSize, PathFilter filter) {
+        log.info("部署记录: 压缩编码={}, 原始大小={} B, 压缩后大小={} B, 压缩率={}, {}",
+                codec.getType().getValue(), rawSize, archiveSize,
+                rawSize == 0 ? "-" : String.format("%.2f%%", archiveSize * 100d / rawSize), filter);
+    }
+
+    /**
+     * 打包时的文件过滤器（每次打包一个，统计排除的文件）
+     *
+     * @return
+     */
+    protected PathFilter newPathFilter() {
+        return new PathFilter(config.getIncludes(), config.getExcludes(), config.getIgnoreFiles());
+    }
+
+    private File newArchiveFile() {
+        return Path.of(FileUtils.getTempDirectoryPath(), String.format("temp_%s.%s", UUID.randomUUID().toString().replace("-", ""), codec.getExtension())).toFile();
+    }
+
+    private void compress(File[] files) throws Exception {
+        // 部署到多台主机时，内容相同的归档只打包压缩一次（临时目录下生成的脚本按内容计算指纹，执行计划部署时归档包含主机相关的脚本，不缓存）
+        if (Objects.isNull(archiveFile) && Objects.nonNull(archiveCache)) {
+            archiveFile = archiveCache.get(archiveCache.fingerprint(codec.getExtension(), files, newPathFilter(), tempDir), () -> {
+                File file = newArchiveFile();
+                compress(files, file);
+                return file;
+            });
+            archiveCached = true;
+            return;
+        }
+
+        // 获取临时目录，用于压缩后的文件
+        if (Objects.isNull(archiveFile)) {
+            archiveFile = newArchiveFile();
+        }
+        compress(files, archiveFile);
+    }
+
+    private void compress(File[] files, File archiveFile) throws IOException {
+        log.debug("压缩资源文件（{}） ...\n\t{}", codec.getType().getValue(), StringUtils.join(files, "\n\t"));
+
+        // 打包并压缩
+        PathFilter filter = newPathFilter();
+        CountingOutputStream rawOut = null;
+        try {
+            rawOut = new CountingOutputStream(codec.compress(new BufferedOutputStream(new FileOutputStream(archiveFile))));
+            CompressionUtils.tar(files, rawOut, filter);
+            rawOut.close();
+        } finally {
+            IOUtils.closeQuietly(rawOut);
+        }
+        log.debug("已压缩压资源文件!\n\t{}", archiveFile.getAbsolutePath());
+
+        // 部署记录
+        logRecord(rawOut.getByteCount(), archiveFile.length(), filter);
+    }
+
+    /**
+     * 设置归档文件缓存，部署到多台主机时共用
+     *
+     * @param archiveCache
+     */
+    public void setArchiveCache(ArchiveCache archiveCache) {
+        this.archiveCache = archiveCache;
+    }
+
+    /**
+     * 设置归档文件中继，部署到多台主机时共用
+     *
+     * @param archiveRelay
+     */
+    public void setArchiveRelay(ArchiveRelay archiveRelay) {
+        this.archiveRelay = archiveRelay;
+    }
+
+    /**
+     * 设置项目名称，部署在线程池中执行，不能从当前线程获取
+     *
+     * @param itemName
+     */
+    public void setItemName(String itemName) {
+        this.itemName = itemName;
     }
 
     /**
@@ -110,6 +332,10 @@ public abstract class AbstractDeployment implements Deployment {
 
     // ====================
 
+    protected File getTempDir() {
+        return tempDir;
+    }
+
     /**
      * 替换脚本资源占位符
      *
@@ -240,9 +466,9 @@ public abstract class AbstractDeployment implements Deployment {
         return url;
     }
 
-    protected void chmodX(File... files) throws Exception {
+    protected void chmodX(CmdPlan plan, File... files) {
         if (ArrayUtils.isNotEmpty(files)) {
-            chmodX(Arrays.stream(files)
+            chmodX(plan, Arrays.stream(files)
                     .map(File::getName)
                     .map(fileName -> String.format("./%s", fileName))
                     .toArray(String[]::new));
@@ -250,16 +476,15 @@ public abstract class AbstractDeployment implements Deployment {
     }
 
     /**
-     * 授予文件可执行权限
+     * 添加授予文件可执行权限的步骤（执行失败时继续执行后续步骤）
      *
+     * @param plan  命令执行计划
      * @param files
-     * @throws Exception
      */
-    protected void chmodX(String... files) throws Exception {
+    protected void chmodX(CmdPlan plan, String... files) {
         if (ArrayUtils.isNotEmpty(files)) {
-            log.debug("授予文件拥有可执行权限 ...\n\t{}", StringUtils.join(files, ", "));
-            server.executeCmd(String.format("chmod +x %s", StringUtils.join(files, " ")));
-            log.debug("已授予文件拥有可执行权限!\n\t{}", StringUtils.join(files, ", "));
+            log.debug("授予文件拥有可执行权限\n\t{}", StringUtils.join(files, ", "));
+            plan.addIgnoreError("chmod", String.format("chmod +x %s", StringUtils.join(files, " ")), Ssh.DEFAULT_TIMEOUT);
         }
     }
 
@@ -297,17 +522,67 @@ public abstract class AbstractDeployment implements Deployment {
         }
     }
 
+    /**
+     * 部署通用配置
+     */
+    @Data
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Config {
+
+        /**
+         * gzip并行压缩线程数，小于等于1时单线程压缩
+         */
+        @JsonProperty("gzip-threads")
+        private Integer gzipThreads;
+
+        /**
+         * 归档编码，none、gzip、zstd、lz4、auto，默认gzip
+         */
+        @JsonDeserialize(using = ArchiveCodec.TypeJsonDeserializer.class)
+        private ArchiveCodec.Type codec;
+
+        /**
+         * 是否流式部署，边打包压缩边通过ssh管道写入服务器端 tar 解压，不产生临时归档文件
+         */
+        private Boolean stream;
+
+        /**
+         * 是否以执行计划部署，清除、解压及后续步骤编译为一个脚本随归档上传，在服务器上一次执行（stream为true时不生效）
+         */
+        private Boolean plan;
+
+        /**
+         * 打包时包含的文件（glob，匹配相对于各部署目录的路径），为空时包含所有文件
+         */
+        private List<String> includes;
+
+        /**
+         * 打包时排除的文件或者目录（glob，匹配相对路径或者其中任一级名称），默认 [ .git, .svn, .hg, .idea, .vscode ]
+         */
+        private List<String> excludes;
+
+        /**
+         * 忽略文件（gitignore语法，部署目录及其子目录下的忽略文件生效），默认 [ .gitignore, .deployignore ]
+         */
+        @JsonProperty("ignore-files")
+        private List<String> ignoreFiles;
+
+    }
+
     @Override
     public void close() throws IOException {
-        if (Objects.nonNull(tempTarGzFile)) {
+        if (Objects.nonNull(archiveFile) && !archiveCached) {
             try {
-                FileUtils.forceDelete(tempTarGzFile);
+                FileUtils.forceDelete(archiveFile);
             } catch (Exception e) {
                 log.error("", e);
             } finally {
-                tempTarGzFile = null;
+                archiveFile = null;
             }
         }
+        archiveFile = null;
+        archiveCached = false;
+        codec = null;
         if (Objects.nonNull(tempDir)) {
             try {
                 FileUtils.forceDelete(tempDir);
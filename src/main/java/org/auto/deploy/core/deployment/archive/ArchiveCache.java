@@ -0,0 +1,192 @@
+package org.auto.deploy.core.deployment.archive;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.function.IOSupplier;
+import org.auto.deploy.util.PathFilter;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * 归档文件缓存
+ * <p>
+ * 部署到多台主机时，内容相同的归档只打包压缩一次，其他主机复用；同一指纹同时只有一个线程打包压缩，其他线程等待结果。关闭时删除缓存的归档文件。
+ * <p>
+ * 一个实例用于一次部署（构建产物在部署期间不变），构建产物按过滤后的文件相对路径、大小及修改时间计算指纹（不读取文件内容），
+ * 同一编码及构建产物只计算一次；每台主机生成的脚本等小文件按内容计算，不使用绝对路径及修改时间。
+ *
+ * @author xiangqian
+ * @date 21:37 2022/10/16
+ */
+@Slf4j
+public class ArchiveCache implements Closeable {
+
+    private final Map<String, CompletableFuture<File>> archives = new ConcurrentHashMap<>();
+
+    // 编码及构建产物 -> 指纹
+    private final Map<String, String> fingerprints = new ConcurrentHashMap<>();
+
+    /**
+     * 获取归档文件，不存在时创建
+     *
+     * @param key     归档指纹
+     * @param creator 归档文件创建者
+     * @return
+     * @throws IOException
+     */
+    public File get(String key, IOSupplier<File> creator) throws IOException {
+        CompletableFuture<File> future = new CompletableFuture<>();
+        CompletableFuture<File> existing = archives.putIfAbsent(key, future);
+        if (Objects.nonNull(existing)) {
+            try {
+                File file = existing.get();
+                log.debug("复用归档文件\n\t{}", file.getAbsolutePath());
+                return file;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+
+        try {
+            File file = creator.get();
+            future.complete(file);
+            return file;
+        } catch (IOException | RuntimeException e) {
+            // 创建失败时允许其他线程重试
+            archives.remove(key, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * 归档指纹：编码 + 按名称排序的文件（目录递归，过滤器排除的文件及目录不计算）相对路径及内容摘要的SHA-256
+     * <p>
+     * 构建产物按大小及修改时间计算（不读取文件内容），同一编码及构建产物只计算一次；
+     * 生成目录（部署的临时目录）下的脚本等文件每台主机各自生成，按内容计算，内容相同的主机指纹相同
+     *
+     * @param codec        归档编码（扩展名）
+     * @param files        文件集
+     * @param filter       打包时的文件过滤器（以各目录为根目录），为null时不过滤
+     * @param generatedDir 生成目录，为null时都按构建产物计算
+     * @return
+     * @throws IOException
+     */
+    public String fingerprint(String codec, File[] files, PathFilter filter, File generatedDir) throws IOException {
+        List<File> outputs = new ArrayList<>();
+        List<File> generatedFiles = new ArrayList<>();
+        for (File file : files) {
+            if (Objects.nonNull(generatedDir) && file.toPath().startsWith(generatedDir.toPath())) {
+                generatedFiles.add(file);
+            } else {
+                outputs.add(file);
+            }
+        }
+
+        // 构建产物为所有主机共用的文件，以路径区分
+        StringBuilder key = new StringBuilder(codec);
+        for (File output : outputs) {
+            key.append('\0').append(output.getAbsolutePath());
+        }
+        String fingerprint = null;
+        try {
+            fingerprint = fingerprints.computeIfAbsent(key.toString(), k -> {
+                try {
+                    return fingerprint0(codec, outputs.toArray(File[]::new), filter, false);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (generatedFiles.isEmpty()) {
+            return fingerprint;
+        }
+        return fingerprint0(fingerprint, generatedFiles.toArray(File[]::new), filter, true);
+    }
+
+    private static String fingerprint0(String prefix, File[] files, PathFilter filter, boolean content) throws IOException {
+        long beginTime = System.currentTimeMillis();
+        MessageDigest digest = null;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        update(digest, prefix);
+        for (File file : sort(files)) {
+            update(digest, file, file.getName(), filter, file.toPath(), content);
+        }
+        String fingerprint = Hex.encodeHexString(digest.digest());
+        log.debug("已计算归档指纹: {}, {} ms", fingerprint, System.currentTimeMillis() - beginTime);
+        return fingerprint;
+    }
+
+    private static void update(MessageDigest digest, File file, String name, PathFilter filter, Path root, boolean content) throws IOException {
+        if (Objects.nonNull(filter) && !filter.accept(root, file.toPath())) {
+            return;
+        }
+
+        if (file.isDirectory()) {
+            update(digest, String.format("d:%s", name));
+            for (File child : sort(file.listFiles())) {
+                update(digest, child, String.format("%s/%s", name, child.getName()), filter, root, content);
+            }
+            return;
+        }
+
+        if (content) {
+            update(digest, String.format("c:%s:%s", name, Hex.encodeHexString(DigestUtils.digest(DigestUtils.getSha256Digest(), file))));
+            return;
+        }
+        update(digest, String.format("f:%s:%d:%d", name, file.length(), file.lastModified()));
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static File[] sort(File[] files) {
+        if (Objects.isNull(files)) {
+            return new File[0];
+        }
+        File[] sorted = files.clone();
+        Arrays.sort(sorted, Comparator.comparing(File::getName));
+        return sorted;
+    }
+
+    @Override
+    public void close() {
+        for (CompletableFuture<File> future : archives.values()) {
+            File file = future.getNow(null);
+            if (Objects.nonNull(file)) {
+                FileUtils.deleteQuietly(file);
+            }
+        }
+        archives.clear();
+    }
+
+}
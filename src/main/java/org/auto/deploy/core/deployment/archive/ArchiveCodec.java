@@ -0,0 +1,116 @@
+package org.auto.deploy.core.deployment.archive;
+
+import com.fasterxml.jackson.core.JacksonException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+
+/**
+ * 归档编码
+ * <p>
+ * 将本地压缩方式与服务器上对应的解压命令配对，部署时本地按编码压缩tar流，服务器按编码解压。
+ *
+ * @author xiangqian
+ * @date 22:05 2022/10/09
+ */
+public interface ArchiveCodec {
+
+    /**
+     * 编码类型
+     *
+     * @return
+     */
+    Type getType();
+
+    /**
+     * 归档文件扩展名，例如: tar.gz
+     *
+     * @return
+     */
+    String getExtension();
+
+    /**
+     * 包装压缩输出流
+     * <p>
+     * 关闭返回的输出流时，写出压缩尾部并关闭 out
+     *
+     * @param out 压缩后数据输出流
+     * @return tar数据输入端
+     * @throws IOException
+     */
+    OutputStream compress(OutputStream out) throws IOException;
+
+    /**
+     * 服务器上解压归档文件的命令
+     *
+     * @param archiveName 工作目录下的归档文件名
+     * @return
+     */
+    String getDecompressCmd(String archiveName);
+
+    /**
+     * 服务器上从标准输入流式解压归档的命令
+     *
+     * @param dir 解压到的目录（绝对路径）
+     * @return
+     */
+    String getStreamDecompressCmd(String dir);
+
+    /**
+     * 服务器上解压所依赖的命令，为null时表示只依赖tar
+     *
+     * @return
+     */
+    default String getRequiredCmd() {
+        return null;
+    }
+
+    class TypeJsonDeserializer extends JsonDeserializer<Type> {
+
+        @Override
+        public Type deserialize(JsonParser jsonParser, DeserializationContext deserializationContext) throws IOException, JacksonException {
+            String text = null;
+            if (Objects.isNull(text = jsonParser.getText())) {
+                return null;
+            }
+            return Type.of(text);
+        }
+
+    }
+
+    @Getter
+    enum Type {
+        NONE("none"),
+        GZIP("gzip"),
+        ZSTD("zstd"),
+        LZ4("lz4"),
+        // 根据链路吞吐量与本地CPU自动选择
+        AUTO("auto"),
+        ;
+        private final String value;
+
+        Type(String value) {
+            this.value = value;
+        }
+
+        public static Type of(String value) {
+            if (Objects.isNull(value)) {
+                return GZIP;
+            }
+
+            for (Type type : Type.values()) {
+                if (type.value.equals(value)) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException(String.format("目前不支持 %s 归档编码(codec), 可选值: [ none, gzip, zstd, lz4, auto ]", value));
+        }
+
+    }
+
+}
@@ -0,0 +1,201 @@
+package org.auto.deploy.core.deployment.archive;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.lang3.ArrayUtils;
+import org.auto.deploy.core.server.Server;
+
+import java.io.*;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 归档编码选择器
+ * <p>
+ * auto模式下，测量到服务器的上传吞吐量，并在本地用采样数据测量各编码的压缩速度及压缩率，
+ * 选择预估 "压缩耗时 + 传输耗时" 最小的编码；流式部署时压缩与传输同时进行，预估耗时取两者中的最大值。
+ *
+ * @author xiangqian
+ * @date 22:40 2022/10/09
+ */
+@Slf4j
+public class ArchiveCodecSelector {
+
+    // 采样数据总大小
+    private static final int SAMPLE_SIZE = 8 * 1024 * 1024;
+
+    // 每个文件最多采样大小
+    private static final int SAMPLE_SIZE_PER_FILE = 1024 * 1024;
+
+    // 上传吞吐量探测数据大小
+    private static final int PROBE_SIZE = 4 * 1024 * 1024;
+
+    // 上传吞吐量缓存有效期
+    private static final Duration THROUGHPUT_TTL = Duration.ofMinutes(10);
+
+    // 服务器 -> {上传吞吐量(B/s), 测量时间戳}
+    private static final Map<String, long[]> THROUGHPUT_CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * 获取指定类型的归档编码
+     *
+     * @param type        编码类型，不能为 {@link ArchiveCodec.Type#AUTO}
+     * @param gzipThreads gzip压缩线程数
+     * @return
+     */
+    public static ArchiveCodec get(ArchiveCodec.Type type, int gzipThreads) {
+        switch (type) {
+            case NONE:
+                return new NoneArchiveCodec();
+            case GZIP:
+                return new GzipArchiveCodec(gzipThreads);
+            case ZSTD:
+                return new ZstdArchiveCodec();
+            case LZ4:
+                return new Lz4ArchiveCodec();
+            default:
+                throw new IllegalArgumentException(String.format("无法直接获取 %s 归档编码", type.getValue()));
+        }
+    }
+
+    /**
+     * 选择归档编码
+     *
+     * @param type        编码类型
+     * @param gzipThreads gzip压缩线程数
+     * @param server      服务器
+     * @param files       预归档文件集
+     * @param stream      是否流式部署
+     * @return
+     * @throws Exception
+     */
+    public static ArchiveCodec select(ArchiveCodec.Type type, int gzipThreads, Server server, File[] files, boolean stream) throws Exception {
+        if (type != ArchiveCodec.Type.AUTO) {
+            return get(type, gzipThreads);
+        }
+
+        // 候选编码，服务器需要支持解压
+        List<ArchiveCodec> candidates = new ArrayList<>();
+        for (ArchiveCodec.Type candidateType : ArchiveCodec.Type.values()) {
+            if (candidateType == ArchiveCodec.Type.AUTO) {
+                continue;
+            }
+            ArchiveCodec candidate = get(candidateType, gzipThreads);
+            if (Objects.isNull(candidate.getRequiredCmd()) || server.hasCmd(candidate.getRequiredCmd())) {
+                candidates.add(candidate);
+            }
+        }
+
+        long rawSize = 0;
+        for (File file : files) {
+            rawSize += FileUtils.sizeOf(file);
+        }
+        double throughput = getUploadThroughput(server);
+        byte[] sample = sample(files);
+        log.debug("选择归档编码 ...\n\t原始大小: {} B, 上传吞吐量: {} B/s, 采样大小: {} B", rawSize, (long) throughput, sample.length);
+
+        ArchiveCodec selected = null;
+        double minSeconds = Double.MAX_VALUE;
+        for (ArchiveCodec candidate : candidates) {
+            double[] measurement = measure(candidate, sample);
+            double speed = measurement[0];
+            double ratio = measurement[1];
+            double compressSeconds = rawSize / speed;
+            double transferSeconds = rawSize * ratio / throughput;
+            double seconds = stream ? Math.max(compressSeconds, transferSeconds) : compressSeconds + transferSeconds;
+            log.debug("\t{}: 压缩速度 {} B/s, 压缩率 {}, 预估耗时 {} s",
+                    candidate.getType().getValue(), (long) speed, String.format("%.3f", ratio), String.format("%.2f", seconds));
+            if (seconds < minSeconds) {
+                minSeconds = seconds;
+                selected = candidate;
+            }
+        }
+        log.debug("已选择归档编码: {}", selected.getType().getValue());
+        return selected;
+    }
+
+    /**
+     * 测量编码的压缩速度及压缩率
+     *
+     * @return {压缩速度(B/s), 压缩率}
+     */
+    private static double[] measure(ArchiveCodec codec, byte[] sample) throws IOException {
+        if (codec.getType() == ArchiveCodec.Type.NONE || sample.length == 0) {
+            return new double[]{Double.POSITIVE_INFINITY, 1};
+        }
+
+        // 预热（加载本地库、JIT）
+        compress(codec, new byte[64 * 1024]);
+
+        long beginTime = System.nanoTime();
+        long compressedSize = compress(codec, sample);
+        long nanos = Math.max(System.nanoTime() - beginTime, 1);
+        return new double[]{sample.length * 1_000_000_000d / nanos, (double) compressedSize / sample.length};
+    }
+
+    private static long compress(ArchiveCodec codec, byte[] data) throws IOException {
+        CountingOutputStream counting = new CountingOutputStream(NullOutputStream.NULL_OUTPUT_STREAM);
+        try (OutputStream out = codec.compress(counting)) {
+            out.write(data);
+        }
+        return counting.getByteCount();
+    }
+
+    /**
+     * 获取到服务器的上传吞吐量（B/s），测量结果会缓存一段时间
+     */
+    private static double getUploadThroughput(Server server) throws Exception {
+        String key = server.getName();
+        long[] cached = THROUGHPUT_CACHE.get(key);
+        if (Objects.nonNull(cached) && System.currentTimeMillis() - cached[1] < THROUGHPUT_TTL.toMillis()) {
+            return cached[0];
+        }
+
+        double throughput = server.measureUploadThroughput(PROBE_SIZE);
+        THROUGHPUT_CACHE.put(key, new long[]{(long) throughput, System.currentTimeMillis()});
+        return throughput;
+    }
+
+    /**
+     * 从文件集中采样数据
+     */
+    private static byte[] sample(File[] files) throws IOException {
+        ByteArrayOutputStream sample = new ByteArrayOutputStream();
+        sample(files, sample);
+        return sample.toByteArray();
+    }
+
+    private static void sample(File[] files, ByteArrayOutputStream sample) throws IOException {
+        if (ArrayUtils.isEmpty(files)) {
+            return;
+        }
+
+        for (File file : files) {
+            int remaining = SAMPLE_SIZE - sample.size();
+            if (remaining <= 0) {
+                return;
+            }
+
+            if (file.isDirectory()) {
+                sample(file.listFiles(), sample);
+                continue;
+            }
+
+            InputStream in = null;
+            try {
+                in = new FileInputStream(file);
+                IOUtils.copyLarge(in, sample, 0, Math.min(remaining, SAMPLE_SIZE_PER_FILE));
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,237 @@
+package org.auto.deploy.core.deployment.archive;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.auto.deploy.core.server.Server;
+import org.auto.deploy.ssh.CmdResult;
+import org.auto.deploy.ssh.Ssh;
+import org.auto.deploy.util.Assert;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 归档文件中继
+ * <p>
+ * 部署到多台主机时，本机只上传归档文件到前 seeds 台（种子）主机，其他主机由上级主机通过主机之间的ssh转发，
+ * 每台主机转发给 degree 台下级主机（degree 为1时为链式），总吞吐量随主机数增长。主机 i（从0开始）的上级主机为 (i - seeds) / degree。
+ * <p>
+ * 每一跳接收后在接收主机上校验sha256；上级主机未接收、转发失败或者校验失败时，由本机直接上传。
+ * 需要转发的主机保留一份中继文件（不随解压删除），关闭时删除。主机之间的ssh需要免密（公钥）认证。
+ *
+ * @author xiangqian
+ * @date 20:42 2022/10/17
+ */
+@Slf4j
+public class ArchiveRelay implements Closeable {
+
+    // 中继文件名前缀
+    private static final String RELAY_PREFIX = ".auto-deploy-relay.";
+
+    private final Server.Config.Relay config;
+
+    // 主机配置，与部署顺序一致
+    private final List<Server.Config> hosts;
+
+    // 主机名称 -> 序号
+    private final Map<String, Integer> indexes;
+
+    // 每台主机接收的归档文件名，接收失败或者未接收时异常完成
+    private final List<CompletableFuture<String>> received;
+
+    // 本机归档文件 -> sha256
+    private final Map<String, String> sha256s = new ConcurrentHashMap<>();
+
+    public ArchiveRelay(List<Server.Config> hosts, Server.Config.Relay config) {
+        this.config = config;
+        this.hosts = hosts;
+        this.indexes = new HashMap<>(hosts.size());
+        this.received = new ArrayList<>(hosts.size());
+        for (int i = 0; i < hosts.size(); i++) {
+            indexes.put(new Server(hosts.get(i)).getName(), i);
+            received.add(new CompletableFuture<>());
+        }
+    }
+
+    /**
+     * 上传归档文件到服务器的工作目录：种子主机由本机上传，其他主机由上级主机转发
+     *
+     * @param server      已连接的服务器
+     * @param archiveFile 本机归档文件
+     * @throws Exception
+     */
+    public void upload(Server server, File archiveFile) throws Exception {
+        Integer index = indexes.get(server.getName());
+        if (Objects.isNull(index)) {
+            server.uploadFile(archiveFile.getAbsolutePath(), archiveFile.getName());
+            return;
+        }
+
+        String archiveName = archiveFile.getName();
+        String sha256 = sha256(archiveFile);
+        // 有下级主机时接收到中继文件，再硬链接为归档文件
+        boolean forward = hasChildren(index);
+        String name = forward ? RELAY_PREFIX + archiveName : archiveName;
+        try {
+            int parent = getParent(index);
+            if (parent < 0 || !forward(parent, server, archiveName, name, sha256)) {
+                long beginTime = System.currentTimeMillis();
+                log.debug("上传压缩文件到服务器 ...\n\t{}", server.getName());
+                server.uploadFile(archiveFile.getAbsolutePath(), name);
+                verify(server, name, sha256);
+                log.info("已上传压缩文件到服务器: {}, {} B, {} ms", server.getName(), archiveFile.length(), System.currentTimeMillis() - beginTime);
+            }
+            if (forward) {
+                server.executeCmd(String.format("ln -f ./%s ./%s", name, archiveName), false);
+            }
+            received.get(index).complete(archiveName);
+        } finally {
+            finish(server.getName());
+        }
+    }
+
+    /**
+     * 由上级主机转发归档文件
+     *
+     * @return 是否转发成功，失败时由本机上传
+     */
+    private boolean forward(int parent, Server server, String archiveName, String name, String sha256) {
+        Server.Config parentConfig = hosts.get(parent);
+        String parentName = new Server(parentConfig).getName();
+        Duration timeout = Duration.ofSeconds(config.getTimeout());
+        try {
+            // 等待上级主机接收
+            String parentArchiveName = received.get(parent).get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            if (!archiveName.equals(parentArchiveName)) {
+                log.warn("上级主机 {} 的归档文件与 {} 不同，由本机上传", parentName, server.getName());
+                return false;
+            }
+        } catch (Exception e) {
+            log.warn("上级主机 {} 未接收归档文件，由本机上传到 {}", parentName, server.getName());
+            return false;
+        }
+
+        Server.Config config = hosts.get(indexes.get(server.getName()));
+        Server parentServer = new Server(parentConfig);
+        try {
+            long beginTime = System.currentTimeMillis();
+            parentServer.connect();
+            String cmd = String.format("ssh %s -p %d %s@%s \"cat > '%s/%s'\" < ./%s%s",
+                    this.config.getSshOptions(), config.getPort(), config.getUsername(), config.getHost(),
+                    server.getAbsoluteWorkDir(), name, RELAY_PREFIX, archiveName);
+            log.debug("{} 转发压缩文件到 {} ...\n\t{}", parentName, server.getName(), cmd);
+            parentServer.executeCmd(cmd, timeout, false);
+            verify(server, name, sha256);
+            log.info("已转发压缩文件: {} -> {}, {} ms", parentName, server.getName(), System.currentTimeMillis() - beginTime);
+            return true;
+        } catch (Exception e) {
+            log.warn(String.format("%s 转发压缩文件到 %s 失败，由本机上传", parentName, server.getName()), e);
+            return false;
+        } finally {
+            IOUtils.closeQuietly(parentServer);
+        }
+    }
+
+    /**
+     * 在服务器上校验文件sha256
+     */
+    private void verify(Server server, String name, String sha256) throws Exception {
+        CmdResult result = server.executeCmdForResult(String.format("sha256sum ./%s", name), Ssh.DEFAULT_TIMEOUT);
+        String remoteSha256 = result.getResults().stream()
+                .filter(StringUtils::isNotBlank)
+                .reduce((first, second) -> second)
+                .map(line -> StringUtils.substringBefore(line.trim(), " "))
+                .orElse(null);
+        Assert.isTrue(result.isSuccess() && sha256.equalsIgnoreCase(remoteSha256),
+                String.format("sha256校验失败: %s %s, 本地: %s, 服务器: %s", server.getName(), name, sha256, remoteSha256));
+    }
+
+    /**
+     * 主机部署结束（或者未上传归档文件），未接收归档文件时其下级主机由本机上传
+     *
+     * @param name 主机名称
+     */
+    public void finish(String name) {
+        Integer index = indexes.get(name);
+        if (Objects.nonNull(index)) {
+            received.get(index).completeExceptionally(new IllegalStateException(String.format("%s 未接收归档文件", name)));
+        }
+    }
+
+    private String sha256(File archiveFile) throws IOException {
+        String path = archiveFile.getAbsolutePath();
+        String sha256 = sha256s.get(path);
+        if (Objects.isNull(sha256)) {
+            try (InputStream in = new FileInputStream(archiveFile)) {
+                sha256 = DigestUtils.sha256Hex(in);
+            }
+            sha256s.put(path, sha256);
+        }
+        return sha256;
+    }
+
+    /**
+     * 主机的上级主机
+     *
+     * @param index 主机序号
+     * @return 上级主机序号，种子主机为-1
+     */
+    public int getParent(int index) {
+        int seeds = getSeeds();
+        return index < seeds ? -1 : (index - seeds) / config.getDegree();
+    }
+
+    /**
+     * 主机是否有下级主机（需要转发）
+     *
+     * @param index 主机序号
+     * @return
+     */
+    public boolean hasChildren(int index) {
+        return getSeeds() + index * config.getDegree() < hosts.size();
+    }
+
+    private int getSeeds() {
+        return Math.max(Math.min(config.getSeeds(), hosts.size()), 1);
+    }
+
+    /**
+     * 删除转发主机上的中继文件
+     */
+    @Override
+    public void close() {
+        for (int i = 0; i < hosts.size(); i++) {
+            CompletableFuture<String> future = received.get(i);
+            if (!future.isDone() || future.isCompletedExceptionally() || !hasChildren(i)) {
+                continue;
+            }
+
+            String archiveName = future.join();
+
+            Server server = new Server(hosts.get(i));
+            try {
+                server.connect();
+                server.executeCmd(String.format("rm -f ./%s%s", RELAY_PREFIX, archiveName));
+            } catch (Exception e) {
+                log.error(String.format("删除 %s 中继文件异常", server.getName()), e);
+            } finally {
+                IOUtils.closeQuietly(server);
+            }
+        }
+    }
+
+}
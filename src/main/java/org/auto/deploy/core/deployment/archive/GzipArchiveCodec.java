@@ -0,0 +1,48 @@
+package org.auto.deploy.core.deployment.archive;
+
+import org.auto.deploy.util.CompressionUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * .tar.gz
+ *
+ * @author xiangqian
+ * @date 22:20 2022/10/09
+ */
+public class GzipArchiveCodec implements ArchiveCodec {
+
+    // gzip压缩线程数
+    private final int threads;
+
+    public GzipArchiveCodec(int threads) {
+        this.threads = threads;
+    }
+
+    @Override
+    public Type getType() {
+        return Type.GZIP;
+    }
+
+    @Override
+    public String getExtension() {
+        return "tar.gz";
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out) throws IOException {
+        return CompressionUtils.gz(out, threads);
+    }
+
+    @Override
+    public String getDecompressCmd(String archiveName) {
+        return String.format("tar -zxvf ./%s", archiveName);
+    }
+
+    @Override
+    public String getStreamDecompressCmd(String dir) {
+        return String.format("tar -xzf - -C '%s'", dir);
+    }
+
+}
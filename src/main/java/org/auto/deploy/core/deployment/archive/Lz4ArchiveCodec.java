@@ -0,0 +1,47 @@
+package org.auto.deploy.core.deployment.archive;
+
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * .tar.lz4，服务器需要安装 lz4
+ *
+ * @author xiangqian
+ * @date 22:28 2022/10/09
+ */
+public class Lz4ArchiveCodec implements ArchiveCodec {
+
+    @Override
+    public Type getType() {
+        return Type.LZ4;
+    }
+
+    @Override
+    public String getExtension() {
+        return "tar.lz4";
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out) throws IOException {
+        return new FramedLZ4CompressorOutputStream(out);
+    }
+
+    @Override
+    public String getDecompressCmd(String archiveName) {
+        // tar -I 解压时会以 "lz4 -d" 调用
+        return String.format("tar -I lz4 -xvf ./%s", archiveName);
+    }
+
+    @Override
+    public String getStreamDecompressCmd(String dir) {
+        return String.format("tar -I lz4 -xf - -C '%s'", dir);
+    }
+
+    @Override
+    public String getRequiredCmd() {
+        return "lz4";
+    }
+
+}
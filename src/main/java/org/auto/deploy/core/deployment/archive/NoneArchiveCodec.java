@@ -0,0 +1,38 @@
+package org.auto.deploy.core.deployment.archive;
+
+import java.io.OutputStream;
+
+/**
+ * 不压缩，只打包为 .tar
+ *
+ * @author xiangqian
+ * @date 22:18 2022/10/09
+ */
+public class NoneArchiveCodec implements ArchiveCodec {
+
+    @Override
+    public Type getType() {
+        return Type.NONE;
+    }
+
+    @Override
+    public String getExtension() {
+        return "tar";
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out) {
+        return out;
+    }
+
+    @Override
+    public String getDecompressCmd(String archiveName) {
+        return String.format("tar -xvf ./%s", archiveName);
+    }
+
+    @Override
+    public String getStreamDecompressCmd(String dir) {
+        return String.format("tar -xf - -C '%s'", dir);
+    }
+
+}
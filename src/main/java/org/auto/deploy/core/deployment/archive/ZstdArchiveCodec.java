@@ -0,0 +1,50 @@
+package org.auto.deploy.core.deployment.archive;
+
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * .tar.zst，服务器需要安装 zstd
+ *
+ * @author xiangqian
+ * @date 22:26 2022/10/09
+ */
+public class ZstdArchiveCodec implements ArchiveCodec {
+
+    // 压缩级别
+    private static final int LEVEL = 3;
+
+    @Override
+    public Type getType() {
+        return Type.ZSTD;
+    }
+
+    @Override
+    public String getExtension() {
+        return "tar.zst";
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out) throws IOException {
+        return new ZstdCompressorOutputStream(out, LEVEL);
+    }
+
+    @Override
+    public String getDecompressCmd(String archiveName) {
+        // tar -I 解压时会以 "zstd -d" 调用
+        return String.format("tar -I zstd -xvf ./%s", archiveName);
+    }
+
+    @Override
+    public String getStreamDecompressCmd(String dir) {
+        return String.format("tar -I zstd -xf - -C '%s'", dir);
+    }
+
+    @Override
+    public String getRequiredCmd() {
+        return "zstd";
+    }
+
+}
@@ -3,18 +3,30 @@ package org.auto.deploy.core.deployment.jar;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.BooleanUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.auto.deploy.core.deployment.AbstractDeployment;
+import org.auto.deploy.core.deployment.jar.delta.BlockDelta;
+import org.auto.deploy.core.deployment.jar.delta.BlockPatcher;
 import org.auto.deploy.core.server.Server;
 import org.auto.deploy.core.source.Source;
+import org.auto.deploy.ssh.CmdPlan;
+import org.auto.deploy.ssh.CmdResult;
+import org.auto.deploy.ssh.Ssh;
 import org.auto.deploy.util.Assert;
 
-import java.io.File;
+import java.io.*;
 import java.net.URL;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
 
 /**
  * @author xiangqian
@@ -23,6 +35,9 @@ import java.util.*;
 @Slf4j
 public class JarDeployment extends AbstractDeployment {
 
+    // 服务器端块级差量工具jar
+    private static final String PATCHER_NAME = ".auto-deploy-patcher.jar";
+
     protected Config config;
     protected Source source;
 
@@ -38,20 +53,31 @@ public class JarDeployment extends AbstractDeployment {
     // files
     protected File[] files;
 
+    // 块级差量文件，为null时上传完整的jar
+    protected File deltaFile;
+
+    // 服务器端块级差量工具
+    protected File patcherFile;
+
     public JarDeployment(Config config, Server server, Source source) {
-        super(server);
+        super(config, server);
         this.config = config;
         this.source = source;
     }
 
     @Override
-    protected void afterPost() throws Exception {
+    protected void afterPost(CmdPlan plan) throws Exception {
         // chmod +x
-        chmodX(scriptFiles);
+        chmodX(plan, scriptFiles);
 
-        log.debug("启动java应用 ...\n\t{}", pkgFile.getName());
-        server.executeCmd("./startup.sh", false);
-        log.debug("已启动java应用!\n\t{}", pkgFile.getName());
+        // 根据块级差量合成jar
+        if (Objects.nonNull(deltaFile)) {
+            patch(plan);
+        }
+
+        // 任一步骤执行失败时不再启动
+        log.debug("启动java应用\n\t{}", pkgFile.getName());
+        plan.add("startup", "./startup.sh", Duration.ofMinutes(5));
     }
 
     @Override
@@ -69,6 +95,13 @@ public class JarDeployment extends AbstractDeployment {
         // init addl files
         initAddlFiles();
 
+        // init delta file
+        deltaFile = null;
+        patcherFile = null;
+        if (isDelta()) {
+            initDeltaFile();
+        }
+
         // init script files
         initScriptFiles();
 
@@ -79,7 +112,9 @@ public class JarDeployment extends AbstractDeployment {
     }
 
     protected void initFiles() {
-        files = ArrayUtils.addAll(scriptFiles, pkgFile);
+        files = Objects.nonNull(deltaFile)
+                ? ArrayUtils.addAll(scriptFiles, deltaFile, patcherFile)
+                : ArrayUtils.addAll(scriptFiles, pkgFile);
         if (Objects.nonNull(addlFiles)) {
             files = ArrayUtils.addAll(files, addlFiles);
         }
@@ -94,7 +129,12 @@ public class JarDeployment extends AbstractDeployment {
 
         // placeholderMap
         FilesPlaceholderValue filesPlaceholderValue = new FilesPlaceholderValue();
-        filesPlaceholderValue.add(pkgFile);
+        // 块级差量时保留服务器上的旧jar，用于合成新jar
+        if (Objects.nonNull(deltaFile)) {
+            filesPlaceholderValue.add(deltaFile).add(patcherFile);
+        } else {
+            filesPlaceholderValue.add(pkgFile);
+        }
         Optional.ofNullable(addlFiles).ifPresent(files -> Arrays.stream(files).forEach(filesPlaceholderValue::add));
         Arrays.stream(scriptUrls).forEach(filesPlaceholderValue::add);
         Map<String, Object> placeholderMap = Map.of("FILES", filesPlaceholderValue,
@@ -119,6 +159,88 @@ public class JarDeployment extends AbstractDeployment {
         }
     }
 
+    protected boolean isDelta() {
+        return BooleanUtils.isTrue(config.getDelta());
+    }
+
+    /**
+     * 根据服务器上旧jar的签名计算块级差量，无法获取签名时（首次部署、服务器jdk版本过低等）上传完整的jar
+     *
+     * @throws Exception
+     */
+    protected void initDeltaFile() throws Exception {
+        String name = pkgFile.getName();
+        String signatureName = String.format("%s.sig", name);
+
+        // 服务器端工具
+        File patcher = Path.of(getTempDir().getAbsolutePath(), PATCHER_NAME).toFile();
+        createPatcherJar(patcher);
+
+        // 获取服务器上旧jar的签名
+        BlockDelta.Signature signature = null;
+        try {
+            log.debug("获取服务器上旧jar的签名 ...\n\t{}", name);
+            server.uploadFile(patcher.getAbsolutePath(), patcher.getName());
+            String cmd = String.format("%s/bin/java -cp ./%s %s sign ./%s ./%s %d",
+                    config.getJavaHome(), patcher.getName(), BlockPatcher.class.getName(), name, signatureName, BlockDelta.DEFAULT_BLOCK_SIZE);
+            CmdResult result = server.executeCmdForResult(cmd, Duration.ofMinutes(5));
+            log.debug("<ssh> {}\nexit status: {}\n{}", cmd, result.getExitStatus(), StringUtils.join(result.getResults(), "\n"));
+            Assert.isTrue(result.isSuccess(), "生成签名失败");
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            server.downloadFile(signatureName, out);
+            signature = BlockDelta.readSignature(new ByteArrayInputStream(out.toByteArray()));
+            log.debug("已获取服务器上旧jar的签名!\n\t{}", name);
+        } catch (Exception e) {
+            log.debug("无法获取服务器上旧jar的签名，将上传完整的jar\n\t{}", e.getMessage());
+            return;
+        } finally {
+            server.executeCmd(String.format("rm -f ./%s ./%s", signatureName, patcher.getName()));
+        }
+
+        // 计算块级差量
+        File delta = Path.of(getTempDir().getAbsolutePath(), String.format("%s.delta", name)).toFile();
+        long beginTime = System.currentTimeMillis();
+        BlockDelta.Result result = null;
+        try (OutputStream out = new FileOutputStream(delta)) {
+            result = BlockDelta.diff(signature, pkgFile, out);
+        }
+        log.info("块级差量: jar大小={} B, 差量大小={} B, 复用={} B, 新数据={} B, 耗时={} ms",
+                pkgFile.length(), delta.length(), result.getCopiedBytes(), result.getLiteralBytes(), System.currentTimeMillis() - beginTime);
+        deltaFile = delta;
+        patcherFile = patcher;
+    }
+
+    /**
+     * 添加根据块级差量合成jar（并校验SHA-256）的步骤，合成失败时命令退出码不为0
+     *
+     * @param plan 命令执行计划
+     */
+    protected void patch(CmdPlan plan) {
+        String name = pkgFile.getName();
+        log.debug("合成jar\n\t{}", name);
+        plan.add("patch", String.format("%s/bin/java -cp ./%s %s patch ./%s ./%s ./%s",
+                config.getJavaHome(), patcherFile.getName(), BlockPatcher.class.getName(), name, deltaFile.getName(), name), Duration.ofMinutes(5));
+        plan.add("rm delta", String.format("rm -f ./%s ./%s", deltaFile.getName(), patcherFile.getName()), Ssh.DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * 将 {@link BlockPatcher} 打包为jar
+     *
+     * @param file
+     * @throws IOException
+     */
+    private static void createPatcherJar(File file) throws IOException {
+        String entryName = BlockPatcher.class.getName().replace('.', '/') + ".class";
+        try (InputStream in = BlockPatcher.class.getClassLoader().getResourceAsStream(entryName);
+             JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+            Assert.notNull(in, String.format("未找到 %s", entryName));
+            out.putNextEntry(new JarEntry(entryName));
+            in.transferTo(out);
+            out.closeEntry();
+        }
+    }
+
     protected void initPkgFile() throws Exception {
         String pkgFileLocation = config.getPkgFile();
         pkgFile = Path.of(source.get().getAbsolutePath(), pkgFileLocation).toFile();
@@ -126,8 +248,10 @@ public class JarDeployment extends AbstractDeployment {
     }
 
     @Data
+    @EqualsAndHashCode(callSuper = true)
+    @ToString(callSuper = true)
     @JsonIgnoreProperties(ignoreUnknown = true)
-    public static class Config {
+    public static class Config extends AbstractDeployment.Config {
 
         @JsonProperty("java-home")
         private String javaHome;
@@ -144,6 +268,11 @@ public class JarDeployment extends AbstractDeployment {
         @JsonProperty("addl-files")
         private List<String> addlFiles;
 
+        /**
+         * 是否块级差量部署，根据服务器上旧jar的签名只传输变化的数据块，在服务器上合成新jar（服务器jdk版本不能低于编译版本）
+         */
+        private Boolean delta;
+
         public void validate() {
             Assert.notNull(javaHome, "deployment.jar.java-home不能为null");
             Assert.notNull(pkgFile, "deployment.jar.pkg-file不能为null");
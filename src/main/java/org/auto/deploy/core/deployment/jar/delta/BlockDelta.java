@@ -0,0 +1,248 @@
+package org.auto.deploy.core.deployment.jar.delta;
+
+import lombok.Data;
+import org.auto.deploy.util.Assert;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * 块级差量（rsync算法）本地端：根据服务器上旧文件的签名，计算新文件的差量
+ * <p>
+ * 在新文件上逐字节滚动计算弱校验和，命中签名中的块并且MD5一致时输出块引用（COPY），否则输出原始数据（LITERAL）。
+ *
+ * @author xiangqian
+ * @date 20:48 2022/10/12
+ */
+public class BlockDelta {
+
+    /**
+     * 默认块大小
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 8 * 1024;
+
+    // 单个LITERAL指令最大长度
+    private static final int MAX_LITERAL_SIZE = 1024 * 1024;
+
+    // 弱校验和模数
+    private static final int MOD = 1 << 16;
+
+    /**
+     * 读取签名
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    public static Signature readSignature(InputStream in) throws IOException {
+        DataInputStream dataIn = new DataInputStream(new BufferedInputStream(in));
+        if (dataIn.readInt() != BlockPatcher.SIGNATURE_MAGIC) {
+            throw new IOException("签名格式错误");
+        }
+        int blockSize = dataIn.readInt();
+        long length = dataIn.readLong();
+        int count = (int) (length / blockSize);
+        int[] weakChecksums = new int[count];
+        byte[][] strongChecksums = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            weakChecksums[i] = dataIn.readInt();
+            strongChecksums[i] = dataIn.readNBytes(16);
+        }
+        return new Signature(blockSize, weakChecksums, strongChecksums);
+    }
+
+    /**
+     * 计算差量
+     *
+     * @param signature 旧文件签名
+     * @param newFile   新文件
+     * @param out       差量输出流
+     * @return 差量统计
+     * @throws Exception
+     */
+    public static Result diff(Signature signature, File newFile, OutputStream out) throws Exception {
+        int blockSize = signature.getBlockSize();
+        MessageDigest md5 = MessageDigest.getInstance("MD5");
+        MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+        Result result = new Result();
+
+        try (FileChannel channel = FileChannel.open(newFile.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            Assert.isTrue(length <= Integer.MAX_VALUE, String.format("文件过大，不支持块级差量: %s", newFile.getAbsolutePath()));
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            int n = (int) length;
+
+            // 新文件SHA-256
+            byte[] bytes = new byte[64 * 1024];
+            ByteBufferReader reader = new ByteBufferReader(buffer);
+            for (int offset = 0; offset < n; offset += bytes.length) {
+                int len = Math.min(bytes.length, n - offset);
+                reader.read(offset, bytes, len);
+                sha256.update(bytes, 0, len);
+            }
+
+            DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(out));
+            dataOut.writeInt(BlockPatcher.DELTA_MAGIC);
+            dataOut.writeInt(blockSize);
+            dataOut.writeLong(length);
+            dataOut.write(sha256.digest());
+
+            Map<Integer, List<Integer>> index = signature.index();
+            byte[] window = new byte[blockSize];
+            OpWriter opWriter = new OpWriter(dataOut, reader, result, blockSize);
+            int pos = 0;
+            int literalStart = 0;
+            int a = 0;
+            int b = 0;
+            boolean rolling = false;
+            while (pos + blockSize <= n) {
+                if (!rolling) {
+                    reader.read(pos, window, blockSize);
+                    int weak = BlockPatcher.weakChecksum(window, 0, blockSize);
+                    a = weak & 0xffff;
+                    b = weak >>> 16;
+                    rolling = true;
+                }
+
+                List<Integer> candidates = index.get((b << 16) | a);
+                if (Objects.nonNull(candidates)) {
+                    reader.read(pos, window, blockSize);
+                    byte[] strong = md5.digest(window);
+                    Integer matched = null;
+                    for (Integer candidate : candidates) {
+                        if (Arrays.equals(strong, signature.getStrongChecksums()[candidate])) {
+                            matched = candidate;
+                            break;
+                        }
+                    }
+                    if (Objects.nonNull(matched)) {
+                        opWriter.literal(literalStart, pos);
+                        opWriter.copy(matched);
+                        pos += blockSize;
+                        literalStart = pos;
+                        rolling = false;
+                        continue;
+                    }
+                }
+
+                // 滚动一个字节
+                if (pos + blockSize < n) {
+                    int x = buffer.get(pos) & 0xff;
+                    int y = buffer.get(pos + blockSize) & 0xff;
+                    a = Math.floorMod(a - x + y, MOD);
+                    b = Math.floorMod(b - blockSize * x + a, MOD);
+                }
+                pos++;
+            }
+            opWriter.literal(literalStart, n);
+            opWriter.end();
+            dataOut.flush();
+        }
+        return result;
+    }
+
+    /**
+     * 签名
+     */
+    @Data
+    public static class Signature {
+        private final int blockSize;
+        private final int[] weakChecksums;
+        private final byte[][] strongChecksums;
+
+        private Map<Integer, List<Integer>> index() {
+            Map<Integer, List<Integer>> index = new HashMap<>(weakChecksums.length * 2);
+            for (int i = 0; i < weakChecksums.length; i++) {
+                index.computeIfAbsent(weakChecksums[i], key -> new ArrayList<>(1)).add(i);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * 差量统计
+     */
+    @Data
+    public static class Result {
+        // 块引用字节数
+        private long copiedBytes;
+        // 原始数据字节数
+        private long literalBytes;
+    }
+
+    private static class ByteBufferReader {
+        private final MappedByteBuffer buffer;
+
+        private ByteBufferReader(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        private void read(int offset, byte[] dst, int length) {
+            buffer.duplicate().position(offset).get(dst, 0, length);
+        }
+    }
+
+    private static class OpWriter {
+        private final DataOutputStream out;
+        private final ByteBufferReader reader;
+        private final Result result;
+        private final int blockSize;
+        private final byte[] bytes = new byte[MAX_LITERAL_SIZE];
+
+        // 待输出的连续块引用
+        private int copyIndex = -1;
+        private int copyCount;
+
+        private OpWriter(DataOutputStream out, ByteBufferReader reader, Result result, int blockSize) {
+            this.out = out;
+            this.reader = reader;
+            this.result = result;
+            this.blockSize = blockSize;
+        }
+
+        private void copy(int index) throws IOException {
+            if (copyCount > 0 && copyIndex + copyCount == index) {
+                copyCount++;
+            } else {
+                flushCopy();
+                copyIndex = index;
+                copyCount = 1;
+            }
+        }
+
+        private void literal(int start, int end) throws IOException {
+            if (start >= end) {
+                return;
+            }
+            flushCopy();
+            for (int offset = start; offset < end; offset += MAX_LITERAL_SIZE) {
+                int len = Math.min(MAX_LITERAL_SIZE, end - offset);
+                reader.read(offset, bytes, len);
+                out.writeByte(BlockPatcher.OP_LITERAL);
+                out.writeInt(len);
+                out.write(bytes, 0, len);
+                result.literalBytes += len;
+            }
+        }
+
+        private void end() throws IOException {
+            flushCopy();
+            out.writeByte(BlockPatcher.OP_END);
+        }
+
+        private void flushCopy() throws IOException {
+            if (copyCount > 0) {
+                out.writeByte(BlockPatcher.OP_COPY);
+                out.writeInt(copyIndex);
+                out.writeInt(copyCount);
+                result.copiedBytes += (long) copyCount * blockSize;
+                copyCount = 0;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+package org.auto.deploy.core.deployment.jar.delta;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * 块级差量（rsync算法）服务器端工具，只依赖JDK，打包为jar后上传到服务器运行：
+ * <p>
+ * 1、生成签名：java -cp patcher.jar BlockPatcher sign <旧文件> <签名文件> <块大小>
+ * <p>
+ * 2、合成文件：java -cp patcher.jar BlockPatcher patch <旧文件> <差量文件> <新文件>
+ * <p>
+ * 签名格式：MAGIC, 块大小(int), 文件长度(long), 每个完整块 {弱校验和(int), MD5(16B)}
+ * <p>
+ * 差量格式：MAGIC, 块大小(int), 新文件长度(long), 新文件SHA-256(32B), 指令集 {COPY 起始块(int) 块数(int) | LITERAL 长度(int) 数据 | END}
+ *
+ * @author xiangqian
+ * @date 20:05 2022/10/12
+ */
+public class BlockPatcher {
+
+    public static final int SIGNATURE_MAGIC = 0x41445347;
+    public static final int DELTA_MAGIC = 0x41444454;
+
+    public static final byte OP_END = 0;
+    public static final byte OP_COPY = 1;
+    public static final byte OP_LITERAL = 2;
+
+    // 弱校验和模数
+    private static final int MOD = 1 << 16;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 4 && "sign".equals(args[0])) {
+            sign(new File(args[1]), new File(args[2]), Integer.parseInt(args[3]));
+        } else if (args.length == 4 && "patch".equals(args[0])) {
+            patch(new File(args[1]), new File(args[2]), new File(args[3]));
+        } else {
+            System.err.println("usage: sign <old> <signature> <block size> | patch <old> <delta> <new>");
+            System.exit(2);
+        }
+    }
+
+    /**
+     * 生成文件签名
+     *
+     * @param file          文件
+     * @param signatureFile 签名文件
+     * @param blockSize     块大小
+     * @throws Exception
+     */
+    public static void sign(File file, File signatureFile, int blockSize) throws Exception {
+        MessageDigest md5 = MessageDigest.getInstance("MD5");
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(signatureFile), BUFFER_SIZE))) {
+            out.writeInt(SIGNATURE_MAGIC);
+            out.writeInt(blockSize);
+            out.writeLong(file.length());
+            byte[] block = new byte[blockSize];
+            while (in.readNBytes(block, 0, blockSize) == blockSize) {
+                out.writeInt(weakChecksum(block, 0, blockSize));
+                out.write(md5.digest(block));
+            }
+        }
+    }
+
+    /**
+     * 根据旧文件及差量合成新文件，并校验SHA-256
+     *
+     * @param oldFile   旧文件
+     * @param deltaFile 差量文件
+     * @param newFile   新文件
+     * @throws Exception
+     */
+    public static void patch(File oldFile, File deltaFile, File newFile) throws Exception {
+        MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+        File tempFile = new File(newFile.getAbsolutePath() + ".tmp");
+        long length = 0;
+        byte[] expectedSha256 = new byte[32];
+        try (RandomAccessFile old = new RandomAccessFile(oldFile, "r");
+             DataInputStream delta = new DataInputStream(new BufferedInputStream(new FileInputStream(deltaFile), BUFFER_SIZE));
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE)) {
+            if (delta.readInt() != DELTA_MAGIC) {
+                throw new IOException("invalid delta file");
+            }
+            int blockSize = delta.readInt();
+            long expectedLength = delta.readLong();
+            delta.readFully(expectedSha256);
+
+            byte[] buffer = new byte[Math.max(blockSize, BUFFER_SIZE)];
+            byte op;
+            while ((op = delta.readByte()) != OP_END) {
+                if (op == OP_COPY) {
+                    int index = delta.readInt();
+                    long remaining = (long) delta.readInt() * blockSize;
+                    old.seek((long) index * blockSize);
+                    while (remaining > 0) {
+                        int len = (int) Math.min(buffer.length, remaining);
+                        old.readFully(buffer, 0, len);
+                        out.write(buffer, 0, len);
+                        sha256.update(buffer, 0, len);
+                        remaining -= len;
+                        length += len;
+                    }
+                } else if (op == OP_LITERAL) {
+                    int remaining = delta.readInt();
+                    while (remaining > 0) {
+                        int len = Math.min(buffer.length, remaining);
+                        delta.readFully(buffer, 0, len);
+                        out.write(buffer, 0, len);
+                        sha256.update(buffer, 0, len);
+                        remaining -= len;
+                        length += len;
+                    }
+                } else {
+                    throw new IOException("invalid delta op: " + op);
+                }
+            }
+
+            if (length != expectedLength) {
+                throw new IOException(String.format("length mismatch: %d != %d", length, expectedLength));
+            }
+        }
+
+        if (!Arrays.equals(sha256.digest(), expectedSha256)) {
+            Files.deleteIfExists(tempFile.toPath());
+            throw new IOException("sha-256 mismatch");
+        }
+        Files.move(tempFile.toPath(), newFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * 弱校验和（rsync）：a = Σx(i)，b = Σ(n - i)x(i)，返回 (b << 16) | a
+     */
+    public static int weakChecksum(byte[] bytes, int offset, int length) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < length; i++) {
+            int x = bytes[offset + i] & 0xff;
+            a = (a + x) % MOD;
+            b = (int) ((b + (long) (length - i) * x) % MOD);
+        }
+        return (b << 16) | a;
+    }
+
+}
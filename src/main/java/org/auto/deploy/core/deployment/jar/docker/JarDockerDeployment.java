@@ -3,23 +3,23 @@ package org.auto.deploy.core.deployment.jar.docker;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.auto.deploy.item.ItemDeployer;
 import org.auto.deploy.item.ItemService;
 import org.auto.deploy.core.deployment.jar.JarDeployment;
 import org.auto.deploy.core.server.Server;
 import org.auto.deploy.core.source.Source;
+import org.auto.deploy.ssh.CmdPlan;
+import org.auto.deploy.ssh.Ssh;
 import org.auto.deploy.util.Assert;
 
 import java.io.File;
 import java.net.URL;
 import java.time.Duration;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Jar Docker部署
@@ -51,11 +51,10 @@ public class JarDockerDeployment extends JarDeployment {
     }
 
     @Override
-    protected void afterPost() throws Exception {
+    protected void afterPost(CmdPlan plan) throws Exception {
         // chmod +x
-        chmodX(scriptFiles);
+        chmodX(plan, scriptFiles);
 
-        log.debug("构建镜像 ...");
         // docker build 命令用于使用Dockerfile创建镜像。
         // docker build -f Dockerfile -t org/auto-deploy:2022.7 .
         List<String> buildCmd = List.of("docker build",
@@ -65,28 +64,34 @@ public class JarDockerDeployment extends JarDeployment {
                 String.format("-t %s", tag),
                 "."
         );
-        server.executeCmd(StringUtils.join(buildCmd, " "), Duration.ofMinutes(30));
-        log.debug("构建镜像成功!");
-
-        log.debug("启动镜像 ...");
-        server.executeCmd(StringUtils.join(((Config) config).getRunCmd(), " "), Duration.ofMinutes(30));
-        log.debug("已启动镜像!");
-
-        log.debug("获取容器元数据 ...");
-        List<String> results = server.executeCmdForResults(String.format("docker inspect %s", name));
-        log.debug("\n{}", StringUtils.join(results, "\n"));
-        Pattern pattern = Pattern.compile("\"MergedDir\":\\s+\"([^\"]*)");
-        Matcher matcher = pattern.matcher(StringUtils.join(results, ""));
-        while (matcher.find()) {
-            log.debug("MergedDir: {}", matcher.group(1));
-        }
-        log.debug("已获取容器元数据!");
+        plan.add("docker build", StringUtils.join(buildCmd, " "), Duration.ofMinutes(30));
+
+        // 启动镜像
+        plan.add("docker run", StringUtils.join(((Config) config).getRunCmd(), " "), Duration.ofMinutes(30));
+
+        // 获取容器元数据（只输出MergedDir）
+        plan.add("docker inspect", String.format("docker inspect --format '{{.GraphDriver.Data.MergedDir}}' %s", name), Ssh.DEFAULT_TIMEOUT, result -> {
+            result.getResults().forEach(mergedDir -> log.debug("MergedDir: {}", mergedDir));
+            log.debug("已获取容器元数据!");
+        });
+
+        // 任一步骤执行失败时不再执行后续步骤
+        log.debug("构建并启动镜像");
+    }
+
+    /**
+     * 镜像构建依赖完整的jar，不支持块级差量
+     */
+    @Override
+    protected boolean isDelta() {
+        return false;
     }
 
     @Override
     protected void initScriptFiles() throws Exception {
         // script files
-        File dockerfile = ItemService.getFile((((ItemDeployer) Thread.currentThread()).getItemName()), "config/jar/docker/Dockerfile");
+        Assert.notNull(itemName, "项目名称不能为null");
+        File dockerfile = ItemService.getFile(itemName, "config/jar/docker/Dockerfile");
         URL[] scriptUrls = new URL[]{FileUtils.toURLs(dockerfile)[0],
                 getScriptResource("jar/docker/clean.sh")};
 
@@ -127,6 +132,7 @@ public class JarDockerDeployment extends JarDeployment {
     }
 
     @Data
+    @EqualsAndHashCode(callSuper = true)
     @ToString(callSuper = true)
     @JsonIgnoreProperties(ignoreUnknown = true)
     public static class Config extends JarDeployment.Config {
@@ -0,0 +1,178 @@
+package org.auto.deploy.core.deployment.stc;
+
+import lombok.Getter;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.auto.deploy.util.PathFilter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * 部署清单，记录已部署文件的内容摘要（sha256）
+ * <p>
+ * 格式与 sha256sum 输出一致，每行：{@code <sha256>  <相对于部署位置的路径>}
+ *
+ * @author xiangqian
+ * @date 21:16 2022/10/11
+ */
+public class Manifest {
+
+    /**
+     * 部署位置上的清单文件名
+     */
+    public static final String FILE_NAME = ".auto-deploy-manifest";
+
+    // 相对路径 -> sha256
+    @Getter
+    private final Map<String, String> entries;
+
+    // 相对路径 -> 本地文件，仅本地生成的清单有值
+    private final Map<String, File> files;
+
+    private Manifest(Map<String, String> entries, Map<String, File> files) {
+        this.entries = entries;
+        this.files = files;
+    }
+
+    /**
+     * 空清单
+     *
+     * @return
+     */
+    public static Manifest empty() {
+        return new Manifest(new TreeMap<>(), Collections.emptyMap());
+    }
+
+    /**
+     * 根据本地文件集生成清单，目录递归处理，相对路径以文件集中各文件名为根
+     *
+     * @param srcFiles
+     * @return
+     * @throws IOException
+     */
+    public static Manifest of(File[] srcFiles) throws IOException {
+        return of(srcFiles, null);
+    }
+
+    /**
+     * 根据本地文件集生成清单，目录按过滤器过滤（与打包时一致）
+     *
+     * @param srcFiles
+     * @param filter   文件过滤器，以各目录为根目录，为null时不过滤
+     * @return
+     * @throws IOException
+     */
+    public static Manifest of(File[] srcFiles, PathFilter filter) throws IOException {
+        Map<String, File> files = new TreeMap<>();
+        if (ArrayUtils.isNotEmpty(srcFiles)) {
+            for (File srcFile : srcFiles) {
+                collect(new File[]{srcFile}, null, files, filter, srcFile.toPath());
+            }
+        }
+
+        Map<String, String> entries = new TreeMap<>();
+        try {
+            files.entrySet().parallelStream().forEach(entry -> {
+                try (InputStream in = new FileInputStream(entry.getValue())) {
+                    String sha256 = DigestUtils.sha256Hex(in);
+                    synchronized (entries) {
+                        entries.put(entry.getKey(), sha256);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return new Manifest(entries, files);
+    }
+
+    private static void collect(File[] srcFiles, String base, Map<String, File> files, PathFilter filter, Path root) throws IOException {
+        if (ArrayUtils.isEmpty(srcFiles)) {
+            return;
+        }
+
+        for (File srcFile : srcFiles) {
+            if (Objects.nonNull(filter) && !filter.accept(root, srcFile.toPath())) {
+                continue;
+            }
+            String path = Objects.isNull(base) ? srcFile.getName() : base + "/" + srcFile.getName();
+            if (srcFile.isDirectory()) {
+                collect(srcFile.listFiles(), path, files, filter, root);
+            } else if (srcFile.isFile()) {
+                files.put(path, srcFile);
+            }
+        }
+    }
+
+    /**
+     * 读取清单
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    public static Manifest read(InputStream in) throws IOException {
+        Map<String, String> entries = new TreeMap<>();
+        for (String line : IOUtils.readLines(in, StandardCharsets.UTF_8)) {
+            if (StringUtils.isBlank(line)) {
+                continue;
+            }
+            int index = line.indexOf("  ");
+            if (index <= 0) {
+                throw new IOException(String.format("部署清单格式错误: %s", line));
+            }
+            entries.put(line.substring(index + 2), line.substring(0, index));
+        }
+        return new Manifest(entries, Collections.emptyMap());
+    }
+
+    /**
+     * 写出清单
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void write(File file) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                writer.write(entry.getValue());
+                writer.write("  ");
+                writer.write(entry.getKey());
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * 相对于上一次部署清单，新增或修改的文件集
+     *
+     * @param previous 上一次部署清单
+     * @return 相对路径 -> 本地文件
+     */
+    public Map<String, File> changed(Manifest previous) {
+        return entries.entrySet().stream()
+                .filter(entry -> !entry.getValue().equals(previous.entries.get(entry.getKey())))
+                .collect(Collectors.toMap(Map.Entry::getKey, entry -> files.get(entry.getKey()), (a, b) -> a, TreeMap::new));
+    }
+
+    /**
+     * 相对于上一次部署清单，已删除的文件集
+     *
+     * @param previous 上一次部署清单
+     * @return 相对路径集
+     */
+    public List<String> removed(Manifest previous) {
+        return previous.entries.keySet().stream()
+                .filter(path -> !entries.containsKey(path))
+                .collect(Collectors.toList());
+    }
+
+}
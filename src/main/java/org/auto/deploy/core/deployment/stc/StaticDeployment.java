@@ -3,20 +3,30 @@ package org.auto.deploy.core.deployment.stc;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.collections4.ListUtils;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.auto.deploy.core.deployment.AbstractDeployment;
 import org.auto.deploy.core.server.Server;
 import org.auto.deploy.core.source.Source;
+import org.auto.deploy.ssh.CmdPlan;
+import org.auto.deploy.ssh.Ssh;
 import org.auto.deploy.util.Assert;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.net.URL;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
-import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * @author xiangqian
@@ -40,31 +50,51 @@ public class StaticDeployment extends AbstractDeployment {
     // script file
     private File[] scriptFiles;
 
+    // 部署到 location 的文件集，增量部署时只包含新增或修改的文件及部署清单
+    private File[] deployFiles;
+
+    // 增量部署时，需要从 location 删除的文件集（相对路径）
+    private List<String> removedPaths;
+
     // files
     private File[] files;
 
     public StaticDeployment(Config config, Server server, Source source) {
-        super(server);
+        super(config, server);
         this.config = config;
         this.source = source;
     }
 
     @Override
-    protected void afterPost() throws Exception {
+    protected void afterPost(CmdPlan plan) throws Exception {
         // chmod +x
-        chmodX(scriptFiles);
-
-        // cp -r -f
-        Consumer<File> fileConsumer = file -> {
-            try {
-                server.executeCmd(String.format("cp -r -f ./%s %s", file.getName(), absoluteLocation), false);
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+        chmodX(plan, scriptFiles);
+        List<String> cmds = new ArrayList<>();
+
+        // 增量部署，删除已移除的文件
+        if (CollectionUtils.isNotEmpty(removedPaths)) {
+            for (List<String> paths : ListUtils.partition(removedPaths, 100)) {
+                cmds.add(String.format("rm -f %s", paths.stream()
+                        .map(path -> String.format("'%s/%s'", absoluteLocation, path.replace("'", "'\\''")))
+                        .collect(Collectors.joining(" "))));
+            }
+        }
+
+        // cp -r -f（部署清单最后复制，保证文件全部复制后才更新清单）
+        File manifestFile = null;
+        for (File file : deployFiles) {
+            if (Manifest.FILE_NAME.equals(file.getName())) {
+                manifestFile = file;
+                continue;
             }
-        };
-        Arrays.stream(pkgFiles).forEach(fileConsumer);
-        if (Objects.nonNull(addlFiles)) {
-            Arrays.stream(addlFiles).forEach(fileConsumer);
+            cmds.add(String.format("cp -r -f ./%s %s", file.getName(), absoluteLocation));
+        }
+
+        // 以上命令相互独立，并发执行
+        log.debug("复制文件到部署位置\n\t{}", absoluteLocation);
+        plan.addConcurrently("cp", cmds, Duration.ofMinutes(5));
+        if (Objects.nonNull(manifestFile)) {
+            plan.add("cp manifest", String.format("cp -f ./%s %s", manifestFile.getName(), absoluteLocation), Ssh.DEFAULT_TIMEOUT);
         }
     }
 
@@ -78,8 +108,8 @@ public class StaticDeployment extends AbstractDeployment {
         log.debug("initializing ...");
 
         // location
-        // pwd
-        String cmd = String.format("cd %s && pwd", config.getLocation());
+        // pwd（在子shell中进入部署位置，不改变当前工作目录）
+        String cmd = String.format("(cd %s && pwd)", config.getLocation());
         List<String> results = server.executeCmdForResults(cmd);
         log.debug("<ssh> {}\n{}", cmd, StringUtils.join(results, "\n"));
         if (CollectionUtils.isNotEmpty(results)) {
@@ -92,8 +122,6 @@ public class StaticDeployment extends AbstractDeployment {
         }
         Assert.notNull(absoluteLocation, "无法解析部署位置绝对路径");
         log.debug("absoluteLocation: {}", absoluteLocation);
-        // 再回到工作目录
-        server.executeCmd(String.format("cd %s", server.getAbsoluteWorkDir()), false);
 
         // pkg file
         File pkgFile = null;
@@ -116,16 +144,26 @@ public class StaticDeployment extends AbstractDeployment {
                     .toArray(File[]::new);
         }
 
+        // deploy files
+        deployFiles = ArrayUtils.addAll(pkgFiles, Optional.ofNullable(addlFiles).orElse(new File[0]));
+        boolean delta = BooleanUtils.isTrue(config.getDelta());
+        if (delta) {
+            deployFiles = initDelta(deployFiles);
+        }
+
         // script files
         URL[] scriptUrls = new URL[]{getScriptResource("static/clean.sh")};
         // placeholderMap
         FilesPlaceholderValue filesPlaceholderValue = new FilesPlaceholderValue();
-        Arrays.stream(pkgFiles).forEach(filesPlaceholderValue::add);
-        Optional.ofNullable(addlFiles).ifPresent(files -> Arrays.stream(files).forEach(filesPlaceholderValue::add));
+        Arrays.stream(deployFiles).forEach(filesPlaceholderValue::add);
         Arrays.stream(scriptUrls).forEach(filesPlaceholderValue::add);
         // --- location ---
-        Arrays.stream(pkgFiles).forEach(file -> filesPlaceholderValue.add(String.format("%s/%s", absoluteLocation, file.getName()), file.isDirectory()));
-        Optional.ofNullable(addlFiles).ifPresent(files -> Arrays.stream(files).forEach(file -> filesPlaceholderValue.add(String.format("%s/%s", absoluteLocation, file.getName()), file.isDirectory())));
+        // 增量部署时不清除 location 上的文件
+        if (!delta) {
+            Arrays.stream(deployFiles).forEach(file -> filesPlaceholderValue.add(String.format("%s/%s", absoluteLocation, file.getName()), file.isDirectory()));
+            // 全量部署后，部署清单不再有效
+            filesPlaceholderValue.add(String.format("%s/%s", absoluteLocation, Manifest.FILE_NAME), false);
+        }
         Map<String, Object> placeholderMap = Map.of("FILES", filesPlaceholderValue);
         // replaceFilePlaceholders
         int length = scriptUrls.length;
@@ -135,18 +173,65 @@ public class StaticDeployment extends AbstractDeployment {
         }
 
         // files
-        files = ArrayUtils.addAll(pkgFiles, scriptFiles);
-        if (Objects.nonNull(addlFiles)) {
-            files = ArrayUtils.addAll(files, addlFiles);
-        }
+        files = ArrayUtils.addAll(deployFiles, scriptFiles);
 
         log.debug("initialized!");
     }
 
+    /**
+     * 初始化增量部署，对比上一次的部署清单，只部署新增或修改的文件
+     *
+     * @param deployFiles 部署文件集
+     * @return 增量部署文件集
+     * @throws Exception
+     */
+    private File[] initDelta(File[] deployFiles) throws Exception {
+        Manifest manifest = Manifest.of(deployFiles, newPathFilter());
+        Manifest previous = getPreviousManifest();
+        Map<String, File> changed = manifest.changed(previous);
+        removedPaths = manifest.removed(previous);
+
+        // 暂存新增或修改的文件，保持相对路径
+        File deltaDir = Path.of(getTempDir().getAbsolutePath(), "delta").toFile();
+        deltaDir.mkdir();
+        long changedSize = 0;
+        for (Map.Entry<String, File> entry : changed.entrySet()) {
+            FileUtils.copyFile(entry.getValue(), Path.of(deltaDir.getAbsolutePath(), entry.getKey()).toFile());
+            changedSize += entry.getValue().length();
+        }
+
+        // 部署清单
+        File manifestFile = Path.of(getTempDir().getAbsolutePath(), Manifest.FILE_NAME).toFile();
+        manifest.write(manifestFile);
+
+        log.info("增量部署: 新增或修改 {} 个文件（{} B），删除 {} 个文件，未变化 {} 个文件",
+                changed.size(), changedSize, removedPaths.size(), manifest.getEntries().size() - changed.size());
+        return ArrayUtils.add(Optional.ofNullable(deltaDir.listFiles()).orElse(new File[0]), manifestFile);
+    }
+
+    /**
+     * 获取服务器上一次的部署清单，不存在时返回空清单（全部文件都视为新增）
+     *
+     * @return
+     */
+    private Manifest getPreviousManifest() {
+        String path = String.format("%s/%s", absoluteLocation, Manifest.FILE_NAME);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            server.downloadFile(path, out);
+            return Manifest.read(new ByteArrayInputStream(out.toByteArray()));
+        } catch (Exception e) {
+            log.debug("未获取到上一次的部署清单，将部署全部文件\n\t{}: {}", path, e.getMessage());
+            return Manifest.empty();
+        }
+    }
+
 
     @Data
+    @EqualsAndHashCode(callSuper = true)
+    @ToString(callSuper = true)
     @JsonIgnoreProperties(ignoreUnknown = true)
-    public static class Config {
+    public static class Config extends AbstractDeployment.Config {
 
         /**
          * 部署位置
@@ -165,6 +250,11 @@ public class StaticDeployment extends AbstractDeployment {
         @JsonProperty("addl-files")
         private List<String> addlFiles;
 
+        /**
+         * 是否增量部署，根据部署位置上的部署清单（sha256）只部署新增或修改的文件，并删除已移除的文件
+         */
+        private Boolean delta;
+
         public void validate() {
             Assert.notNull(location, "deployment.static.location不能为null");
             Assert.notNull(pkgFile, "deployment.static.pkg-file不能为null");
@@ -2,31 +2,44 @@ package org.auto.deploy.core.server;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.jcraft.jsch.Session;
 import lombok.Data;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
-import org.apache.commons.collections4.ListUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.function.IOConsumer;
 import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.auto.deploy.sftp.FileTransferMode;
 import org.auto.deploy.sftp.Sftp;
 import org.auto.deploy.sftp.impl.DefaultSftpProgressMonitor;
-import org.auto.deploy.sftp.impl.JSchSftpImpl;
+import org.auto.deploy.ssh.CmdOutput;
+import org.auto.deploy.ssh.CmdPlan;
+import org.auto.deploy.ssh.CmdResult;
 import org.auto.deploy.ssh.ConnectionProperties;
+import org.auto.deploy.ssh.ErrorMatcher;
+import org.auto.deploy.ssh.JSchChannelMultiplexer;
+import org.auto.deploy.ssh.SessionPool;
 import org.auto.deploy.ssh.Ssh;
-import org.auto.deploy.ssh.impl.JSchShellChannelSshImpl;
+import org.auto.deploy.ssh.impl.JSchExecChannelSshImpl;
 import org.auto.deploy.util.Assert;
 
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Random;
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * 服务器
@@ -41,18 +54,26 @@ public class Server implements Closeable {
     private Ssh ssh;
     private Sftp sftp;
 
+    // 用于流式写入标准输入的命令，首次使用时连接
+    private JSchExecChannelSshImpl execSsh;
+    private ConnectionProperties connectionProperties;
+
+    // 从session池租用的session
+    private Session session;
+
+    // 通道复用器，在session上打开shell、sftp、exec通道
+    private JSchChannelMultiplexer multiplexer;
+
+    // 命令输出错误匹配器
+    private final ErrorMatcher errorMatcher;
+
     // 绝对工作路径
     @Getter
     private String absoluteWorkDir;
 
-    // 错误集
-    private Set<String> errorSet = Set.of("No such file or directory",
-            "Permission denied",
-            "-bash:"
-    );
-
     public Server(Config config) {
         this.config = config;
+        this.errorMatcher = ErrorMatcher.compile(Optional.ofNullable(config.getErrorPatterns()).orElse(Config.DEFAULT_ERROR_PATTERNS));
     }
 
     /**
@@ -63,9 +84,67 @@ public class Server implements Closeable {
      * @throws Exception
      */
     public void uploadFile(String src, String dst) throws Exception {
+        int parallelism = Optional.ofNullable(config.getUploadParallelism()).orElse(1);
+        if (parallelism > 1) {
+            sftp.put(src, dst, DefaultSftpProgressMonitor.builder().build(), parallelism);
+            return;
+        }
         sftp.put(src, dst, DefaultSftpProgressMonitor.builder().build(), FileTransferMode.OVERWRITE);
     }
 
+    /**
+     * 下载文件
+     *
+     * @param src
+     * @param dst
+     * @throws Exception
+     */
+    public void downloadFile(String src, OutputStream dst) throws Exception {
+        sftp.get(src, dst, null, FileTransferMode.OVERWRITE);
+    }
+
+    /**
+     * 测量上传吞吐量
+     *
+     * @param size 探测数据大小
+     * @return 上传吞吐量，单位B/s
+     * @throws Exception
+     */
+    public double measureUploadThroughput(int size) throws Exception {
+        // 随机数据，避免链路压缩影响测量结果
+        byte[] bytes = new byte[size];
+        new Random().nextBytes(bytes);
+        String dst = ".auto-deploy-probe";
+        long beginTime = System.nanoTime();
+        sftp.put(new ByteArrayInputStream(bytes), dst, null, FileTransferMode.OVERWRITE);
+        long nanos = Math.max(System.nanoTime() - beginTime, 1);
+        sftp.rm(dst);
+        log.debug("上传吞吐量探测: {} B, {} ms", size, nanos / 1_000_000);
+        return size * 1_000_000_000d / nanos;
+    }
+
+    /**
+     * 服务器是否存在指定命令
+     *
+     * @param cmd 命令名称
+     * @return
+     * @throws Exception
+     */
+    public boolean hasCmd(String cmd) throws Exception {
+        CmdResult result = executeCmdForResult(String.format("command -v %s", cmd), Ssh.DEFAULT_TIMEOUT);
+        log.debug("<ssh> {}\nexit status: {}\n{}", result.getCmd(), result.getExitStatus(), StringUtils.join(result.getResults(), "\n"));
+        return result.isSuccess();
+    }
+
+    /**
+     * 服务器名称，username@host:port
+     *
+     * @return
+     */
+    public String getName() {
+        return String.format("%s@%s:%s", config.getUsername(), config.getHost(), config.getPort());
+    }
+
     public void executeCmd(String cmd) throws Exception {
         executeCmd(cmd, true);
     }
@@ -83,25 +162,192 @@ public class Server implements Closeable {
      *
      * @param cmd           命令
      * @param timeout       执行命令超时时间
-     * @param isIgnoreError 是否忽略命令执行异常
+     * @param isIgnoreError 是否忽略命令执行异常（退出码不为0或者超时）
      * @throws Exception
      */
     public void executeCmd(String cmd, Duration timeout, boolean isIgnoreError) throws Exception {
+        CmdOutput output = newOutput();
+        CmdResult result = executeCmd(cmd, timeout, output);
+        log.debug("<ssh> {}\nexit status: {}, {} 行\n{}", cmd, result.getExitStatus(), output.getLineCount(), output);
         if (isIgnoreError) {
-            List<String> results = new ArrayList<>();
-            executeCmd(cmd, timeout, (result) -> {
-//                System.out.format("[%03d] %s", index++, result).println();
-                System.out.format("%s", result).println();
-                results.add(result);
-            });
-            log.debug("<ssh> {}\n{}", cmd, StringUtils.join(results, "\n"));
+            if (output.hasError()) {
+                log.warn("<ssh> {}: {}", cmd, output.getFirstErrorLine());
+            }
             return;
         }
 
-        List<String> results = executeCmdForResults(cmd, timeout);
-        log.debug("<ssh> {}\n{}", cmd, StringUtils.join(results, "\n"));
-        for (String error : errorSet) {
-            Assert.isTrue(ListUtils.indexOf(results, result -> result.contains(error)) == -1, String.format("%s: %s", cmd, error));
+        Assert.isTrue(!result.isTimeout(), String.format("%s: 命令执行超时\n%s", cmd, output));
+        Assert.isTrue(result.isSuccess(), String.format("%s: exit status %d\n%s", cmd, result.getExitStatus(), output));
+        Assert.isTrue(!output.hasError(), String.format("%s: %s", cmd, output.getFirstErrorLine()));
+    }
+
+    /**
+     * 执行命令，返回退出码及命令输出（最后 output-tail-lines 行）
+     *
+     * @param cmd     命令
+     * @param timeout 执行命令超时时间
+     * @return
+     * @throws Exception
+     */
+    public CmdResult executeCmdForResult(String cmd, Duration timeout) throws Exception {
+        CmdOutput output = newOutput();
+        CmdResult result = executeCmd(cmd, timeout, output);
+        return new CmdResult(result.getCmd(), result.getExitStatus(), output.getTail(), result.getTime());
+    }
+
+    public List<CmdResult> executeBatch(List<String> cmds, Duration timeout) throws Exception {
+        return executeBatch(cmds, timeout, false);
+    }
+
+    /**
+     * 批量执行命令，命令集一次性发送到服务器，只需要一次往返
+     *
+     * @param cmds            命令集
+     * @param timeout         批量执行命令超时时间
+     * @param continueOnError 命令执行失败（退出码不为0）时是否继续执行后续命令，为false时遇到执行失败的命令抛出异常
+     * @return 每条命令的执行结果
+     * @throws Exception 命令执行超时，或者不继续执行时命令执行失败（退出码不为0或者输出匹配到错误）
+     */
+    public List<CmdResult> executeBatch(List<String> cmds, Duration timeout, boolean continueOnError) throws Exception {
+        List<CmdOutput> outputs = new ArrayList<>(cmds.size());
+        List<CmdResult> results = getShellSsh().executeBatch(cmds.stream().map(this::sudo).collect(Collectors.toList()), continueOnError, timeout, () -> {
+            CmdOutput output = newOutput();
+            outputs.add(output);
+            return output;
+        });
+        for (int i = 0; i < results.size(); i++) {
+            CmdResult result = results.get(i);
+            log.debug("<ssh> {}\nexit status: {}, {} 行, {} ms\n{}", result.getCmd(), result.getExitStatus(), outputs.get(i).getLineCount(), result.getTime(), outputs.get(i));
+        }
+
+        CmdResult last = results.get(results.size() - 1);
+        CmdOutput lastOutput = outputs.get(results.size() - 1);
+        Assert.isTrue(!last.isTimeout(), String.format("%s: 命令执行超时\n%s", last.getCmd(), lastOutput));
+        if (!continueOnError) {
+            Assert.isTrue(last.isSuccess(), String.format("%s: exit status %d\n%s", last.getCmd(), last.getExitStatus(), lastOutput));
+            for (int i = 0; i < results.size(); i++) {
+                Assert.isTrue(!outputs.get(i).hasError(), String.format("%s: %s", results.get(i).getCmd(), outputs.get(i).getFirstErrorLine()));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 并发执行相互独立的命令（在工作目录下执行），每条命令使用一个exec通道
+     *
+     * @param cmds    命令集
+     * @param timeout 每条命令执行超时时间
+     * @return 每条命令的执行结果
+     * @throws Exception 任一命令执行失败（退出码不为0或者超时）
+     */
+    public List<CmdResult> executeConcurrently(List<String> cmds, Duration timeout) throws Exception {
+        // 并发执行时每行输出不交给下游消费者，避免多条命令的输出交错
+        List<CmdOutput> outputs = new ArrayList<>(cmds.size());
+        List<CmdResult> results = multiplexer.executeConcurrently(cmds.stream()
+                        .map(cmd -> String.format("cd '%s' && %s", absoluteWorkDir, sudo(cmd)))
+                        .collect(Collectors.toList()),
+                JSchChannelMultiplexer.DEFAULT_PARALLELISM, timeout, () -> {
+                    CmdOutput output = new CmdOutput(getOutputTailLines(), errorMatcher, null);
+                    outputs.add(output);
+                    return output;
+                });
+        for (int i = 0; i < results.size(); i++) {
+            CmdResult result = results.get(i);
+            log.debug("<ssh> {}\nexit status: {}, {} 行, {} ms\n{}", result.getCmd(), result.getExitStatus(), outputs.get(i).getLineCount(), result.getTime(), outputs.get(i));
+        }
+        for (int i = 0; i < results.size(); i++) {
+            CmdResult result = results.get(i);
+            CmdOutput output = outputs.get(i);
+            Assert.isTrue(!result.isTimeout(), String.format("%s: 命令执行超时\n%s", result.getCmd(), output));
+            Assert.isTrue(result.isSuccess(), String.format("%s: exit status %d\n%s", result.getCmd(), result.getExitStatus(), output));
+            Assert.isTrue(!output.hasError(), String.format("%s: %s", result.getCmd(), output.getFirstErrorLine()));
+        }
+        return results;
+    }
+
+    /**
+     * 逐步执行命令执行计划：连续的步骤批量执行，忽略错误的步骤单独执行，并发步骤通过多个exec通道执行
+     *
+     * @param plan 命令执行计划
+     * @return 每个步骤的执行结果
+     * @throws Exception 任一步骤（忽略错误的步骤除外）执行失败
+     */
+    public List<CmdResult> executeSteps(CmdPlan plan) throws Exception {
+        List<CmdPlan.Step> steps = plan.getSteps();
+        List<CmdResult> results = new ArrayList<>(steps.size());
+        List<CmdPlan.Step> batch = new ArrayList<>();
+        for (CmdPlan.Step step : steps) {
+            if (!step.isIgnoreError() && !step.isConcurrent()) {
+                batch.add(step);
+                continue;
+            }
+
+            results.addAll(executeSteps(batch));
+            batch.clear();
+            if (step.isConcurrent()) {
+                List<CmdResult> cmdResults = executeConcurrently(step.getCmds(), step.getTimeout());
+                results.add(new CmdResult(step.getCmd(), 0, cmdResults.stream().mapToLong(CmdResult::getTime).max().orElse(0)));
+            } else {
+                CmdResult result = executeCmdForResult(step.getCmd(), step.getTimeout());
+                log.debug("<ssh> {}\nexit status: {}, {} ms\n{}", result.getCmd(), result.getExitStatus(), result.getTime(), StringUtils.join(result.getResults(), "\n"));
+                results.add(result);
+            }
+        }
+        results.addAll(executeSteps(batch));
+
+        callback(steps, results);
+        return results;
+    }
+
+    private List<CmdResult> executeSteps(List<CmdPlan.Step> batch) throws Exception {
+        if (batch.isEmpty()) {
+            return List.of();
+        }
+        return executeBatch(batch.stream().map(CmdPlan.Step::getCmd).collect(Collectors.toList()),
+                batch.stream().map(CmdPlan.Step::getTimeout).reduce(Duration.ZERO, Duration::plus));
+    }
+
+    /**
+     * 一次执行命令执行计划：cmd 执行由 {@link CmdPlan#toScript} 生成的脚本，只需要一次往返
+     *
+     * @param cmd  执行计划脚本的命令
+     * @param plan 命令执行计划
+     * @return 每个步骤的执行结果（包含耗时）
+     * @throws Exception 执行超时，或者任一步骤（忽略错误的步骤除外）执行失败
+     */
+    public List<CmdResult> executePlan(String cmd, CmdPlan plan) throws Exception {
+        CmdPlan.Reader reader = plan.newReader(this::newOutput);
+        CmdResult result = executeCmd(cmd, plan.getTimeout(), reader);
+        List<CmdResult> results = reader.getResults();
+        List<CmdOutput> outputs = reader.getOutputs();
+        List<CmdPlan.Step> steps = plan.getSteps();
+        for (int i = 0; i < results.size(); i++) {
+            log.debug("<ssh> [{}] {}\nexit status: {}, {} 行, {} ms\n{}", steps.get(i).getName(), results.get(i).getCmd(),
+                    results.get(i).getExitStatus(), outputs.get(i).getLineCount(), results.get(i).getTime(), outputs.get(i));
+        }
+
+        String pending = Optional.ofNullable(reader.getPendingOutput()).map(CmdOutput::toString).orElse("");
+        Assert.isTrue(!result.isTimeout(), String.format("%s: 命令执行超时\n%s", cmd, pending));
+        for (int i = 0; i < results.size(); i++) {
+            if (steps.get(i).isIgnoreError()) {
+                continue;
+            }
+            CmdResult stepResult = results.get(i);
+            Assert.isTrue(stepResult.isSuccess(), String.format("[%s] %s: exit status %d\n%s", steps.get(i).getName(), stepResult.getCmd(), stepResult.getExitStatus(), outputs.get(i)));
+            Assert.isTrue(!outputs.get(i).hasError(), String.format("[%s] %s: %s", steps.get(i).getName(), stepResult.getCmd(), outputs.get(i).getFirstErrorLine()));
+        }
+        Assert.isTrue(result.isSuccess() && results.size() == steps.size(), String.format("%s: exit status %d\n%s", cmd, result.getExitStatus(), pending));
+
+        callback(steps, results);
+        return results;
+    }
+
+    private void callback(List<CmdPlan.Step> steps, List<CmdResult> results) {
+        for (int i = 0; i < results.size(); i++) {
+            Consumer<CmdResult> callback = steps.get(i).getCallback();
+            if (Objects.nonNull(callback) && results.get(i).isSuccess()) {
+                callback.accept(results.get(i));
+            }
         }
     }
 
@@ -115,17 +361,108 @@ public class Server implements Closeable {
         return results;
     }
 
-    public void executeCmd(String cmd, Duration timeout, Consumer<String> consumer) throws Exception {
-        // sudo
+    public CmdResult executeCmd(String cmd, Duration timeout, Consumer<String> consumer) throws Exception {
+        // execute
+        return getCmdSsh().execute(inWorkDir(sudo(cmd)), timeout, consumer);
+    }
+
+    /**
+     * 执行命令，并将数据流式写入命令的标准输入
+     *
+     * @param cmd     命令
+     * @param stdin   标准输入写入者
+     * @param timeout 标准输入写入完成后，等待命令结束的超时时间
+     * @throws Exception 命令退出码不为0时抛出异常
+     */
+    public void executeCmd(String cmd, IOConsumer<OutputStream> stdin, Duration timeout) throws Exception {
+        cmd = sudo(cmd);
+        CmdOutput output = newOutput();
+        int exitStatus = getExecSsh().execute(cmd, stdin, timeout, output);
+        log.debug("<ssh> {}\nexit status: {}, {} 行\n{}", cmd, exitStatus, output.getLineCount(), output);
+        Assert.isTrue(exitStatus == 0, String.format("%s: exit status %d\n%s", cmd, exitStatus, output));
+        Assert.isTrue(!output.hasError(), String.format("%s: %s", cmd, output.getFirstErrorLine()));
+    }
+
+    /**
+     * 命令输出：保留最后 output-tail-lines 行，逐行匹配错误，verbose时打印每行输出
+     *
+     * @return
+     */
+    private CmdOutput newOutput() {
+        return new CmdOutput(getOutputTailLines(), errorMatcher,
+                BooleanUtils.isFalse(config.getVerbose()) ? null : System.out::println);
+    }
+
+    private int getOutputTailLines() {
+        return Optional.ofNullable(config.getOutputTailLines()).orElse(CmdOutput.DEFAULT_TAIL_LINES);
+    }
+
+    private synchronized JSchExecChannelSshImpl getExecSsh() throws Exception {
+        if (Objects.isNull(execSsh)) {
+            execSsh = multiplexer.exec();
+        }
+        return execSsh;
+    }
+
+    /**
+     * shell通道，用于批量执行命令，首次使用时打开并进入工作目录
+     *
+     * @return
+     * @throws Exception
+     */
+    private synchronized Ssh getShellSsh() throws Exception {
+        if (Objects.isNull(ssh)) {
+            ssh = multiplexer.shell();
+            if (Objects.nonNull(absoluteWorkDir)) {
+                String cmd = String.format("cd '%s'", absoluteWorkDir);
+                CmdResult result = ssh.executeForResult(cmd, Ssh.DEFAULT_TIMEOUT);
+                Assert.isTrue(result.isSuccess(), String.format("%s: exit status %s\n%s", cmd, result.getExitStatus(), StringUtils.join(result.getResults(), "\n")));
+            }
+        }
+        return ssh;
+    }
+
+    /**
+     * 执行单条命令的通道，默认为exec通道
+     *
+     * @return
+     * @throws Exception
+     */
+    private Ssh getCmdSsh() throws Exception {
+        return isExecChannel() ? getExecSsh() : getShellSsh();
+    }
+
+    private boolean isExecChannel() {
+        return !BooleanUtils.isFalse(config.getExecChannel());
+    }
+
+    /**
+     * exec通道的命令之间不共享当前目录，进入工作目录后执行
+     *
+     * @param cmd
+     * @return
+     */
+    private String inWorkDir(String cmd) {
+        if (isExecChannel() && Objects.nonNull(absoluteWorkDir)) {
+            cmd = String.format("cd '%s' && %s", absoluteWorkDir, cmd);
+        }
+        return cmd;
+    }
+
+    /**
+     * 需要时以sudo执行命令
+     *
+     * @param cmd
+     * @return
+     */
+    public String sudo(String cmd) {
         if (BooleanUtils.isTrue(config.getSudo())
                 && StringUtils.startsWithAny(cmd, "./jps.sh", "./startup.sh", "./shutdown.sh", "./clean.sh",
                 "cp", "mv", "rm", "chmod", "tar",
                 "docker")) {
             cmd = "sudo " + cmd;
         }
-
-        // execute
-        ssh.execute(cmd, timeout, consumer);
+        return cmd;
     }
 
     /**
@@ -133,7 +470,7 @@ public class Server implements Closeable {
      */
     public synchronized void connect() throws Exception {
         log.debug("连接到 {} 服务器 ...", config.getHost());
-        ConnectionProperties connectionProperties = new ConnectionProperties();
+        connectionProperties = new ConnectionProperties();
         connectionProperties.setHost(config.getHost());
         connectionProperties.setPort(config.getPort());
         connectionProperties.setUsername(config.getUsername());
@@ -142,35 +479,35 @@ public class Server implements Closeable {
         Duration sessionConnTimeout = Duration.ofSeconds(config.getSessionConnTimeout());
         Duration channelConnTimeout = Duration.ofSeconds(config.getChannelConnTimeout());
 
-        ssh = JSchShellChannelSshImpl.builder()
-                .connectionProperties(connectionProperties)
-                .sessionConnectTimeout(sessionConnTimeout)
-                .channelConnectTimeout(channelConnTimeout)
-                .defaultQuickEndSignPatterns()
-                .build();
-        sftp = JSchSftpImpl.builder()
-                .connectionProperties(connectionProperties)
-                .sessionConnectTimeout(sessionConnTimeout)
-                .channelConnectTimeout(channelConnTimeout)
-                .build();
-        log.debug("已成功连接到 {} 服务器!", config.getHost());
-
-        cdWorkDir();
+        // 从session池租用session，shell、sftp、exec通道通过复用器共用此session
+        session = SessionPool.lease(connectionProperties, sessionConnTimeout);
+        try {
+            multiplexer = JSchChannelMultiplexer.builder()
+                    .connectionProperties(connectionProperties)
+                    .session(session)
+                    .channelConnectTimeout(channelConnTimeout)
+                    .build();
+            sftp = multiplexer.sftp();
+            log.debug("已成功连接到 {} 服务器!", config.getHost());
+
+            cdWorkDir();
+        } catch (Exception e) {
+            close();
+            throw e;
+        }
     }
 
     private void cdWorkDir() throws Exception {
         String workDir = config.getWorkDir();
         log.debug("进入工作目录 ...\n\t{}", workDir);
-        String cmd = null;
-
-        // ssh
-        cmd = String.format("cd %s", workDir);
-        executeCmd(cmd, false);
 
+        // ssh（shell通道执行时当前目录保持在工作目录）
         // pwd
-        cmd = "pwd";
-        List<String> results = executeCmdForResults(cmd);
-        log.debug("<ssh> {}\n{}", cmd, StringUtils.join(results, "\n"));
+        String cmd = String.format("cd %s && pwd", workDir);
+        CmdResult cmdResult = executeCmdForResult(cmd, Ssh.DEFAULT_TIMEOUT);
+        List<String> results = cmdResult.getResults();
+        log.debug("<ssh> {}\nexit status: {}\n{}", cmd, cmdResult.getExitStatus(), StringUtils.join(results, "\n"));
+        Assert.isTrue(cmdResult.isSuccess(), String.format("%s: exit status %s\n%s", cmd, cmdResult.getExitStatus(), StringUtils.join(results, "\n")));
         if (CollectionUtils.isNotEmpty(results)) {
             for (String result : results) {
                 if (result.startsWith("/")) {
@@ -191,15 +528,27 @@ public class Server implements Closeable {
 
     @Override
     public void close() throws IOException {
-        IOUtils.closeQuietly(ssh, sftp);
+        IOUtils.closeQuietly(ssh, sftp, execSsh, multiplexer);
         ssh = null;
         sftp = null;
+        execSsh = null;
+        multiplexer = null;
         absoluteWorkDir = null;
+
+        // 关闭通道后归还session
+        SessionPool.release(session);
+        session = null;
     }
 
     @Data
     @JsonIgnoreProperties(ignoreUnknown = true)
     public static class Config {
+
+        /**
+         * 默认错误模式集
+         */
+        public static final List<String> DEFAULT_ERROR_PATTERNS = List.of("No such file or directory", "Permission denied", "-?bash: ");
+
         private String host;
         private Integer port;
 
@@ -229,14 +578,267 @@ public class Server implements Closeable {
          */
         private Boolean sudo;
 
+        /**
+         * 单条命令是否通过exec通道执行（默认true）：命令执行结果流式读取，命令结束时立即返回；
+         * 为false时通过shell通道执行。批量命令始终通过shell通道一次发送
+         */
+        @JsonProperty("exec-channel")
+        private Boolean execChannel;
+
+        /**
+         * 是否打印命令执行的每行输出（默认true），为false时只在日志中记录最后 output-tail-lines 行
+         */
+        private Boolean verbose;
+
+        /**
+         * 每条命令保留的输出行数（默认200），用于日志及异常信息
+         */
+        @JsonProperty("output-tail-lines")
+        private Integer outputTailLines;
+
+        /**
+         * 错误模式集（正则表达式），命令输出匹配到任一模式时视为执行失败；为null时使用 {@link #DEFAULT_ERROR_PATTERNS}，为空时不匹配
+         */
+        @JsonProperty("error-patterns")
+        private List<String> errorPatterns;
+
+        /**
+         * 上传并行数，大于1时分块并行上传，最大为 {@link JSchChannelMultiplexer#MAX_UPLOAD_PARALLELISM}
+         */
+        @JsonProperty("upload-parallelism")
+        private Integer uploadParallelism;
+
+        /**
+         * 主机集，host 或者 host:port，以 @ 开头时表示主机组（例如 @web）；不为空时部署到所有主机，忽略 host
+         */
+        private List<String> hosts;
+
+        /**
+         * 主机组，组名 -> 主机集
+         */
+        private Map<String, List<String>> groups;
+
+        /**
+         * 多台主机部署配置
+         */
+        private Fanout fanout;
+
+        /**
+         * 多台主机部署时归档文件中继配置，为null时由本机上传到每台主机
+         */
+        private Relay relay;
+
+        /**
+         * 展开为每台主机的配置（去重，保持顺序），除主机及端口外其他配置相同
+         *
+         * @return
+         */
+        public List<Config> expand() {
+            if (CollectionUtils.isEmpty(hosts)) {
+                return List.of(this);
+            }
+
+            Set<String> addresses = new LinkedHashSet<>();
+            for (String host : hosts) {
+                if (host.startsWith("@")) {
+                    String group = host.substring(1);
+                    List<String> groupHosts = Optional.ofNullable(groups).map(map -> map.get(group)).orElse(null);
+                    Assert.isTrue(CollectionUtils.isNotEmpty(groupHosts), String.format("server.groups.%s不存在或为空", group));
+                    addresses.addAll(groupHosts);
+                } else {
+                    addresses.add(host);
+                }
+            }
+
+            List<Config> configs = new ArrayList<>(addresses.size());
+            for (String address : addresses) {
+                // host:port（IPv6地址不解析端口）
+                String host = address;
+                Integer port = this.port;
+                if (StringUtils.countMatches(address, ':') == 1) {
+                    host = StringUtils.substringBefore(address, ":");
+                    port = Integer.valueOf(StringUtils.substringAfter(address, ":"));
+                }
+                configs.add(copy(host, port));
+            }
+            return configs;
+        }
+
+        private Config copy(String host, Integer port) {
+            Config config = new Config();
+            config.setHost(host);
+            config.setPort(port);
+            config.setUsername(username);
+            config.setPassword(password);
+            config.setSessionConnTimeout(sessionConnTimeout);
+            config.setChannelConnTimeout(channelConnTimeout);
+            config.setWorkDir(workDir);
+            config.setSudo(sudo);
+            config.setExecChannel(execChannel);
+            config.setVerbose(verbose);
+            config.setOutputTailLines(outputTailLines);
+            config.setErrorPatterns(errorPatterns);
+            config.setUploadParallelism(uploadParallelism);
+            return config;
+        }
+
         public void validate() {
-            Assert.notNull(host, "server.host不能为null");
+            Assert.isTrue(Objects.nonNull(host) || CollectionUtils.isNotEmpty(hosts), "server.host、server.hosts不能同时为空");
             Assert.notNull(port, "server.port不能为null");
             Assert.notNull(username, "server.username不能为null");
             Assert.notNull(password, "server.password不能为null");
             Assert.isTrue(Objects.nonNull(sessionConnTimeout) && sessionConnTimeout > 0, "server.session-conn-timeout必须大于0");
             Assert.isTrue(Objects.nonNull(channelConnTimeout) && channelConnTimeout > 0, "server.channel-conn-timeout必须大于0");
             Assert.notNull(workDir, "server.work-dir不能为null");
+            Assert.isTrue(Objects.isNull(outputTailLines) || outputTailLines > 0, "server.output-tail-lines必须大于0");
+            Assert.isTrue(Objects.isNull(uploadParallelism) || (uploadParallelism > 0 && uploadParallelism <= JSchChannelMultiplexer.MAX_UPLOAD_PARALLELISM),
+                    String.format("server.upload-parallelism必须在1到%d之间", JSchChannelMultiplexer.MAX_UPLOAD_PARALLELISM));
+            if (Objects.nonNull(fanout)) {
+                fanout.validate();
+            }
+            if (Objects.nonNull(relay)) {
+                relay.validate();
+            }
+            expand();
+        }
+
+        /**
+         * 多台主机部署配置
+         * <p>
+         * 主机按批次部署，每批主机并发部署（并发数不超过 concurrency），一批中有主机部署失败时不再部署后续批次
+         */
+        @Data
+        @JsonIgnoreProperties(ignoreUnknown = true)
+        public static class Fanout {
+
+            /**
+             * 默认并发部署的主机数
+             */
+            public static final int DEFAULT_CONCURRENCY = 4;
+
+            /**
+             * 并发部署的主机数
+             */
+            private Integer concurrency;
+
+            /**
+             * 每批主机数，可以是数量（例如 5）或者百分比（例如 20%），默认所有主机为一批
+             */
+            private String wave;
+
+            public int getConcurrency(int hosts) {
+                return Math.max(Math.min(Optional.ofNullable(concurrency).orElse(DEFAULT_CONCURRENCY), hosts), 1);
+            }
+
+            /**
+             * 每批主机数
+             *
+             * @param hosts 主机数
+             * @return
+             */
+            public int getWaveSize(int hosts) {
+                if (StringUtils.isBlank(wave)) {
+                    return Math.max(hosts, 1);
+                }
+                String value = wave.trim();
+                int size = value.endsWith("%")
+                        ? (int) Math.ceil(hosts * Double.parseDouble(value.substring(0, value.length() - 1).trim()) / 100)
+                        : (int) Math.ceil(Double.parseDouble(value));
+                return Math.max(Math.min(size, hosts), 1);
+            }
+
+            public void validate() {
+                Assert.isTrue(Objects.isNull(concurrency) || concurrency > 0, "server.fanout.concurrency必须大于0");
+                if (StringUtils.isNotBlank(wave)) {
+                    String value = wave.trim();
+                    double size = 0;
+                    try {
+                        size = Double.parseDouble(value.endsWith("%") ? value.substring(0, value.length() - 1).trim() : value);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException(String.format("server.fanout.wave格式错误: %s", wave));
+                    }
+                    Assert.isTrue(size > 0, "server.fanout.wave必须大于0");
+                }
+            }
+
+        }
+
+        /**
+         * 归档文件中继配置
+         * <p>
+         * 本机只上传归档文件到 seeds 台种子主机，其他主机由上级主机通过ssh转发（树形，degree 为1时为链式），每一跳校验sha256
+         */
+        @Data
+        @JsonIgnoreProperties(ignoreUnknown = true)
+        public static class Relay {
+
+            public static final int DEFAULT_SEEDS = 2;
+            public static final int DEFAULT_DEGREE = 2;
+            public static final String DEFAULT_STRICT_HOST_KEY_CHECKING = "accept-new";
+            public static final List<String> STRICT_HOST_KEY_CHECKING_VALUES = List.of("yes", "accept-new", "no");
+            public static final int DEFAULT_TIMEOUT = 600;
+
+            /**
+             * 种子主机数，由本机上传
+             */
+            private Integer seeds;
+
+            /**
+             * 每台主机转发的下级主机数
+             */
+            private Integer degree;
+
+            /**
+             * 主机之间ssh的选项（需要免密认证），例如 -i ~/.ssh/deploy_key，在默认选项之前（ssh以先出现的选项为准）
+             */
+            @JsonProperty("ssh-options")
+            private String sshOptions;
+
+            /**
+             * 主机之间ssh的主机密钥检查（StrictHostKeyChecking）：yes、accept-new（默认，首次连接时记录主机密钥，密钥变化时拒绝连接）、no
+             */
+            @JsonProperty("strict-host-key-checking")
+            private String strictHostKeyChecking;
+
+            /**
+             * 每一跳转发超时时间，单位s
+             */
+            private Integer timeout;
+
+            public int getSeeds() {
+                return Optional.ofNullable(seeds).orElse(DEFAULT_SEEDS);
+            }
+
+            public int getDegree() {
+                return Optional.ofNullable(degree).orElse(DEFAULT_DEGREE);
+            }
+
+            public String getStrictHostKeyChecking() {
+                return StringUtils.isBlank(strictHostKeyChecking) ? DEFAULT_STRICT_HOST_KEY_CHECKING : strictHostKeyChecking.trim();
+            }
+
+            /**
+             * 主机之间ssh的完整选项：ssh-options + -o BatchMode=yes -o StrictHostKeyChecking={strict-host-key-checking}
+             *
+             * @return
+             */
+            public String getSshOptions() {
+                String options = String.format("-o BatchMode=yes -o StrictHostKeyChecking=%s", getStrictHostKeyChecking());
+                return StringUtils.isBlank(sshOptions) ? options : String.format("%s %s", sshOptions.trim(), options);
+            }
+
+            public int getTimeout() {
+                return Optional.ofNullable(timeout).orElse(DEFAULT_TIMEOUT);
+            }
+
+            public void validate() {
+                Assert.isTrue(getSeeds() > 0, "server.relay.seeds必须大于0");
+                Assert.isTrue(getDegree() > 0, "server.relay.degree必须大于0");
+                Assert.isTrue(getTimeout() > 0, "server.relay.timeout必须大于0");
+                Assert.isTrue(STRICT_HOST_KEY_CHECKING_VALUES.contains(getStrictHostKeyChecking()),
+                        String.format("server.relay.strict-host-key-checking可选值: %s", STRICT_HOST_KEY_CHECKING_VALUES));
+            }
+
         }
 
     }
@@ -0,0 +1,379 @@
+package org.auto.deploy.core.source;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.auto.deploy.util.Assert;
+import org.eclipse.jgit.api.FetchCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.RefSpec;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * git镜像仓库
+ * <p>
+ * 每个仓库在本地保留一个持久的裸镜像仓库（mirrors/{sha1(规范化的仓库地址)}），使用同一仓库的所有项目共用，部署时只增量fetch，
+ * 工作目录通过 alternates 共享镜像仓库的对象，只检出文件，不复制历史。
+ * <p>
+ * 同一镜像仓库同时只有一个fetch（进程内同步，进程间文件锁）；等待期间其他项目的fetch在本次请求之后才开始、且已覆盖所需范围时，不再重复fetch
+ * （在本次请求之前开始的fetch可能没有获取到刚推送的提交）。
+ * <p>
+ * 可以只fetch一个分支（single-branch）、限制深度（depth，浅镜像仓库），工作目录可以稀疏检出（sparse-paths）。
+ * 浅镜像仓库被不限制深度的项目使用时补全历史；完整的镜像仓库不再变浅。
+ * <p>
+ * 所有镜像仓库的总大小超出配额时，按最近使用时间淘汰（使用中或者其他进程正在fetch的镜像仓库不淘汰）。
+ *
+ * @author xiangqian
+ * @date 22:06 2022/10/17
+ */
+@Slf4j
+public class GitMirror {
+
+    public static final String MIRRORS_PATHNAME = "mirrors";
+
+    private static final File MIRRORS_DIR = new File(MIRRORS_PATHNAME);
+
+    // 浅仓库的边界提交文件
+    private static final String SHALLOW = "shallow";
+
+    // scp形式的仓库地址：[user@]host:path
+    private static final Pattern SCP_LIKE = Pattern.compile("^(?:[^@/]+@)?([^:/]{2,}):(?!//)(.+)$");
+
+    // 默认端口
+    private static final Map<String, Integer> DEFAULT_PORTS = Map.of("ssh", 22, "git", 9418, "http", 80, "https", 443);
+
+    // 镜像仓库目录名 -> 镜像仓库
+    private static final Map<String, GitMirror> MIRRORS = new ConcurrentHashMap<>();
+
+    private final File dir;
+
+    // 进程间fetch锁文件
+    private final File lockFile;
+
+    // 所有项目共用的镜像仓库
+    private Repository repository;
+
+    // 使用中的工作目录数（不等待fetch）
+    private final AtomicInteger refs = new AtomicInteger();
+
+    // 最近一次成功fetch的开始时间（System.nanoTime()）及范围（分支，* 表示所有分支及标签）
+    private long lastFetchStartTime;
+    private String lastFetchScope;
+
+    private GitMirror(String name) {
+        this.dir = new File(MIRRORS_DIR, name);
+        this.lockFile = new File(MIRRORS_DIR, name + ".lock");
+    }
+
+    /**
+     * 获取仓库的镜像仓库，规范化后相同的仓库地址共用一个镜像仓库
+     *
+     * @param repoUrl 仓库地址
+     * @return
+     */
+    public static GitMirror get(String repoUrl) {
+        return MIRRORS.computeIfAbsent(DigestUtils.sha1Hex(normalize(repoUrl)), GitMirror::new);
+    }
+
+    /**
+     * 规范化仓库地址：忽略协议、用户信息、默认端口、主机名大小写、末尾的 / 及 .git，
+     * 例如 https://github.com/a/b.git、git@github.com:a/b、ssh://git@GitHub.com:22/a/b/ 规范化后都为 github.com/a/b
+     *
+     * @param repoUrl 仓库地址
+     * @return
+     */
+    public static String normalize(String repoUrl) {
+        String url = repoUrl.trim();
+        String host = null;
+        String path = null;
+        Matcher matcher = SCP_LIKE.matcher(url);
+        if (url.contains("://") && !url.startsWith("file://")) {
+            URI uri = URI.create(url);
+            host = uri.getHost().toLowerCase(Locale.ROOT);
+            int port = uri.getPort();
+            if (port > 0 && !Objects.equals(DEFAULT_PORTS.get(uri.getScheme()), port)) {
+                host = String.format("%s:%d", host, port);
+            }
+            path = uri.getPath();
+        } else if (matcher.matches()) {
+            host = matcher.group(1).toLowerCase(Locale.ROOT);
+            path = matcher.group(2);
+        } else {
+            // 本地仓库
+            path = Path.of(StringUtils.removeStart(url, "file://")).toAbsolutePath().normalize().toString().replace('\\', '/');
+        }
+
+        // 本地仓库保留开头的 /，不与远程仓库地址混淆
+        path = StringUtils.removeEnd(StringUtils.stripEnd(path, "/"), Constants.DOT_GIT_EXT);
+        return Objects.isNull(host) ? path : String.format("%s/%s", host, StringUtils.stripStart(path, "/"));
+    }
+
+    /**
+     * 使用镜像仓库，使用中的镜像仓库不淘汰
+     */
+    public void acquire() {
+        refs.incrementAndGet();
+    }
+
+    public void release() {
+        refs.updateAndGet(value -> Math.max(value - 1, 0));
+    }
+
+    /**
+     * 同步镜像仓库：不存在时创建裸仓库，增量fetch分支及标签（删除远程已删除的分支）
+     *
+     * @param config              git资源配置
+     * @param credentialsProvider 凭证提供者
+     * @return 本次fetch的字节数（镜像仓库对象目录的增量）
+     * @throws IOException
+     * @throws GitAPIException
+     */
+    public long fetch(GitSource.Config config, CredentialsProvider credentialsProvider) throws IOException, GitAPIException {
+        long requestTime = System.nanoTime();
+        String scope = config.isSingleBranch() ? config.getBranch() : "*";
+        synchronized (this) {
+            // 等待期间其他项目的fetch在本次请求之后才开始，且已覆盖所需范围（需要完整历史时镜像仓库不能是浅仓库）
+            boolean full = Objects.isNull(config.getDepth()) || config.getDepth() <= 0;
+            if (isValid() && Objects.nonNull(lastFetchScope) && lastFetchStartTime - requestTime > 0
+                    && ("*".equals(lastFetchScope) || scope.equals(lastFetchScope))
+                    && !(full && new File(dir, SHALLOW).isFile())) {
+                log.info("复用其他项目刚完成的fetch\n\t{}", config.getRepoUrl());
+                return 0;
+            }
+
+            FileUtils.forceMkdir(MIRRORS_DIR);
+            try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock lock = channel.lock()) {
+                long startTime = System.nanoTime();
+                long bytes = fetch0(config, credentialsProvider);
+                lastFetchStartTime = startTime;
+                lastFetchScope = scope;
+                return bytes;
+            } catch (IOException | GitAPIException | RuntimeException e) {
+                lastFetchScope = null;
+                throw e;
+            }
+        }
+    }
+
+    private long fetch0(GitSource.Config config, CredentialsProvider credentialsProvider) throws IOException, GitAPIException {
+        long beginTime = System.currentTimeMillis();
+        boolean created = !isValid();
+        if (created) {
+            closeRepository();
+            FileUtils.deleteQuietly(dir);
+            Git.init().setBare(true).setDirectory(dir).call().close();
+        }
+
+        File objects = new File(dir, Constants.OBJECTS);
+        long size = FileUtils.sizeOfDirectory(objects);
+        boolean shallow = new File(dir, SHALLOW).isFile();
+        try (Git git = Git.wrap(getRepository())) {
+            // 单分支时只fetch配置的分支
+            List<RefSpec> refSpecs = config.isSingleBranch()
+                    ? List.of(new RefSpec(String.format("+%s%s:%s%s", Constants.R_HEADS, config.getBranch(), Constants.R_HEADS, config.getBranch())))
+                    : List.of(new RefSpec(String.format("+%s*:%s*", Constants.R_HEADS, Constants.R_HEADS)), new RefSpec(String.format("+%s*:%s*", Constants.R_TAGS, Constants.R_TAGS)));
+            FetchCommand fetchCommand = git.fetch()
+                    .setCredentialsProvider(credentialsProvider)
+                    .setRemote(config.getRepoUrl())
+                    .setRefSpecs(refSpecs)
+                    .setRemoveDeletedRefs(true);
+            Integer depth = config.getDepth();
+            if (Objects.nonNull(depth) && depth > 0) {
+                // 完整的镜像仓库不再变浅
+                if (created || shallow) {
+                    fetchCommand.setDepth(depth);
+                }
+            } else if (shallow) {
+                fetchCommand.setUnshallow(true);
+            }
+            log.debug("fetch镜像仓库 ...\n\t{}\n\t{}", config.getRepoUrl(), dir.getAbsolutePath());
+            fetchCommand.call();
+        } catch (GitAPIException | RuntimeException e) {
+            if (created) {
+                closeRepository();
+                FileUtils.deleteQuietly(dir);
+            }
+            throw e;
+        }
+        dir.setLastModified(System.currentTimeMillis());
+
+        long bytes = Math.max(FileUtils.sizeOfDirectory(objects) - size, 0);
+        log.info("已{}镜像仓库，fetch {} B，耗时 {} ms\n\t{}", created ? "创建" : "更新", bytes, System.currentTimeMillis() - beginTime, config.getRepoUrl());
+        return bytes;
+    }
+
+    private boolean isValid() {
+        return new File(dir, Constants.OBJECTS).isDirectory() && new File(dir, Constants.HEAD).isFile();
+    }
+
+    private Repository getRepository() throws IOException {
+        if (Objects.isNull(repository)) {
+            repository = new FileRepositoryBuilder().setGitDir(dir).setBare().setMustExist(true).build();
+        }
+        return repository;
+    }
+
+    private void closeRepository() {
+        if (Objects.nonNull(repository)) {
+            repository.close();
+            repository = null;
+        }
+    }
+
+    /**
+     * 在工作目录创建仓库（通过 alternates 共享镜像仓库的对象）并检出分支
+     *
+     * @param config  git资源配置，仓库地址作为工作目录仓库的 origin
+     * @param workDir 工作目录
+     * @return 工作目录仓库
+     * @throws IOException
+     * @throws GitAPIException
+     */
+    public synchronized Git checkout(GitSource.Config config, File workDir) throws IOException, GitAPIException {
+        Git.init().setDirectory(workDir).setInitialBranch(config.getBranch()).call().close();
+
+        // 共享镜像仓库的对象
+        File alternates = Path.of(workDir.getAbsolutePath(), Constants.DOT_GIT, Constants.OBJECTS, "info", "alternates").toFile();
+        FileUtils.write(alternates, new File(dir, Constants.OBJECTS).getAbsolutePath() + "\n", StandardCharsets.UTF_8);
+
+        Git git = Git.open(workDir);
+        try {
+            StoredConfig storedConfig = git.getRepository().getConfig();
+            storedConfig.setString("remote", Constants.DEFAULT_REMOTE_NAME, "url", config.getRepoUrl());
+            storedConfig.save();
+            update(git, config);
+            return git;
+        } catch (IOException | GitAPIException | RuntimeException e) {
+            git.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 将工作目录仓库的分支更新为镜像仓库的分支，并检出（配置了 sparse-paths 时稀疏检出）
+     *
+     * @param git    工作目录仓库
+     * @param config git资源配置
+     * @return 分支最新提交
+     * @throws IOException
+     * @throws GitAPIException
+     */
+    public synchronized RevCommit update(Git git, GitSource.Config config) throws IOException, GitAPIException {
+        String branch = config.getBranch();
+        long beginTime = System.currentTimeMillis();
+        ObjectId commitId = getRepository().resolve(Constants.R_HEADS + branch);
+        Assert.notNull(commitId, String.format("分支不存在: %s", branch));
+
+        // 浅镜像仓库的边界提交（提交历史在此截断）
+        Repository repository = git.getRepository();
+        File shallow = new File(dir, SHALLOW);
+        File workShallow = new File(repository.getDirectory(), SHALLOW);
+        if (shallow.isFile()) {
+            FileUtils.copyFile(shallow, workShallow);
+        } else {
+            FileUtils.deleteQuietly(workShallow);
+        }
+
+        RefUpdate refUpdate = repository.updateRef(Constants.R_HEADS + branch);
+        refUpdate.setNewObjectId(commitId);
+        refUpdate.forceUpdate();
+        RevCommit commit = null;
+        try (RevWalk revWalk = new RevWalk(repository)) {
+            commit = revWalk.parseCommit(commitId);
+        }
+        if (CollectionUtils.isNotEmpty(config.getSparsePaths())) {
+            GitSparseCheckout.checkout(repository, commit, GitSparseCheckout.normalize(config.getSparsePaths()));
+        } else {
+            git.reset().setMode(ResetCommand.ResetType.HARD).setRef(commitId.getName()).call();
+        }
+        log.debug("已检出 {}，耗时 {} ms\n\t{}", branch, System.currentTimeMillis() - beginTime, repository.getWorkTree().getAbsolutePath());
+        return commit;
+    }
+
+    /**
+     * 所有镜像仓库总大小超出配额时，按最近使用时间淘汰镜像仓库（使用中的镜像仓库不淘汰），
+     * 删除前获取进程间文件锁，其他进程正在fetch的镜像仓库不淘汰
+     *
+     * @param quota 配额，单位B
+     */
+    public static void evict(long quota) {
+        File[] dirs = MIRRORS_DIR.listFiles(File::isDirectory);
+        if (Objects.isNull(dirs)) {
+            return;
+        }
+
+        List<File> files = new ArrayList<>(Arrays.asList(dirs));
+        files.sort(Comparator.comparingLong(File::lastModified));
+        long[] sizes = files.stream().mapToLong(FileUtils::sizeOfDirectory).toArray();
+        long total = Arrays.stream(sizes).sum();
+        for (int i = 0; i < files.size() && total > quota; i++) {
+            GitMirror mirror = MIRRORS.computeIfAbsent(files.get(i).getName(), GitMirror::new);
+            synchronized (mirror) {
+                if (mirror.refs.get() > 0 || !mirror.delete()) {
+                    continue;
+                }
+            }
+            total -= sizes[i];
+            log.info("淘汰镜像仓库: {}, {} B, 剩余 {} B, 配额 {} B", mirror.dir.getAbsolutePath(), sizes[i], total, quota);
+        }
+        if (total > quota) {
+            log.warn("镜像仓库总大小 {} B 超出配额 {} B（使用中的镜像仓库不淘汰）", total, quota);
+        }
+    }
+
+    /**
+     * 持有进程间文件锁时删除镜像仓库
+     *
+     * @return 其他进程正在使用时返回false
+     */
+    private boolean delete() {
+        try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = channel.tryLock()) {
+            if (Objects.isNull(lock)) {
+                log.debug("其他进程正在使用镜像仓库，不淘汰: {}", dir.getAbsolutePath());
+                return false;
+            }
+            closeRepository();
+            lastFetchScope = null;
+            FileUtils.deleteQuietly(dir);
+            return true;
+        } catch (IOException e) {
+            log.warn("淘汰镜像仓库异常: {}, {}", dir.getAbsolutePath(), e.getMessage());
+            return false;
+        }
+    }
+
+}
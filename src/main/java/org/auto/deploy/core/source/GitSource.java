@@ -3,28 +3,41 @@ package org.auto.deploy.core.source;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
+import lombok.Getter;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.ObjectUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.auto.deploy.util.Assert;
 import org.auto.deploy.util.DateUtils;
+import org.eclipse.jgit.api.CloneCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.PullCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.transport.CredentialsProvider;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
+import org.springframework.scheduling.support.CronExpression;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.Iterator;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 /**
  * git资源
@@ -35,25 +48,72 @@ import java.util.UUID;
 @Slf4j
 public class GitSource implements Source {
 
+    // ls-remote超时时间，单位s
+    private static final int LS_REMOTE_TIMEOUT = 30;
+
     private Config config;
 
     private volatile File tempFile;
 
     private CredentialsProvider credentialsProvider;
+
+    // 镜像仓库，为null时每次部署完整clone
+    private GitMirror mirror;
     private Git git;
     private String commitId;
     private RevCommit lastRevCommit;
 
+    // 本次部署fetch的字节数
+    @Getter
+    private volatile long fetchedBytes;
+
     public GitSource(Config config) {
         this.config = config;
     }
 
+    /**
+     * 先通过ls-remote检查远程分支是否有新提交，有新提交时才pull
+     *
+     * @return
+     */
     @SneakyThrows
     @Override
     public boolean isChanged() {
+        String head = lsRemote(config, credentialsProvider).get(Constants.R_HEADS + config.getBranch());
+        if (Objects.isNull(head) || head.equals(commitId)) {
+            return false;
+        }
         return pull();
     }
 
+    /**
+     * 获取远程仓库所有分支的最新提交id（ls-remote，只获取引用，不fetch对象）
+     *
+     * @param config
+     * @param credentialsProvider
+     * @return refs/heads/{分支名} -> 提交id
+     * @throws GitAPIException
+     */
+    public static Map<String, String> lsRemote(Config config, CredentialsProvider credentialsProvider) throws GitAPIException {
+        Collection<Ref> refs = Git.lsRemoteRepository()
+                .setCredentialsProvider(credentialsProvider)
+                .setRemote(config.getRepoUrl())
+                .setHeads(true)
+                .setTimeout(LS_REMOTE_TIMEOUT)
+                .call();
+        return refs.stream()
+                .filter(ref -> Objects.nonNull(ref.getObjectId()))
+                .collect(Collectors.toMap(Ref::getName, ref -> ref.getObjectId().getName(), (first, second) -> first));
+    }
+
+    public static Map<String, String> lsRemote(Config config) throws GitAPIException {
+        CredentialsProvider credentialsProvider = null;
+        if (ObjectUtils.allNotNull(config.getUsername(), config.getPassword())) {
+            credentialsProvider = new UsernamePasswordCredentialsProvider(config.getUsername(), config.getPassword());
+        }
+        return lsRemote(config, credentialsProvider);
+    }
+
     @Override
     public synchronized File get() throws Exception {
         if (Objects.nonNull(tempFile)) {
@@ -70,16 +130,45 @@ public class GitSource implements Source {
             log.debug("加载凭证提供者!\n\t{}", credentialsProvider);
         }
 
-        // clone
-        git = Git.cloneRepository()
-                .setCredentialsProvider(credentialsProvider)
-                .setURI(config.getRepoUrl())
-                .setBranch(config.getBranch())
-                .setDirectory(tempFile)
-                .call();
+        if (isMirror()) {
+            // 增量fetch镜像仓库，工作目录共享镜像仓库的对象，只检出文件
+            mirror = GitMirror.get(config.getRepoUrl());
+            mirror.acquire();
+            fetchedBytes = mirror.fetch(config, credentialsProvider);
+            git = mirror.checkout(config, tempFile);
+            GitMirror.evict(config.getMirrorQuota() * 1024L * 1024L);
+        } else {
+            // clone
+            boolean sparse = CollectionUtils.isNotEmpty(config.getSparsePaths());
+            CloneCommand cloneCommand = Git.cloneRepository()
+                    .setCredentialsProvider(credentialsProvider)
+                    .setURI(config.getRepoUrl())
+                    .setBranch(config.getBranch())
+                    .setDirectory(tempFile)
+                    .setNoCheckout(sparse);
+            if (config.isSingleBranch()) {
+                cloneCommand.setCloneAllBranches(false).setBranchesToClone(List.of(Constants.R_HEADS + config.getBranch()));
+            }
+            if (Objects.nonNull(config.getDepth()) && config.getDepth() > 0) {
+                cloneCommand.setDepth(config.getDepth());
+            }
+            git = cloneCommand.call();
+            fetchedBytes = FileUtils.sizeOfDirectory(Path.of(tempFile.getAbsolutePath(), Constants.DOT_GIT, Constants.OBJECTS).toFile());
+            if (sparse) {
+                // 不检出时clone不创建本地分支
+                Repository repository = git.getRepository();
+                RefUpdate refUpdate = repository.updateRef(Constants.R_HEADS + config.getBranch());
+                refUpdate.setNewObjectId(repository.resolve(String.format("%s%s/%s", Constants.R_REMOTES, Constants.DEFAULT_REMOTE_NAME, config.getBranch())));
+                refUpdate.forceUpdate();
+                repository.updateRef(Constants.HEAD).link(Constants.R_HEADS + config.getBranch());
+                GitSparseCheckout.checkout(repository, getLastRevCommit(git), GitSparseCheckout.normalize(config.getSparsePaths()));
+            }
+        }
+        log.info("拉取git资源: fetch {} B", fetchedBytes);
 
         // lastRevCommit
         lastRevCommit = getLastRevCommit(git);
+        commitId = Optional.ofNullable(lastRevCommit).map(RevCommit::getName).orElse(null);
         log.debug("最新一次提交信息: {}", getRevCommitStr(lastRevCommit));
 
         log.debug("已从git上clone代码到本地!\n\t{}", tempFile.getAbsolutePath());
@@ -95,11 +184,17 @@ public class GitSource implements Source {
         // repo
         Repository localRepo = git.getRepository();
 
-        // pull
-        PullCommand pullCommand = git.pull();
-        pullCommand.setCredentialsProvider(credentialsProvider);
-        pullCommand.setRemoteBranchName(config.getBranch());
-        pullCommand.call();
+        if (Objects.nonNull(mirror)) {
+            // fetch镜像仓库并检出
+            fetchedBytes = mirror.fetch(config, credentialsProvider);
+            mirror.update(git, config);
+        } else {
+            // pull
+            PullCommand pullCommand = git.pull();
+            pullCommand.setCredentialsProvider(credentialsProvider);
+            pullCommand.setRemoteBranchName(config.getBranch());
+            pullCommand.call();
+        }
 
         lastRevCommit = getLastRevCommit(git);
         if (Objects.isNull(lastRevCommit)) {
@@ -117,6 +212,15 @@ public class GitSource implements Source {
         return true;
     }
 
+    /**
+     * 最近一次提交id
+     *
+     * @return
+     */
+    public String getCommitId() {
+        return commitId;
+    }
+
     public String getLastRevCommitStr() {
         return getRevCommitStr(lastRevCommit);
     }
@@ -136,25 +240,20 @@ public class GitSource implements Source {
     }
 
     /**
-     * 最近一次提交信息
+     * 最近一次提交信息（HEAD指向的提交，不遍历提交历史，浅仓库也可以获取）
      *
      * @return
      */
     private static RevCommit getLastRevCommit(Git git) throws IOException {
         Repository localRepo = git.getRepository();
-
-        // log
-        RevWalk revWalk = new RevWalk(localRepo);
-        for (Ref ref : localRepo.getAllRefs().values()) {
-            revWalk.markStart(revWalk.parseCommit(ref.getObjectId()));
-        }
-        Iterator<RevCommit> iterator = revWalk.iterator();
-        if (iterator.hasNext()) {
-            RevCommit revCommit = iterator.next();
-            return revCommit;
+        ObjectId head = localRepo.resolve(Constants.HEAD);
+        if (Objects.isNull(head)) {
+            return null;
         }
 
-        return null;
+        try (RevWalk revWalk = new RevWalk(localRepo)) {
+            return revWalk.parseCommit(head);
+        }
     }
 
 
@@ -190,6 +289,10 @@ public class GitSource implements Source {
 //        void on() throws Exception;
 //    }
 
+    private boolean isMirror() {
+        return !BooleanUtils.isFalse(config.getMirror());
+    }
+
     @Override
     public void close() throws IOException {
         log.debug("删除git资源临时目录! \n\t{}", tempFile.getAbsolutePath());
@@ -197,7 +300,14 @@ public class GitSource implements Source {
             git.close();
         } catch (Exception e) {
         }
-        FileUtils.forceDelete(tempFile);
+        try {
+            FileUtils.forceDelete(tempFile);
+        } finally {
+            if (Objects.nonNull(mirror)) {
+                mirror.release();
+                mirror = null;
+            }
+        }
     }
 
 
@@ -205,6 +315,16 @@ public class GitSource implements Source {
     @JsonIgnoreProperties(ignoreUnknown = true)
     public static class Config {
 
+        /**
+         * 默认镜像仓库磁盘配额，单位MB
+         */
+        public static final int DEFAULT_MIRROR_QUOTA = 10 * 1024;
+
+        /**
+         * 默认钩子防抖时间，单位s
+         */
+        public static final int DEFAULT_HOOK_DEBOUNCE = 10;
+
         private String username;
         private String password;
 
@@ -213,20 +333,70 @@ public class GitSource implements Source {
         private String branch;
 
         /**
-         * 钩子
+         * 钩子令牌，调用 POST /item/{itemName}/hook 时通过请求参数 token 或者请求头 X-Hook-Token 传入；为空时不校验
          */
         private String hook;
 
         /**
-         * cron定时执行表达式
+         * 钩子防抖时间，单位s，最后一次钩子调用后 hook-debounce 秒内没有新的调用才部署
+         */
+        @JsonProperty("hook-debounce")
+        private Integer hookDebounce;
+
+        /**
+         * cron定时检查表达式，按cron检查远程分支（ls-remote），分支有新提交时才fetch并部署；为空时不检查
          * 每30s执行任务:
          * 0/30 * * * * ?
          */
         private String cron;
 
+        /**
+         * 是否使用持久的镜像仓库（默认true），部署时只增量fetch；为false时每次部署完整clone到临时目录
+         */
+        private Boolean mirror;
+
+        /**
+         * 所有镜像仓库的磁盘配额，单位MB，超出时按最近使用时间淘汰
+         */
+        @JsonProperty("mirror-quota")
+        private Integer mirrorQuota;
+
+        /**
+         * clone（fetch）深度，只获取最近 depth 个提交，为null或者小于等于0时获取完整历史
+         */
+        private Integer depth;
+
+        /**
+         * 是否只clone（fetch）配置的分支
+         */
+        @JsonProperty("single-branch")
+        private Boolean singleBranch;
+
+        /**
+         * 稀疏检出目录（cone模式），只检出根目录下的文件及这些目录，为空时检出所有文件
+         */
+        @JsonProperty("sparse-paths")
+        private List<String> sparsePaths;
+
+        public boolean isSingleBranch() {
+            return BooleanUtils.isTrue(singleBranch);
+        }
+
+        public int getHookDebounce() {
+            return Optional.ofNullable(hookDebounce).orElse(DEFAULT_HOOK_DEBOUNCE);
+        }
+
+        public int getMirrorQuota() {
+            return Optional.ofNullable(mirrorQuota).orElse(DEFAULT_MIRROR_QUOTA);
+        }
+
         public void validate() {
             Assert.notNull(repoUrl, "source.git.repo-url不能为null");
             Assert.notNull(branch, "source.git.branch不能为null");
+            Assert.isTrue(StringUtils.isBlank(cron) || CronExpression.isValidExpression(cron), "source.git.cron不是有效的cron表达式");
+            Assert.isTrue(getHookDebounce() >= 0, "source.git.hook-debounce不能小于0");
+            Assert.isTrue(getMirrorQuota() > 0, "source.git.mirror-quota必须大于0");
+            Assert.isTrue(CollectionUtils.isEmpty(sparsePaths) || CollectionUtils.isNotEmpty(GitSparseCheckout.normalize(sparsePaths)), "source.git.sparse-paths不能只包含空路径");
         }
 
     }
@@ -0,0 +1,160 @@
+package org.auto.deploy.core.source;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * git稀疏检出（cone模式）
+ * <p>
+ * 只检出根目录下的文件、cone目录（递归）及cone目录的各级父目录下的文件，不进入其他目录；
+ * 索引只包含检出的文件。JGit不支持稀疏检出，由此按提交的树直接写出文件。
+ *
+ * @author xiangqian
+ * @date 23:14 2022/10/17
+ */
+@Slf4j
+public class GitSparseCheckout {
+
+    private GitSparseCheckout() {
+    }
+
+    /**
+     * 规范化cone目录：去除首尾空白及 /，忽略空目录
+     *
+     * @param paths
+     * @return
+     */
+    public static List<String> normalize(List<String> paths) {
+        return paths.stream()
+                .map(path -> StringUtils.strip(StringUtils.trimToEmpty(path).replace('\\', '/'), "/"))
+                .filter(StringUtils::isNotEmpty)
+                .distinct()
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 清空工作目录（.git除外），检出提交中cone目录下的文件
+     *
+     * @param repository 工作目录仓库
+     * @param commit     提交
+     * @param cones      cone目录（规范化后）
+     * @return 检出的文件数
+     * @throws IOException
+     */
+    public static int checkout(Repository repository, RevCommit commit, List<String> cones) throws IOException {
+        long beginTime = System.currentTimeMillis();
+        File workTree = repository.getWorkTree();
+        File[] files = workTree.listFiles();
+        if (Objects.nonNull(files)) {
+            for (File file : files) {
+                if (!Constants.DOT_GIT.equals(file.getName())) {
+                    FileUtils.forceDelete(file);
+                }
+            }
+        }
+
+        int count = 0;
+        DirCache dirCache = repository.lockDirCache();
+        try {
+            DirCacheBuilder builder = dirCache.builder();
+            try (TreeWalk treeWalk = new TreeWalk(repository)) {
+                treeWalk.addTree(commit.getTree());
+                treeWalk.setRecursive(false);
+                while (treeWalk.next()) {
+                    String path = treeWalk.getPathString();
+                    if (treeWalk.isSubtree()) {
+                        if (includesDir(cones, path)) {
+                            treeWalk.enterSubtree();
+                        }
+                        continue;
+                    }
+
+                    FileMode mode = treeWalk.getFileMode(0);
+                    if (FileMode.GITLINK.equals(mode) || !includesFile(cones, path)) {
+                        continue;
+                    }
+
+                    File file = new File(workTree, path);
+                    FileUtils.forceMkdirParent(file);
+                    ObjectLoader loader = repository.open(treeWalk.getObjectId(0));
+                    if (FileMode.SYMLINK.equals(mode)) {
+                        Files.createSymbolicLink(file.toPath(), Path.of(new String(loader.getBytes(), StandardCharsets.UTF_8)));
+                    } else {
+                        try (OutputStream out = new FileOutputStream(file)) {
+                            loader.copyTo(out);
+                        }
+                        if (FileMode.EXECUTABLE_FILE.equals(mode)) {
+                            file.setExecutable(true);
+                        }
+                    }
+
+                    DirCacheEntry entry = new DirCacheEntry(path);
+                    entry.setFileMode(mode);
+                    entry.setObjectId(treeWalk.getObjectId(0));
+                    entry.setLength(loader.getSize());
+                    entry.setLastModified(Instant.ofEpochMilli(file.lastModified()));
+                    builder.add(entry);
+                    count++;
+                }
+            }
+            builder.commit();
+        } finally {
+            dirCache.unlock();
+        }
+        log.debug("稀疏检出 {} 个文件，耗时 {} ms\n\t{}", count, System.currentTimeMillis() - beginTime, StringUtils.join(cones, "\n\t"));
+        return count;
+    }
+
+    /**
+     * 是否进入目录：目录是cone目录、cone目录的父目录或者位于cone目录下
+     */
+    private static boolean includesDir(List<String> cones, String dir) {
+        for (String cone : cones) {
+            if (cone.equals(dir) || cone.startsWith(dir + "/") || dir.startsWith(cone + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 是否检出文件：文件位于根目录、cone目录下或者cone目录的父目录下
+     */
+    private static boolean includesFile(List<String> cones, String path) {
+        int index = path.lastIndexOf('/');
+        if (index < 0) {
+            return true;
+        }
+
+        String dir = path.substring(0, index);
+        for (String cone : cones) {
+            if (cone.equals(dir) || dir.startsWith(cone + "/") || cone.startsWith(dir + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -1,19 +1,24 @@
 package org.auto.deploy.core.source;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.BooleanUtils;
-import org.apache.commons.lang3.StringUtils;
 import org.auto.deploy.util.Assert;
+import org.auto.deploy.util.PathFilter;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.List;
 import java.util.Objects;
-import java.util.UUID;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 本地资源
@@ -26,7 +31,10 @@ public class LocalSource implements Source {
 
     private Config config;
     private File file;
-    private volatile File tempFile;
+
+    // 工作空间，部署结束时释放锁（不删除）
+    private volatile File workspace;
+    private ReentrantLock lock;
 
     public LocalSource(Config config) {
         this.config = config;
@@ -35,6 +43,11 @@ public class LocalSource implements Source {
         Assert.isTrue(file.isDirectory(), String.format("本地资源必须是目录类型: %s", config.getLocation()));
     }
 
+    /**
+     * 本地资源的文件变更由 SourceWatcher 监听（source.local.watch）
+     *
+     * @return
+     */
     @Override
     public boolean isChanged() {
         return false;
@@ -46,27 +59,30 @@ public class LocalSource implements Source {
             return file;
         }
 
-        if (Objects.isNull(tempFile)) {
-            log.debug("拷贝本地资源到临时目录下 ...\n\t{}", StringUtils.join(file.listFiles(), "\n\t"));
-
-            // 获取临时目录，用于存放本地资源
-            tempFile = Path.of(FileUtils.getTempDirectoryPath(), String.format("temp_%s", UUID.randomUUID().toString().replace("-", ""))).toFile();
-
-            // 拷贝
-            // FileUtils.copyDirectoryToDirectory(file, tempFile);
-            for (File childFile : file.listFiles()) {
-                FileUtils.copyToDirectory(childFile, tempFile);
+        if (Objects.isNull(workspace)) {
+            File workspace = LocalWorkspace.get(config.getLocation());
+            log.debug("增量同步本地资源到工作空间 ...\n\t{} -> {}", file.getAbsolutePath(), workspace.getAbsolutePath());
+
+            // 同一工作空间（同一本地资源位置）的项目依次部署
+            lock = LocalWorkspace.getLock(workspace);
+            lock.lock();
+            try {
+                LocalWorkspace.sync(file, workspace, LocalWorkspace.Compare.of(config.getCompare()), BooleanUtils.isTrue(config.getHardlink()), config.newPathFilter());
+            } catch (Exception e) {
+                lock.unlock();
+                lock = null;
+                throw e;
             }
-            log.debug("已拷贝本地资源到临时目录下!\n\t{}", tempFile.getAbsolutePath());
+            this.workspace = workspace;
         }
-        return tempFile;
+        return workspace;
     }
 
     @Override
     public void close() throws IOException {
-        if (BooleanUtils.isTrue(config.getUseTempWorkspace())) {
-            log.debug("删除本地资源临时目录! \n\t{}", tempFile.getAbsolutePath());
-            FileUtils.forceDelete(tempFile);
+        if (Objects.nonNull(lock)) {
+            lock.unlock();
+            lock = null;
         }
     }
 
@@ -74,19 +90,112 @@ public class LocalSource implements Source {
     @JsonIgnoreProperties(ignoreUnknown = true)
     public static class Config {
 
+        /**
+         * 默认监听防抖时间，单位s
+         */
+        public static final int DEFAULT_WATCH_DEBOUNCE = 3;
+
+        /**
+         * 默认监听忽略的文件或者目录
+         */
+        public static final List<String> DEFAULT_WATCH_IGNORES = List.of(".git", ".svn", ".idea", "target", "node_modules", "*.swp", "*~");
+
         /**
          * 本地资源位置
          */
         private String location;
 
         /**
-         * 是否使用临时工作空间
-         * 如果设置为true，则会创建一个临时目录来处理资源；
+         * 是否使用工作空间
+         * 如果设置为true，则会在持久的工作空间（workspaces目录）处理资源，每次部署只增量同步变更的文件；
          * 如果设置为false，则会在当前指定的位置处理资源；
          */
         @JsonProperty("use-temp-workspace")
         private Boolean useTempWorkspace;
 
+        /**
+         * 同步到工作空间时的文件变更判断方式，可选值: [ mtime, content ]，默认mtime
+         * mtime: 大小及修改时间不同时复制；
+         * content: 大小或者文件内容不同时复制（每次读取所有文件）；
+         */
+        private String compare;
+
+        /**
+         * 是否硬链接到工作空间（本地资源位置与工作空间在同一文件系统时），不能硬链接时复制。
+         * 硬链接的文件与本地资源共用，构建命令不能原地修改资源文件
+         */
+        private Boolean hardlink;
+
+        /**
+         * 同步到工作空间时包含的文件（glob，匹配相对路径），为空时包含所有文件
+         */
+        private List<String> includes;
+
+        /**
+         * 同步到工作空间时排除的文件或者目录（glob，匹配相对路径或者其中任一级名称），默认 [ .git, .svn, .hg, .idea, .vscode ]
+         */
+        private List<String> excludes;
+
+        /**
+         * 忽略文件（gitignore语法，各级目录下的忽略文件都生效），默认 [ .gitignore, .deployignore ]
+         */
+        @JsonProperty("ignore-files")
+        private List<String> ignoreFiles;
+
+        /**
+         * 是否监听本地资源位置的文件变更（所有项目共用一个监听线程），有变更时自动部署
+         */
+        private Boolean watch;
+
+        /**
+         * 监听防抖时间，单位s，最后一次文件变更后 watch-debounce 秒内没有新的变更才部署
+         */
+        @JsonProperty("watch-debounce")
+        private Integer watchDebounce;
+
+        /**
+         * 监听忽略的文件或者目录（glob），匹配相对路径或者其中任一级名称，忽略的目录不监听
+         */
+        @JsonProperty("watch-ignores")
+        private List<String> watchIgnores;
+
+        @JsonIgnore
+        @ToString.Exclude
+        @EqualsAndHashCode.Exclude
+        private volatile List<PathMatcher> ignoreMatchers;
+
+        public int getWatchDebounce() {
+            return Optional.ofNullable(watchDebounce).orElse(DEFAULT_WATCH_DEBOUNCE);
+        }
+
+        public List<String> getWatchIgnores() {
+            return Optional.ofNullable(watchIgnores).orElse(DEFAULT_WATCH_IGNORES);
+        }
+
+        /**
+         * 是否忽略
+         *
+         * @param relativePath 相对本地资源位置的路径
+         * @return
+         */
+        public boolean isIgnored(Path relativePath) {
+            List<PathMatcher> matchers = ignoreMatchers;
+            if (Objects.isNull(matchers)) {
+                matchers = PathFilter.compile(getWatchIgnores());
+                ignoreMatchers = matchers;
+            }
+            return PathFilter.matches(matchers, relativePath);
+        }
+
+        /**
+         * 文件过滤器（includes、excludes、ignore-files），同步到工作空间及监听文件变更时使用
+         *
+         * @return
+         */
+        public PathFilter newPathFilter() {
+            return new PathFilter(includes, excludes, ignoreFiles);
+        }
+
         /**
          * cron定时执行表达式
          * 每30s执行任务:
@@ -96,6 +205,8 @@ public class LocalSource implements Source {
 
         public void validate() {
             Assert.notNull(location, "source.local.location不能为null");
+            LocalWorkspace.Compare.of(compare);
+            Assert.isTrue(getWatchDebounce() >= 0, "source.local.watch-debounce不能小于0");
         }
 
     }
@@ -0,0 +1,314 @@
+package org.auto.deploy.core.source;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.auto.deploy.util.PathFilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 本地资源工作空间
+ * <p>
+ * 每个本地资源位置一个持久的工作空间（workspaces目录），部署时增量同步：只复制新增或修改的文件（按大小和修改时间，或者按文件内容判断），
+ * 删除本地资源位置已删除的文件（包括构建生成的文件），多个目录并行同步。可选硬链接（同一文件系统时），硬链接失败时复制。
+ * 过滤器排除的文件不同步（工作空间中已有的删除），排除的目录不遍历。
+ *
+ * @author xiangqian
+ * @date 23:35 2022/10/18
+ */
+@Slf4j
+public class LocalWorkspace {
+
+    public static final String WORKSPACES_PATHNAME = "workspaces";
+
+    private static final File WORKSPACES_DIR = new File(WORKSPACES_PATHNAME);
+
+    // 工作空间目录名 -> 锁，同一工作空间同时只有一个项目使用
+    private static final Map<String, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+
+    private final Path source;
+    private final Path target;
+    private final Compare compare;
+    private final PathFilter filter;
+
+    // 同步的目录（未排除）
+    private final Set<Path> dirs = new HashSet<>();
+
+    // 是否硬链接，文件系统不支持时不再尝试
+    private volatile boolean hardlink;
+
+    private final LongAdder files = new LongAdder();
+    private final LongAdder copied = new LongAdder();
+    private final LongAdder linked = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder deleted = new LongAdder();
+
+    private LocalWorkspace(Path source, Path target, Compare compare, boolean hardlink, PathFilter filter) {
+        this.source = source;
+        this.target = target;
+        this.compare = compare;
+        this.hardlink = hardlink;
+        this.filter = filter;
+    }
+
+    /**
+     * 本地资源位置的工作空间目录
+     *
+     * @param location 本地资源位置
+     * @return
+     */
+    public static File get(String location) {
+        String path = Path.of(location).toAbsolutePath().normalize().toString().replace('\\', '/');
+        return new File(WORKSPACES_DIR, DigestUtils.sha1Hex(path));
+    }
+
+    /**
+     * 工作空间锁，部署结束时释放
+     *
+     * @param workspace 工作空间目录
+     * @return
+     */
+    public static ReentrantLock getLock(File workspace) {
+        return LOCKS.computeIfAbsent(workspace.getName(), name -> new ReentrantLock());
+    }
+
+    /**
+     * 同步本地资源位置到工作空间
+     *
+     * @param location  本地资源位置
+     * @param workspace 工作空间目录
+     * @param compare   文件变更判断方式
+     * @param hardlink  是否硬链接
+     * @param filter    文件过滤器
+     * @throws Exception
+     */
+    public static void sync(File location, File workspace, Compare compare, boolean hardlink, PathFilter filter) throws Exception {
+        long beginTime = System.currentTimeMillis();
+        LocalWorkspace localWorkspace = new LocalWorkspace(location.toPath().toAbsolutePath(), workspace.toPath().toAbsolutePath(), compare, hardlink, filter);
+        int dirs = localWorkspace.sync();
+        log.info("同步本地资源到工作空间: {} 个目录, {} 个文件, 复制 {} 个 ({} B), 硬链接 {} 个, 删除 {} 个, {}, {} ms\n\t{}",
+                dirs, localWorkspace.files.sum(), localWorkspace.copied.sum(), localWorkspace.bytes.sum(),
+                localWorkspace.linked.sum(), localWorkspace.deleted.sum(), filter, System.currentTimeMillis() - beginTime, workspace.getAbsolutePath());
+    }
+
+    private int sync() throws Exception {
+        // 创建所有目录（同名文件先删除），排除的目录不遍历
+        Files.walkFileTree(source, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!filter.accept(source, dir, attrs)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                Path targetDir = target.resolve(source.relativize(dir).toString());
+                if (Files.exists(targetDir, LinkOption.NOFOLLOW_LINKS) && !Files.isDirectory(targetDir, LinkOption.NOFOLLOW_LINKS)) {
+                    delete(targetDir);
+                }
+                Files.createDirectories(targetDir);
+                dirs.add(dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        // 并行同步每个目录下的文件
+        int threads = Math.max(Math.min(Runtime.getRuntime().availableProcessors(), dirs.size()), 1);
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Void>> tasks = new ArrayList<>(dirs.size());
+            for (Path dir : dirs) {
+                tasks.add(() -> {
+                    syncDir(dir, target.resolve(source.relativize(dir).toString()));
+                    return null;
+                });
+            }
+            for (Future<Void> future : executorService.invokeAll(tasks)) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw (Exception) e.getCause();
+                }
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        return dirs.size();
+    }
+
+    /**
+     * 同步目录下的文件（不包括子目录），删除本地资源位置不存在（或者排除）的文件及目录
+     */
+    private void syncDir(Path sourceDir, Path targetDir) throws IOException {
+        Set<String> names = new HashSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(sourceDir)) {
+            for (Path sourceFile : stream) {
+                String name = sourceFile.getFileName().toString();
+                BasicFileAttributes attrs = Files.readAttributes(sourceFile, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if (attrs.isDirectory()) {
+                    if (dirs.contains(sourceFile)) {
+                        names.add(name);
+                    }
+                } else if (filter.accept(source, sourceFile, attrs)) {
+                    names.add(name);
+                    syncFile(sourceFile, attrs, targetDir.resolve(name));
+                }
+            }
+        }
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(targetDir)) {
+            for (Path targetFile : stream) {
+                if (!names.contains(targetFile.getFileName().toString())) {
+                    delete(targetFile);
+                }
+            }
+        }
+    }
+
+    private void syncFile(Path sourceFile, BasicFileAttributes attrs, Path targetFile) throws IOException {
+        BasicFileAttributes targetAttrs = null;
+        try {
+            targetAttrs = Files.readAttributes(targetFile, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+        }
+
+        // 符号链接
+        if (attrs.isSymbolicLink()) {
+            Path link = Files.readSymbolicLink(sourceFile);
+            if (Objects.nonNull(targetAttrs) && targetAttrs.isSymbolicLink() && link.equals(Files.readSymbolicLink(targetFile))) {
+                return;
+            }
+            if (Objects.nonNull(targetAttrs)) {
+                delete(targetFile);
+            }
+            Files.createSymbolicLink(targetFile, link);
+            return;
+        }
+
+        // 其他类型文件（管道、设备等）不同步
+        if (!attrs.isRegularFile()) {
+            return;
+        }
+
+        files.increment();
+        if (Objects.nonNull(targetAttrs) && targetAttrs.isRegularFile() && isUnchanged(sourceFile, attrs, targetFile, targetAttrs)) {
+            return;
+        }
+        if (Objects.nonNull(targetAttrs) && !targetAttrs.isRegularFile()) {
+            delete(targetFile);
+        }
+
+        if (hardlink) {
+            try {
+                Files.deleteIfExists(targetFile);
+                Files.createLink(targetFile, sourceFile);
+                linked.increment();
+                return;
+            } catch (FileSystemException | UnsupportedOperationException e) {
+                log.warn("不能硬链接，改为复制: {}", e.getMessage());
+                hardlink = false;
+            }
+        }
+
+        // 复制修改时间，下次同步按修改时间判断
+        Files.copy(sourceFile, targetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+        copied.increment();
+        bytes.add(attrs.size());
+    }
+
+    private boolean isUnchanged(Path sourceFile, BasicFileAttributes attrs, Path targetFile, BasicFileAttributes targetAttrs) throws IOException {
+        if (attrs.size() != targetAttrs.size()) {
+            return false;
+        }
+
+        switch (compare) {
+            case CONTENT:
+                return Files.mismatch(sourceFile, targetFile) == -1L;
+            case MTIME:
+            default:
+                return attrs.lastModifiedTime().toMillis() == targetAttrs.lastModifiedTime().toMillis();
+        }
+    }
+
+    /**
+     * 删除文件或者目录（不跟随符号链接）
+     */
+    private void delete(Path path) throws IOException {
+        Files.walkFileTree(path, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                deleted.increment();
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                if (Objects.nonNull(e)) {
+                    throw e;
+                }
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * 文件变更判断方式
+     */
+    @Getter
+    public static enum Compare {
+        // 大小及修改时间
+        MTIME("mtime"),
+        // 大小及文件内容
+        CONTENT("content"),
+        ;
+        private final String value;
+
+        Compare(String value) {
+            this.value = value;
+        }
+
+        public static Compare of(String value) {
+            if (Objects.isNull(value)) {
+                return MTIME;
+            }
+
+            for (Compare compare : Compare.values()) {
+                if (compare.value.equals(value)) {
+                    return compare;
+                }
+            }
+            throw new IllegalArgumentException(String.format("目前不支持 %s 文件变更判断方式(source.local.compare), 可选值: [ mtime, content ]", value));
+        }
+    }
+
+}
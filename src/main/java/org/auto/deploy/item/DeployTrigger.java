@@ -0,0 +1,201 @@
+package org.auto.deploy.item;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.auto.deploy.core.Config;
+import org.auto.deploy.core.source.GitSource;
+import org.auto.deploy.core.source.Source;
+import org.auto.deploy.util.Assert;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * 触发部署（钩子、本地资源监听）
+ * <p>
+ * 每个项目防抖：每次触发把部署推迟到防抖时间之后，连续推送合并为一次部署（部署时拉取分支最新提交）；
+ * 部署中的触发最多排队一次后续部署，部署结束后执行。触发只更新时间，不读取配置文件、不等待部署。
+ *
+ * @author xiangqian
+ * @date 22:48 2022/10/18
+ */
+@Slf4j
+public class DeployTrigger {
+
+    // 项目名 -> 触发状态
+    private static final Map<String, State> STATES = new ConcurrentHashMap<>();
+
+    private DeployTrigger() {
+    }
+
+    /**
+     * 钩子调用
+     *
+     * @param itemName
+     * @param token    钩子令牌，项目配置了 source.git.hook 时必须一致
+     * @return
+     * @throws Exception
+     */
+    public static Boolean hook(String itemName, String token) throws Exception {
+        State state = STATES.get(itemName);
+        if (Objects.isNull(state)) {
+            // 项目配置加载成功后才缓存
+            state = new State(itemName);
+            state.getConfig();
+            state = Optional.ofNullable(STATES.putIfAbsent(itemName, state)).orElse(state);
+        }
+        GitSource.Config config = state.getConfig();
+        if (StringUtils.isNotEmpty(config.getHook())) {
+            Assert.isTrue(Objects.nonNull(token) && MessageDigest.isEqual(config.getHook().getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8)),
+                    String.format("%s 项目钩子令牌错误!", itemName));
+        }
+
+        trigger(state, config.getHookDebounce() * 1000L);
+        return true;
+    }
+
+    /**
+     * 触发部署
+     *
+     * @param itemName
+     * @param debounce 防抖时间，单位ms
+     */
+    public static void trigger(String itemName, long debounce) {
+        trigger(STATES.computeIfAbsent(itemName, State::new), debounce);
+    }
+
+    private static void trigger(State state, long debounce) {
+        synchronized (state) {
+            state.deadline = System.currentTimeMillis() + debounce;
+            state.count++;
+            if (Objects.isNull(state.pending)) {
+                state.pending = TaskScheduler.schedule(state::fire, Instant.ofEpochMilli(state.deadline));
+            }
+        }
+    }
+
+    /**
+     * 项目配置修改后重新加载
+     *
+     * @param itemName
+     */
+    public static void refresh(String itemName) {
+        State state = STATES.get(itemName);
+        if (Objects.nonNull(state)) {
+            state.config = null;
+        }
+    }
+
+    /**
+     * 部署结束，有排队的后续部署时执行
+     *
+     * @param itemDeployer 结束的部署器
+     */
+    public static void finished(ItemDeployer itemDeployer) {
+        State state = STATES.get(itemDeployer.getItemName());
+        if (Objects.isNull(state)) {
+            return;
+        }
+
+        synchronized (state) {
+            if (!state.queued) {
+                return;
+            }
+            state.queued = false;
+            // 防抖中的钩子到期后会部署
+            if (Objects.nonNull(state.pending)) {
+                return;
+            }
+        }
+        TaskScheduler.schedule(() -> {
+            try {
+                // 等待部署线程退出
+                itemDeployer.join();
+                state.deploy();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, Instant.now());
+    }
+
+    private static class State {
+
+        private final String itemName;
+
+        // 缓存的git资源配置，配置修改后置为null
+        private volatile GitSource.Config config;
+
+        // 防抖截止时间
+        private long deadline;
+
+        // 防抖期间的触发次数
+        private int count;
+
+        // 防抖中的任务
+        private ScheduledFuture<?> pending;
+
+        // 是否有排队的后续部署
+        private boolean queued;
+
+        private State(String itemName) {
+            this.itemName = itemName;
+        }
+
+        private GitSource.Config getConfig() throws Exception {
+            GitSource.Config config = this.config;
+            if (Objects.isNull(config)) {
+                Config itemConfig = ItemService.getItemConfig(itemName);
+                Assert.isTrue(itemConfig.getSource().getType() == Source.Config.Type.GIT, String.format("%s 项目资源不是git，不支持钩子!", itemName));
+                config = itemConfig.getSource().getGit();
+                this.config = config;
+            }
+            return config;
+        }
+
+        /**
+         * 防抖到期：期间仍有钩子调用时继续推迟，否则部署
+         */
+        private void fire() {
+            int count;
+            synchronized (this) {
+                if (System.currentTimeMillis() < deadline) {
+                    pending = TaskScheduler.schedule(this::fire, Instant.ofEpochMilli(deadline));
+                    return;
+                }
+                pending = null;
+                count = this.count;
+                this.count = 0;
+            }
+            log.info("{} 项目触发部署，合并 {} 次触发", itemName, count);
+            deploy();
+        }
+
+        private void deploy() {
+            try {
+                ItemService.deploy(itemName);
+                return;
+            } catch (Exception e) {
+                // 部署中
+            }
+
+            // 排队一次后续部署（多次排队合并为一次）
+            synchronized (this) {
+                queued = true;
+            }
+            log.info("{} 项目正在部署中，部署结束后再部署一次", itemName);
+
+            // 排队前部署已结束（部署器先标记结束再检查排队）
+            ItemDeployer itemDeployer = ItemService.getItemDeployer(itemName);
+            if (Objects.nonNull(itemDeployer) && itemDeployer.isFinished()) {
+                finished(itemDeployer);
+            }
+        }
+    }
+
+}
@@ -2,6 +2,7 @@ package org.auto.deploy.item;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.auto.deploy.ssh.SessionPool;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
@@ -40,6 +41,23 @@ public class ItemController {
         return new ResponseEntity<>(ItemService.deploy(itemName), HttpStatus.OK);
     }
 
+    /**
+     * 钩子（git仓库推送时调用），防抖合并连续推送，立即返回
+     *
+     * @param itemName
+     * @param token       钩子令牌（请求参数）
+     * @param headerToken 钩子令牌（请求头）
+     * @return
+     * @throws Exception
+     */
+    @ResponseBody
+    @PostMapping("/item/{itemName}/hook")
+    public ResponseEntity<Boolean> hook(@PathVariable("itemName") String itemName,
+                                        @RequestParam(value = "token", required = false) String token,
+                                        @RequestHeader(value = "X-Hook-Token", required = false) String headerToken) throws Exception {
+        return new ResponseEntity<>(DeployTrigger.hook(itemName, StringUtils.defaultIfEmpty(token, headerToken)), HttpStatus.ACCEPTED);
+    }
+
     @ResponseBody
     @PostMapping("/item/{itemName}/config/jar/docker/{fileName}")
     public ResponseEntity<Boolean> modifyConfigFileContentForJarDockerXxx(@PathVariable("itemName") String itemName,
@@ -81,6 +99,12 @@ public class ItemController {
         return "editor";
     }
 
+    @ResponseBody
+    @GetMapping("/ssh/session-pool/stats")
+    public ResponseEntity<SessionPool.Stats> sessionPoolStats() {
+        return new ResponseEntity<>(SessionPool.getStats(), HttpStatus.OK);
+    }
+
     @ResponseBody
     @PostMapping("/item/add/{name}")
     public ResponseEntity<Boolean> add(@PathVariable("name") String name) throws Exception {
@@ -5,7 +5,10 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
 import org.auto.deploy.core.Config;
 import org.auto.deploy.core.build.Build;
+import org.auto.deploy.core.deployment.AbstractDeployment;
 import org.auto.deploy.core.deployment.Deployment;
+import org.auto.deploy.core.deployment.archive.ArchiveCache;
+import org.auto.deploy.core.deployment.archive.ArchiveRelay;
 import org.auto.deploy.core.deployment.jar.JarDeployment;
 import org.auto.deploy.core.deployment.jar.docker.JarDockerDeployment;
 import org.auto.deploy.core.deployment.stc.StaticDeployment;
@@ -19,9 +22,14 @@ import org.auto.deploy.util.JacksonUtils;
 import java.io.Flushable;
 import java.io.IOException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.ScheduledFuture;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * 项目部署器
@@ -36,10 +44,6 @@ public class ItemDeployer extends Thread implements Flushable {
     // 项目名
     private String itemName;
 
-    // 开启资源监听
-//    @Setter
-    private volatile boolean enableSourceMonitoring;
-
     private volatile ItemInfo itemInfo;
     private volatile LocalDateTime lastDeploymentTime;
     private volatile String logRelativePath;
@@ -48,87 +52,42 @@ public class ItemDeployer extends Thread implements Flushable {
     private volatile ItemStage buildrStage;
     private volatile ItemStage deploymentStage;
 
+    // 是否部署结束（线程即将退出）
+    private volatile boolean finished;
+
     public ItemDeployer(String itemName) {
         super(itemName);
         this.itemName = itemName;
-        this.enableSourceMonitoring = false;
     }
 
     @Override
     public void run() {
         //  source
         Source source = null;
-        // md5校验文件变更
-        String md5 = null;
-        // ScheduledFuture
-        ScheduledFuture<?> scheduledFuture = null;
         try {
-            do {
-                // initIemInfo
-                initIemInfo();
+            // initIemInfo
+            initIemInfo();
 
-                // config
-                Config config = getConfig();
-                if (Objects.isNull(md5)) {
-                    md5 = config.getMd5();
+            // config
+            Config config = getConfig();
 
-                    // 获取source
-                    source = getSource(config);
-                }
-                // config发生改变
-                else if (!md5.equals(config.getMd5())) {
-                    // 关闭source并重新获取source
-                    IOUtils.closeQuietly(source);
-                    source = getSource(config);
-
-                    // 先注释，目前暂不支持
-                    // 是否开启资源监听
-//                    if (enableSourceMonitoring) {
-//                        TaskScheduler.cancel(scheduledFuture, true);
-//                        Thread currentThread = Thread.currentThread();
-//                        String cron = null;
-//                        switch (config.getSource().getType()) {
-//                            case LOCAL:
-//                                cron = config.getSource().getLocal().getCron();
-//                                break;
-//
-//                            case GIT:
-//                                cron = config.getSource().getGit().getCron();
-//                                break;
-//                        }
-//                        scheduledFuture = TaskScheduler.schedule(currentThread::interrupt, new CronTrigger(cron));
-//                    }
-                }
+            // 获取source
+            source = getSource(config);
+
+            // 构建并部署
+            buildAndDeploy(config, source);
 
-                // 先注释，目前暂不支持
-                // 等待中断
-//                try {
-//                    Thread.currentThread().wait();
-//                } catch (InterruptedException e) {
-//                    log.debug("{} 项目资源监听线程被中断!", itemName);
-//                }
-
-                // 先注释，目前暂不支持
-                // 资源发生改变时
-//                if (source.isChanged()) {
-//                    // 构建并部署
-//                    buildAndDeploy(config, source);
-//                }
-                buildAndDeploy(config, source);
-
-            } while (enableSourceMonitoring);
         } catch (Exception e) {
             log.error(String.format("%s 项目部署异常!", itemName), e);
         } finally {
             IOUtils.closeQuietly(source);
-            TaskScheduler.cancel(scheduledFuture, true);
+            finished = true;
+            DeployTrigger.finished(this);
         }
     }
 
     private void buildAndDeploy(Config config, Source source) throws Exception {
         Build build = null;
-        Server server = null;
-        Deployment deployment = null;
         ItemStage curStage = null;
         try {
             // source
@@ -137,8 +96,8 @@ public class ItemDeployer extends Thread implements Flushable {
             flush();
             source.get();
             if (source instanceof GitSource) {
-                String lastRevCommitStr = ((GitSource) source).getLastRevCommitStr();
-                itemInfo.setLastRevCommitMessage("\n最新一次提交信息: " + lastRevCommitStr);
+                GitSource gitSource = (GitSource) source;
+                itemInfo.setLastRevCommitMessage("\n最新一次提交信息: " + gitSource.getLastRevCommitStr());
             }
             curStage.setEndTime(System.currentTimeMillis());
             flush();
@@ -152,32 +111,141 @@ public class ItemDeployer extends Thread implements Flushable {
             curStage.setEndTime(System.currentTimeMillis());
             flush();
 
+            // server & deployment（阶段耗时由每台主机的阶段汇总）
+            curStage = null;
+            deploy(config, source);
+
+            // 部署成功后才记录部署的提交，构建或者部署失败时资源监听重启后仍会重试
+            if (source instanceof GitSource) {
+                itemInfo.setCommitId(((GitSource) source).getCommitId());
+            }
+
+        } catch (Exception e) {
+            if (Objects.nonNull(curStage)) {
+                curStage.setEndTime(-1L);
+            }
+            throw e;
+        } finally {
+            IOUtils.closeQuietly(build);
+            flush();
+        }
+    }
+
+    /**
+     * 连接服务并部署：只构建一次，按批次部署到所有主机，每批主机并发部署，一批中有主机部署失败时不再部署后续批次
+     *
+     * @param config
+     * @param source
+     * @throws Exception
+     */
+    private void deploy(Config config, Source source) throws Exception {
+        List<Server.Config> serverConfigs = config.getServer().expand();
+        Server.Config.Fanout fanout = Optional.ofNullable(config.getServer().getFanout()).orElseGet(Server.Config.Fanout::new);
+        int size = serverConfigs.size();
+        int waveSize = fanout.getWaveSize(size);
+        int concurrency = fanout.getConcurrency(size);
+
+        List<ItemHost> hosts = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            hosts.add(new ItemHost(new Server(serverConfigs.get(i)).getName(), i / waveSize));
+        }
+        itemInfo.setHosts(hosts);
+        flush();
+        log.debug("部署到 {} 台主机，每批 {} 台，并发数 {}", size, waveSize, concurrency);
+
+        // 归档文件中继
+        Server.Config.Relay relay = config.getServer().getRelay();
+        ArchiveRelay archiveRelay = Objects.nonNull(relay) && size > 1 ? new ArchiveRelay(serverConfigs, relay) : null;
+
+        ExecutorService executorService = Executors.newFixedThreadPool(concurrency);
+        try (ArchiveCache archiveCache = new ArchiveCache()) {
+            for (int from = 0, wave = 1; from < size; from += waveSize, wave++) {
+                int to = Math.min(from + waveSize, size);
+                log.debug("部署第 {} 批主机 ...", wave);
+                List<Future<?>> futures = new ArrayList<>(to - from);
+                for (int i = from; i < to; i++) {
+                    Server.Config serverConfig = serverConfigs.get(i);
+                    ItemHost host = hosts.get(i);
+                    futures.add(executorService.submit(() -> {
+                        // 线程名 {项目名}/{主机}，日志写入项目日志
+                        Thread.currentThread().setName(String.format("%s/%s", itemName, host.getName()));
+                        deploy(config, serverConfig, host, source, archiveCache, archiveRelay);
+                        return null;
+                    }));
+                }
+
+                Exception exception = null;
+                int failures = 0;
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        failures++;
+                        if (Objects.isNull(exception)) {
+                            exception = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                        }
+                    }
+                }
+                if (Objects.nonNull(exception)) {
+                    for (int i = to; i < size; i++) {
+                        for (ItemStage stage : hosts.get(i).getStages()) {
+                            stage.setEndTime(-1L);
+                            stage.setMessage("已跳过");
+                        }
+                    }
+                    flush();
+                    throw new IllegalStateException(String.format("第 %d 批主机中有 %d 台部署失败，不再部署后续 %d 台主机", wave, failures, size - to), exception);
+                }
+                log.debug("已部署第 {} 批主机!", wave);
+            }
+        } finally {
+            executorService.shutdownNow();
+            IOUtils.closeQuietly(archiveRelay);
+        }
+    }
+
+    private void deploy(Config config, Server.Config serverConfig, ItemHost host, Source source, ArchiveCache archiveCache, ArchiveRelay archiveRelay) throws Exception {
+        Server server = null;
+        Deployment deployment = null;
+        ItemStage curStage = null;
+        try {
             // server
-            curStage = serverStage;
+            curStage = host.getStages().get(0);
             curStage.setStartTime(System.currentTimeMillis());
             flush();
-            server = getServer(config);
+            server = getServer(serverConfig);
             // 连接到服务
             server.connect();
             curStage.setEndTime(System.currentTimeMillis());
             flush();
 
             // deployment
-            curStage = deploymentStage;
+            curStage = host.getStages().get(1);
             curStage.setStartTime(System.currentTimeMillis());
             flush();
             deployment = getDeployment(config, server, source);
-            log.debug("部署中 ...");
+            if (deployment instanceof AbstractDeployment) {
+                ((AbstractDeployment) deployment).setArchiveCache(archiveCache);
+                ((AbstractDeployment) deployment).setArchiveRelay(archiveRelay);
+                ((AbstractDeployment) deployment).setItemName(itemName);
+            }
+            log.debug("部署中 ...\n\t{}", host.getName());
             deployment.deploy();
-            log.debug("已部署!");
+            log.debug("已部署!\n\t{}", host.getName());
             curStage.setEndTime(System.currentTimeMillis());
             flush();
 
         } catch (Exception e) {
+            log.error(String.format("%s 部署异常!", host.getName()), e);
             curStage.setEndTime(-1L);
+            curStage.setMessage(e.getMessage());
             throw e;
         } finally {
-            IOUtils.closeQuietly(deployment, server, build);
+            // 未接收归档文件时，下级主机由本机上传
+            if (Objects.nonNull(archiveRelay)) {
+                archiveRelay.finish(host.getName());
+            }
+            IOUtils.closeQuietly(deployment, server);
             flush();
         }
     }
@@ -202,9 +270,9 @@ public class ItemDeployer extends Thread implements Flushable {
         return deployment;
     }
 
-    private Server getServer(Config config) {
+    private Server getServer(Server.Config config) {
         log.debug("初始化server ...");
-        Server server = new Server(config.getServer());
+        Server server = new Server(config);
         log.debug("已初始化server!\n\t{}", server);
         return server;
     }
@@ -261,6 +329,7 @@ public class ItemDeployer extends Thread implements Flushable {
         serverStage = new ItemStage("连接服务");
         deploymentStage = new ItemStage("部署项目");
         itemInfo.setStages(List.of(sourceStage, buildrStage, serverStage, deploymentStage));
+        itemInfo.setHosts(null);
         itemInfo.setLastDeploymentTime(lastDeploymentTime);
         itemInfo.setLastRevCommitMessage(null);
 
@@ -268,10 +337,48 @@ public class ItemDeployer extends Thread implements Flushable {
         flush();
     }
 
+    /**
+     * 写入并广播项目信息，部署到多台主机时由多个线程调用
+     *
+     * @throws IOException
+     */
     @Override
-    public void flush() throws IOException {
+    public synchronized void flush() throws IOException {
+        List<ItemHost> hosts = itemInfo.getHosts();
+        if (Objects.nonNull(hosts)) {
+            aggregate(serverStage, hosts, 0);
+            aggregate(deploymentStage, hosts, 1);
+        }
         ItemService.writeItemInfo(itemName, itemInfo);
         ItemWebSocketManager.broadcast(JacksonUtils.toJson(itemInfo));
     }
 
+    /**
+     * 汇总所有主机的阶段：开始时间为最早开始时间，所有主机结束后结束时间为最晚结束时间，任一主机失败时为-1
+     *
+     * @param stage
+     * @param hosts
+     * @param index 主机阶段序号
+     */
+    private void aggregate(ItemStage stage, List<ItemHost> hosts, int index) {
+        Long startTime = null;
+        Long endTime = null;
+        boolean finished = true;
+        for (ItemHost host : hosts) {
+            ItemStage hostStage = host.getStages().get(index);
+            if (Objects.nonNull(hostStage.getStartTime()) && (Objects.isNull(startTime) || hostStage.getStartTime() < startTime)) {
+                startTime = hostStage.getStartTime();
+            }
+            if (Objects.isNull(hostStage.getEndTime())) {
+                finished = false;
+            } else if (hostStage.getEndTime() == -1L) {
+                endTime = -1L;
+            } else if (Objects.isNull(endTime) || (endTime != -1L && hostStage.getEndTime() > endTime)) {
+                endTime = hostStage.getEndTime();
+            }
+        }
+        stage.setStartTime(startTime);
+        stage.setEndTime(Objects.nonNull(endTime) && (finished || endTime == -1L) ? endTime : null);
+    }
+
 }
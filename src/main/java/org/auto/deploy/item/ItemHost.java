@@ -0,0 +1,41 @@
+package org.auto.deploy.item;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 项目部署的主机（部署到多台主机时）
+ *
+ * @author xiangqian
+ * @date 22:26 2022/10/16
+ */
+@Data
+@NoArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ItemHost {
+
+    /**
+     * 主机名称，username@host:port
+     */
+    private String name;
+
+    /**
+     * 批次序号，从0开始
+     */
+    private Integer wave;
+
+    /**
+     * 阶段集（连接服务、部署项目）
+     */
+    private List<ItemStage> stages;
+
+    public ItemHost(String name, Integer wave) {
+        this.name = name;
+        this.wave = wave;
+        this.stages = List.of(new ItemStage("连接服务"), new ItemStage("部署项目"));
+    }
+
+}
@@ -24,10 +24,20 @@ public class ItemInfo {
     // 阶段集
     private List<ItemStage> stages;
 
+    /**
+     * 部署的主机集，每台主机的阶段耗时（连接服务、部署项目）
+     */
+    private List<ItemHost> hosts;
+
     /**
      * 最新一次构建时间
      */
     private LocalDateTime lastDeploymentTime;
 
     private String lastRevCommitMessage;
+
+    /**
+     * 最新一次部署成功的提交id（git资源），资源监听据此判断远程分支是否有新提交
+     */
+    private String commitId;
 }
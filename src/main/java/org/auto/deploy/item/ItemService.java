@@ -53,7 +53,7 @@ public class ItemService {
         ITEM_DEPLOYER_MAP = new ConcurrentHashMap<>();
     }
 
-    public static Boolean deploy(String itemName) throws Exception {
+    public static synchronized Boolean deploy(String itemName) throws Exception {
         ItemDeployer itemDeployer = ITEM_DEPLOYER_MAP.get(itemName);
         if (Objects.nonNull(itemDeployer) && itemDeployer.isAlive()) {
             throw new RuntimeException("当前项目正在部署中，请稍后再试!");
@@ -83,6 +83,12 @@ public class ItemService {
         File file = getFile(itemName, fileNames);
         Assert.isTrue(file.exists(), String.format("FileNotFoundException: %s", file.getAbsolutePath()));
         FileUtils.write(file, content, StandardCharsets.UTF_8);
+
+        // core.yml修改后重新监听资源、重新加载钩子配置
+        if (Arrays.equals(fileNames, new String[]{"config", "core.yml"})) {
+            SourceMonitor.refresh(itemName);
+            DeployTrigger.refresh(itemName);
+        }
         return true;
     }
 
@@ -140,16 +146,23 @@ public class ItemService {
         itemInfo.setName(itemName);
         FileUtils.write(getInfoFile(itemName), JacksonUtils.toJson(itemInfo), StandardCharsets.UTF_8);
 
+        // 资源监听
+        SourceMonitor.refresh(itemName);
+
         return true;
     }
 
-    public static List<ItemInfo> getItemInfos() {
+    public static List<String> getItemNames() {
         return Optional.ofNullable(ITEMS_DIR.listFiles(File::isDirectory))
                 .filter(ArrayUtils::isNotEmpty)
-                .map(files -> Arrays.stream(files).map(file -> getItemInfo(file.getName())).collect(Collectors.toList()))
+                .map(files -> Arrays.stream(files).map(File::getName).collect(Collectors.toList()))
                 .orElse(Collections.emptyList());
     }
 
+    public static List<ItemInfo> getItemInfos() {
+        return getItemNames().stream().map(ItemService::getItemInfo).collect(Collectors.toList());
+    }
+
     public static ItemInfo getItemInfo(String itemName) {
         try {
             File infoFile = getInfoFile(itemName);
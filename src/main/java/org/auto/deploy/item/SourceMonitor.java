@@ -0,0 +1,191 @@
+package org.auto.deploy.item;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.BooleanUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.auto.deploy.core.Config;
+import org.auto.deploy.core.source.GitMirror;
+import org.auto.deploy.core.source.GitSource;
+import org.auto.deploy.core.source.LocalSource;
+import org.auto.deploy.core.source.Source;
+import org.eclipse.jgit.lib.Constants;
+import org.springframework.scheduling.support.CronTrigger;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * 资源监听
+ * <p>
+ * 按 source.git.cron 在共享的任务调度器上定时检查远程分支（ls-remote，只获取引用），
+ * 分支最新提交与最新一次部署的提交不同时才部署（fetch），监听的项目不占用线程。
+ * 同一仓库（地址规范化后相同）的多个项目在同一时刻只ls-remote一次。
+ * 本地资源配置了 source.local.watch 时由 {@link SourceWatcher} 监听文件变更。
+ *
+ * @author xiangqian
+ * @date 21:36 2022/10/18
+ */
+@Slf4j
+public class SourceMonitor {
+
+    // ls-remote结果复用时间，单位ms
+    private static final long LS_REMOTE_TTL = 5 * 1000;
+
+    // 项目名 -> 监听
+    private static final Map<String, Monitor> MONITORS = new ConcurrentHashMap<>();
+
+    // 规范化仓库地址 -> ls-remote（所有分支）
+    private static final Map<String, LsRemote> LS_REMOTES = new ConcurrentHashMap<>();
+
+    private SourceMonitor() {
+    }
+
+    /**
+     * 监听所有项目
+     */
+    public static void start() {
+        for (String itemName : ItemService.getItemNames()) {
+            refresh(itemName);
+        }
+        log.info("已开启资源监听: {} 个项目", MONITORS.size());
+    }
+
+    /**
+     * 按项目配置重新监听，项目配置修改后调用；git资源没有配置cron、本地资源没有开启watch时取消监听
+     *
+     * @param itemName
+     */
+    public static synchronized void refresh(String itemName) {
+        GitSource.Config config = null;
+        LocalSource.Config localConfig = null;
+        try {
+            Config itemConfig = ItemService.getItemConfig(itemName);
+            itemConfig.validate();
+            if (itemConfig.getSource().getType() == Source.Config.Type.GIT
+                    && StringUtils.isNotBlank(itemConfig.getSource().getGit().getCron())) {
+                config = itemConfig.getSource().getGit();
+            } else if (itemConfig.getSource().getType() == Source.Config.Type.LOCAL
+                    && BooleanUtils.isTrue(itemConfig.getSource().getLocal().getWatch())) {
+                localConfig = itemConfig.getSource().getLocal();
+            }
+        } catch (Exception e) {
+            log.warn(String.format("%s 项目配置异常，取消资源监听", itemName), e);
+        }
+
+        if (Objects.nonNull(localConfig)) {
+            SourceWatcher.watch(itemName, localConfig);
+        } else {
+            SourceWatcher.unwatch(itemName);
+        }
+
+        Monitor monitor = MONITORS.get(itemName);
+        if (Objects.nonNull(monitor)) {
+            if (Objects.nonNull(config) && config.getCron().equals(monitor.config.getCron())) {
+                monitor.config = config;
+                return;
+            }
+            stop(itemName);
+        }
+
+        if (Objects.nonNull(config)) {
+            monitor = new Monitor(itemName, config);
+            monitor.scheduledFuture = TaskScheduler.schedule(monitor::check, new CronTrigger(config.getCron()));
+            MONITORS.put(itemName, monitor);
+            log.debug("已开启资源监听: {}, {}", itemName, config.getCron());
+        }
+    }
+
+    /**
+     * 取消监听
+     *
+     * @param itemName
+     */
+    public static synchronized void stop(String itemName) {
+        Monitor monitor = MONITORS.remove(itemName);
+        if (Objects.nonNull(monitor)) {
+            TaskScheduler.cancel(monitor.scheduledFuture, false);
+            log.debug("已取消资源监听: {}", itemName);
+        }
+    }
+
+    /**
+     * 远程分支最新提交id，同一仓库在 LS_REMOTE_TTL 内复用（正在进行的ls-remote则等待其结果）
+     */
+    private static String lsRemote(GitSource.Config config) throws Exception {
+        String key = GitMirror.normalize(config.getRepoUrl());
+        long now = System.currentTimeMillis();
+        LsRemote lsRemote = new LsRemote(now);
+        LsRemote cached = LS_REMOTES.merge(key, lsRemote, (oldValue, value) -> now - oldValue.time < LS_REMOTE_TTL ? oldValue : value);
+        if (cached == lsRemote) {
+            try {
+                lsRemote.future.complete(GitSource.lsRemote(config));
+            } catch (Exception e) {
+                LS_REMOTES.remove(key, lsRemote);
+                lsRemote.future.completeExceptionally(e);
+            }
+        }
+        return cached.future.join().get(Constants.R_HEADS + config.getBranch());
+    }
+
+    private static class Monitor {
+
+        private final String itemName;
+        private volatile GitSource.Config config;
+        private volatile ScheduledFuture<?> scheduledFuture;
+
+        // 最近一次触发部署的提交id，避免部署失败时重复触发
+        private volatile String triggeredCommitId;
+
+        private Monitor(String itemName, GitSource.Config config) {
+            this.itemName = itemName;
+            this.config = config;
+        }
+
+        private void check() {
+            try {
+                ItemDeployer itemDeployer = ItemService.getItemDeployer(itemName);
+                if (Objects.nonNull(itemDeployer) && itemDeployer.isAlive()) {
+                    return;
+                }
+
+                String head = lsRemote(config);
+                if (Objects.isNull(head)) {
+                    log.warn("{} 项目远程分支不存在: {} {}", itemName, config.getRepoUrl(), config.getBranch());
+                    return;
+                }
+
+                // 未部署过时，以首次检查到的提交为基准
+                String commitId = ItemService.getItemInfo(itemName).getCommitId();
+                if (Objects.isNull(commitId)) {
+                    if (Objects.isNull(triggeredCommitId)) {
+                        triggeredCommitId = head;
+                    }
+                    commitId = triggeredCommitId;
+                }
+                if (head.equals(commitId) || head.equals(triggeredCommitId)) {
+                    return;
+                }
+
+                log.info("{} 项目远程分支有新提交: {} -> {}，开始部署", itemName, commitId, head);
+                triggeredCommitId = head;
+                ItemService.deploy(itemName);
+            } catch (Exception e) {
+                log.error(String.format("%s 项目资源监听异常", itemName), e);
+            }
+        }
+    }
+
+    private static class LsRemote {
+
+        private final long time;
+        private final CompletableFuture<Map<String, String>> future = new CompletableFuture<>();
+
+        private LsRemote(long time) {
+            this.time = time;
+        }
+    }
+
+}
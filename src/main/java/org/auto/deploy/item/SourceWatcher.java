@@ -0,0 +1,312 @@
+package org.auto.deploy.item;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.BooleanUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.auto.deploy.core.source.LocalSource;
+import org.auto.deploy.util.PathFilter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地资源监听
+ * <p>
+ * 所有项目共用一个 WatchService 及一个监听线程，递归监听 source.local.location 下的目录（watch-ignores 忽略的目录不监听）。
+ * 文件变更按项目合并为变更集，最后一次变更后 watch-debounce 秒内没有新的变更才触发部署；
+ * 只有未忽略的文件变更才触发：watch-ignores 及文件过滤器（includes、excludes、.gitignore 等忽略文件）排除的文件不触发，目录本身的修改事件忽略。
+ * 不使用工作空间（use-temp-workspace: false）时构建输出写入本地资源位置，项目部署中的文件变更忽略，避免部署触发部署。
+ *
+ * @author xiangqian
+ * @date 00:26 2022/10/19
+ */
+@Slf4j
+public class SourceWatcher {
+
+    // 日志中最多列出的变更文件数
+    private static final int MAX_LOGGED_CHANGES = 10;
+
+    private static WatchService watchService;
+    private static Thread thread;
+
+    // 项目名 -> 监听
+    private static final Map<String, Watch> WATCHES = new HashMap<>();
+
+    // WatchKey -> 监听的目录
+    private static final Map<WatchKey, Path> KEYS = new HashMap<>();
+
+    private SourceWatcher() {
+    }
+
+    /**
+     * 监听项目的本地资源位置，已监听时按新配置重新监听
+     *
+     * @param itemName
+     * @param config
+     */
+    public static synchronized void watch(String itemName, LocalSource.Config config) {
+        Path root = Path.of(config.getLocation()).toAbsolutePath().normalize();
+        Watch watch = WATCHES.get(itemName);
+        if (Objects.nonNull(watch) && watch.root.equals(root) && watch.config.equals(config)) {
+            return;
+        }
+
+        try {
+            if (Objects.isNull(watchService)) {
+                watchService = FileSystems.getDefault().newWatchService();
+                thread = new Thread(SourceWatcher::run, "source-watcher");
+                thread.setDaemon(true);
+                thread.start();
+            }
+
+            watch = new Watch(itemName, root, config);
+            WATCHES.put(itemName, watch);
+            register(root);
+            cancelKeys();
+            log.debug("已监听本地资源: {}, {}", itemName, root);
+        } catch (IOException e) {
+            WATCHES.remove(itemName);
+            log.error(String.format("%s 项目监听本地资源异常: %s", itemName, root), e);
+        }
+    }
+
+    /**
+     * 取消监听
+     *
+     * @param itemName
+     */
+    public static synchronized void unwatch(String itemName) {
+        if (Objects.nonNull(WATCHES.remove(itemName))) {
+            cancelKeys();
+            log.debug("已取消监听本地资源: {}", itemName);
+        }
+    }
+
+    public static synchronized void shutdown() {
+        if (Objects.nonNull(watchService)) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+            }
+            watchService = null;
+            thread = null;
+        }
+        WATCHES.clear();
+        KEYS.clear();
+    }
+
+    /**
+     * 递归注册目录，所有监听都忽略的目录不注册
+     */
+    private static void register(Path dir) throws IOException {
+        WatchService watchService = SourceWatcher.watchService;
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (isIgnored(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                KEYS.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                log.warn("不能监听: {}, {}", file, e.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * 取消所有监听都忽略（或者不在任一监听位置下）的目录
+     */
+    private static void cancelKeys() {
+        Iterator<Map.Entry<WatchKey, Path>> iterator = KEYS.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<WatchKey, Path> entry = iterator.next();
+            if (isIgnored(entry.getValue())) {
+                entry.getKey().cancel();
+                iterator.remove();
+            }
+        }
+    }
+
+    private static boolean isIgnored(Path path) {
+        for (Watch watch : WATCHES.values()) {
+            if (path.startsWith(watch.root) && (path.equals(watch.root) || !watch.config.isIgnored(watch.root.relativize(path)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void run() {
+        WatchService watchService = SourceWatcher.watchService;
+        try {
+            while (true) {
+                long timeout = getTimeout();
+                WatchKey key = timeout < 0 ? watchService.take() : watchService.poll(timeout, TimeUnit.MILLISECONDS);
+                synchronized (SourceWatcher.class) {
+                    // 处理所有就绪的WatchKey
+                    while (Objects.nonNull(key)) {
+                        process(key);
+                        key = watchService.poll();
+                    }
+                    fire();
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            log.debug("本地资源监听线程已结束");
+        } catch (Exception e) {
+            log.error("本地资源监听线程异常", e);
+        }
+    }
+
+    private static void process(WatchKey key) {
+        Path dir = KEYS.get(key);
+        List<WatchEvent<?>> events = key.pollEvents();
+        if (!key.reset() || Objects.isNull(dir)) {
+            KEYS.remove(key);
+        }
+        if (Objects.isNull(dir)) {
+            return;
+        }
+
+        for (WatchEvent<?> event : events) {
+            // 事件溢出时视为整个目录变更
+            Path path = event.kind() == StandardWatchEventKinds.OVERFLOW ? dir : dir.resolve((Path) event.context());
+            boolean directory = Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS);
+            if (directory && event.kind() == StandardWatchEventKinds.ENTRY_MODIFY) {
+                continue;
+            }
+
+            // 新建的目录
+            if (directory && event.kind() == StandardWatchEventKinds.ENTRY_CREATE && !isIgnored(path)) {
+                try {
+                    register(path);
+                } catch (IOException e) {
+                    log.warn("不能监听: {}, {}", path, e.getMessage());
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            for (Watch watch : WATCHES.values()) {
+                if (!path.startsWith(watch.root) || watch.isDeploying()) {
+                    continue;
+                }
+                Path relativePath = watch.root.relativize(path);
+                if (relativePath.toString().isEmpty() || (!watch.config.isIgnored(relativePath) && watch.accept(path, directory))) {
+                    watch.changes.add(relativePath.toString().isEmpty() ? "." : relativePath.toString());
+                    watch.deadline = now + watch.config.getWatchDebounce() * 1000L;
+                }
+            }
+        }
+    }
+
+    /**
+     * 防抖到期的项目触发部署
+     */
+    private static void fire() {
+        long now = System.currentTimeMillis();
+        for (Watch watch : WATCHES.values()) {
+            if (watch.changes.isEmpty() || now < watch.deadline) {
+                continue;
+            }
+
+            List<String> changes = new ArrayList<>(watch.changes);
+            watch.changes.clear();
+            log.info("{} 项目本地资源有 {} 个文件变更，触发部署\n\t{}{}", watch.itemName, changes.size(),
+                    StringUtils.join(changes.subList(0, Math.min(changes.size(), MAX_LOGGED_CHANGES)), "\n\t"),
+                    changes.size() > MAX_LOGGED_CHANGES ? "\n\t..." : "");
+            DeployTrigger.trigger(watch.itemName, 0);
+        }
+    }
+
+    /**
+     * 距最近一个防抖到期的时间，没有变更时为-1
+     */
+    private static synchronized long getTimeout() {
+        long timeout = -1;
+        long now = System.currentTimeMillis();
+        for (Watch watch : WATCHES.values()) {
+            if (!watch.changes.isEmpty()) {
+                long remaining = Math.max(watch.deadline - now, 1);
+                timeout = timeout < 0 ? remaining : Math.min(timeout, remaining);
+            }
+        }
+        return timeout;
+    }
+
+    private static class Watch {
+
+        private final String itemName;
+        private final Path root;
+        private final LocalSource.Config config;
+
+        // 变更集（相对路径）
+        private final Set<String> changes = new LinkedHashSet<>();
+
+        // 文件过滤器，忽略文件变更后重新创建
+        private PathFilter filter;
+
+        // 防抖截止时间
+        private long deadline;
+
+        private Watch(String itemName, Path root, LocalSource.Config config) {
+            this.itemName = itemName;
+            this.root = root;
+            this.config = config;
+            this.filter = config.newPathFilter();
+        }
+
+        /**
+         * 文件过滤器是否包含
+         */
+        private boolean accept(Path path, boolean directory) {
+            if (filter.isIgnoreFile(path)) {
+                filter = config.newPathFilter();
+            }
+            try {
+                return filter.accept(root, path, directory);
+            } catch (UncheckedIOException e) {
+                log.warn("读取忽略文件异常: {}", e.getMessage());
+                return true;
+            }
+        }
+
+        /**
+         * 构建输出写入本地资源位置时，项目是否正在部署
+         */
+        private boolean isDeploying() {
+            if (BooleanUtils.isTrue(config.getUseTempWorkspace())) {
+                return false;
+            }
+            ItemDeployer itemDeployer = ItemService.getItemDeployer(itemName);
+            return Objects.nonNull(itemDeployer) && itemDeployer.isAlive() && !itemDeployer.isFinished();
+        }
+    }
+
+}
@@ -4,6 +4,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.Trigger;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
+import java.time.Instant;
 import java.util.Objects;
 import java.util.concurrent.ScheduledFuture;
 
@@ -16,6 +17,9 @@ import java.util.concurrent.ScheduledFuture;
 @Slf4j
 public class TaskScheduler {
 
+    // 线程池大小，资源监听的任务只做ls-remote，所有项目共享
+    private static final int POOL_SIZE = 4;
+
     // 线程池任务调度器
     private static ThreadPoolTaskScheduler threadPoolTaskScheduler;
 
@@ -35,6 +39,14 @@ public class TaskScheduler {
     }
 
     public static synchronized ScheduledFuture<?> schedule(Runnable task, Trigger trigger) {
+        return getThreadPoolTaskScheduler().schedule(task, trigger);
+    }
+
+    public static synchronized ScheduledFuture<?> schedule(Runnable task, Instant startTime) {
+        return getThreadPoolTaskScheduler().schedule(task, startTime);
+    }
+
+    private static ThreadPoolTaskScheduler getThreadPoolTaskScheduler() {
         if (isShutdown) {
             throw new UnsupportedOperationException("任务调度器已关闭!");
         }
@@ -42,14 +54,14 @@ public class TaskScheduler {
         if (Objects.isNull(threadPoolTaskScheduler)) {
             log.debug("初始化线程池任务调度器 ...");
             threadPoolTaskScheduler = new ThreadPoolTaskScheduler();
+            threadPoolTaskScheduler.setThreadNamePrefix("task-scheduler-");
+            // 设置线程池大小
+            threadPoolTaskScheduler.setPoolSize(POOL_SIZE);
             // 初始化
             threadPoolTaskScheduler.initialize();
-            // 设置线程池大小
-            threadPoolTaskScheduler.setPoolSize(1);
             log.debug("已初始化线程池任务调度器!");
         }
-
-        return threadPoolTaskScheduler.schedule(task, trigger);
+        return threadPoolTaskScheduler;
     }
 
     public static synchronized void shutdown() {
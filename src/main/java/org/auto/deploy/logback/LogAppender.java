@@ -8,6 +8,7 @@ import ch.qos.logback.core.status.ErrorStatus;
 import lombok.Data;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.auto.deploy.item.ItemDeployer;
 import org.auto.deploy.item.ItemService;
 
@@ -54,7 +55,8 @@ public class LogAppender<E> extends UnsynchronizedAppenderBase<E> {
             }
 
             ILoggingEvent iLoggingEvent = (ILoggingEvent) eventObject;
-            String threadName = iLoggingEvent.getThreadName();
+            // 部署到多台主机时，线程名为 {项目名}/{主机}
+            String threadName = StringUtils.substringBefore(iLoggingEvent.getThreadName(), "/");
             ItemDeployer itemDeployer = ItemService.getItemDeployer(threadName);
             if (Objects.nonNull(itemDeployer) && Objects.nonNull(itemDeployer.getLogRelativePath())) {
                 byte[] bytes = encoder.encode(eventObject);
@@ -86,6 +86,20 @@ public interface Sftp extends Closeable {
      */
     void put(InputStream src, String dst, SftpProgressMonitor monitor, FileTransferMode mode) throws Exception;
 
+    /**
+     * 分块并行上传文件
+     * <p>
+     * 将文件切分为多个区间，在同一session上打开多个sftp通道并行上传为分块文件，
+     * 然后在linux远程服务器上按顺序拼接，并校验sha256。
+     *
+     * @param src         本地源文件
+     * @param dst         linux远程服务器源文件
+     * @param monitor     Sftp传输进度监视器，汇总所有分块的传输进度
+     * @param parallelism 并行数，小于等于1或者文件较小时使用单通道上传，超过session的通道余量时按通道余量上传
+     * @throws Exception
+     */
+    void put(String src, String dst, SftpProgressMonitor monitor, int parallelism) throws Exception;
+
     /**
      * 文件下载
      *
@@ -4,15 +4,23 @@ import com.jcraft.jsch.ChannelSftp;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.SftpProgressMonitor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.lang3.StringUtils;
 import org.auto.deploy.sftp.FileEntry;
 import org.auto.deploy.sftp.FileTransferMode;
 import org.auto.deploy.sftp.Sftp;
+import org.auto.deploy.ssh.JSchChannelMultiplexer;
 import org.auto.deploy.ssh.JSchSupport;
+import org.auto.deploy.util.Assert;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.*;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 /**
@@ -22,6 +30,9 @@ import java.util.stream.Collectors;
 @Slf4j
 public class JSchSftpImpl extends JSchSupport implements Sftp {
 
+    // 分块并行上传时，每个分块的最小大小
+    private static final long MIN_CHUNK_SIZE = 8 * 1024 * 1024;
+
     private ChannelSftp channel;
 
     private JSchSftpImpl() {
@@ -78,6 +89,136 @@ public class JSchSftpImpl extends JSchSupport implements Sftp {
         channel.put(src, dst, monitor, mode.getValue());
     }
 
+    @Override
+    public void put(String src, String dst, SftpProgressMonitor monitor, int parallelism) throws Exception {
+        File file = new File(src);
+        long length = file.length();
+        // 每个分块一个sftp通道，不超过session的通道余量
+        int chunks = (int) Math.min(Math.min(parallelism, JSchChannelMultiplexer.MAX_UPLOAD_PARALLELISM), length / MIN_CHUNK_SIZE);
+        if (chunks <= 1) {
+            put(src, dst, monitor, FileTransferMode.OVERWRITE);
+            return;
+        }
+
+        // 新打开的sftp通道位于用户主目录，统一使用绝对路径
+        initChannelIfNotInitialized();
+        String absoluteDst = dst.startsWith("/") ? dst : String.format("%s/%s", channel.pwd(), dst);
+        long chunkSize = (length + chunks - 1) / chunks;
+        String[] parts = new String[chunks];
+
+        // 汇总所有分块的传输进度
+        SftpProgressMonitor chunkMonitor = new ChunkProgressMonitor(monitor);
+        if (Objects.nonNull(monitor)) {
+            monitor.init(SftpProgressMonitor.PUT, src, dst, length);
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(chunks);
+        boolean success = false;
+        try {
+            List<Future<?>> futures = new ArrayList<>(chunks);
+            for (int i = 0; i < chunks; i++) {
+                long offset = i * chunkSize;
+                long size = Math.min(chunkSize, length - offset);
+                String part = String.format("%s.part%d", absoluteDst, i);
+                parts[i] = quote(part);
+                futures.add(executorService.submit(() -> {
+                    putChunk(file, offset, size, part, chunkMonitor);
+                    return null;
+                }));
+            }
+
+            // 上传的同时计算本地文件sha256
+            String sha256 = null;
+            try (InputStream in = new FileInputStream(file)) {
+                sha256 = DigestUtils.sha256Hex(in);
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            // 拼接分块并校验sha256
+            String cmd = String.format("cat %s > %s && rm -f %s && sha256sum %s",
+                    StringUtils.join(parts, " "), quote(absoluteDst), StringUtils.join(parts, " "), quote(absoluteDst));
+            List<String> results = new ArrayList<>();
+            int exitStatus = exec(cmd, null, Duration.ofMinutes(5), results::add);
+            log.debug("<ssh> {}\n{}", cmd, StringUtils.join(results, "\n"));
+            Assert.isTrue(exitStatus == 0, String.format("拼接分块失败: %s\n%s", absoluteDst, StringUtils.join(results, "\n")));
+            String remoteSha256 = results.stream()
+                    .filter(StringUtils::isNotBlank)
+                    .reduce((first, second) -> second)
+                    .map(result -> StringUtils.substringBefore(result.trim(), " "))
+                    .orElse(null);
+            Assert.isTrue(sha256.equalsIgnoreCase(remoteSha256), String.format("sha256校验失败: %s, 本地: %s, 服务器: %s", absoluteDst, sha256, remoteSha256));
+            success = true;
+        } finally {
+            executorService.shutdownNow();
+            if (!success) {
+                try {
+                    exec(String.format("rm -f %s", StringUtils.join(Arrays.stream(parts).filter(Objects::nonNull).toArray(), " ")), null, Duration.ofMinutes(1), result -> {
+                    });
+                } catch (Exception e) {
+                    log.error("", e);
+                }
+            }
+            if (Objects.nonNull(monitor)) {
+                monitor.end();
+            }
+        }
+    }
+
+    /**
+     * 在新的sftp通道上，上传文件的一个区间
+     */
+    private void putChunk(File file, long offset, long size, String dst, SftpProgressMonitor monitor) throws Exception {
+        ChannelSftp chunkChannel = null;
+        FileInputStream fis = null;
+        try {
+            fis = new FileInputStream(file);
+            fis.getChannel().position(offset);
+            chunkChannel = openSftpChannel();
+            connectChannel(chunkChannel);
+            chunkChannel.put(new BoundedInputStream(fis, size), dst, monitor, ChannelSftp.OVERWRITE);
+        } finally {
+            IOUtils.closeQuietly(fis);
+            close(chunkChannel);
+        }
+    }
+
+    private static String quote(String path) {
+        return String.format("'%s'", path.replace("'", "'\\''"));
+    }
+
+    /**
+     * 分块传输进度监视器，将各分块的传输进度汇总到同一个 {@link SftpProgressMonitor}
+     */
+    private static class ChunkProgressMonitor implements SftpProgressMonitor {
+
+        private final SftpProgressMonitor monitor;
+
+        private ChunkProgressMonitor(SftpProgressMonitor monitor) {
+            this.monitor = monitor;
+        }
+
+        @Override
+        public void init(int op, String src, String dest, long max) {
+        }
+
+        @Override
+        public boolean count(long count) {
+            if (Objects.isNull(monitor)) {
+                return true;
+            }
+            synchronized (monitor) {
+                return monitor.count(count);
+            }
+        }
+
+        @Override
+        public void end() {
+        }
+    }
+
     @Override
     public void get(String src, OutputStream dst, SftpProgressMonitor monitor, FileTransferMode mode) throws Exception {
         initChannelIfNotInitialized();
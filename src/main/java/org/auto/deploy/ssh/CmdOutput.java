@@ -0,0 +1,111 @@
+package org.auto.deploy.ssh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * 命令输出，流式处理命令执行结果
+ * <p>
+ * 只保留最后 N 行输出（环形缓冲区），逐行匹配错误，可选地将每行输出交给下游消费者（例如打印到控制台）；
+ * 每条命令占用的内存与输出行数无关（例如 tar -xv 解压大量文件）。
+ * <p>
+ * 非线程安全。
+ *
+ * @author xiangqian
+ * @date 21:58 2022/10/15
+ */
+public class CmdOutput implements Consumer<String> {
+
+    // 默认保留的行数
+    public static final int DEFAULT_TAIL_LINES = 200;
+
+    // 最后 N 行输出
+    private final String[] tail;
+
+    private final ErrorMatcher errorMatcher;
+
+    // 下游消费者，为null时不输出
+    private final Consumer<String> downstream;
+
+    // 输出总行数
+    private long lineCount;
+
+    // 匹配到错误的行数
+    private long errorCount;
+
+    // 第一个匹配到错误的行
+    private String firstErrorLine;
+
+    public CmdOutput() {
+        this(DEFAULT_TAIL_LINES, ErrorMatcher.NONE, null);
+    }
+
+    /**
+     * @param tailLines    保留的行数
+     * @param errorMatcher 错误匹配器
+     * @param downstream   下游消费者，为null时不输出
+     */
+    public CmdOutput(int tailLines, ErrorMatcher errorMatcher, Consumer<String> downstream) {
+        this.tail = new String[Math.max(tailLines, 1)];
+        this.errorMatcher = Objects.requireNonNull(errorMatcher);
+        this.downstream = downstream;
+    }
+
+    @Override
+    public void accept(String line) {
+        tail[(int) (lineCount++ % tail.length)] = line;
+        if (Objects.nonNull(errorMatcher.match(line))) {
+            if (errorCount++ == 0) {
+                firstErrorLine = line;
+            }
+        }
+        if (Objects.nonNull(downstream)) {
+            downstream.accept(line);
+        }
+    }
+
+    /**
+     * 最后 N 行输出
+     *
+     * @return
+     */
+    public List<String> getTail() {
+        int size = (int) Math.min(lineCount, tail.length);
+        List<String> lines = new ArrayList<>(size);
+        for (long i = lineCount - size; i < lineCount; i++) {
+            lines.add(tail[(int) (i % tail.length)]);
+        }
+        return lines;
+    }
+
+    public long getLineCount() {
+        return lineCount;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    public String getFirstErrorLine() {
+        return firstErrorLine;
+    }
+
+    public boolean hasError() {
+        return errorCount > 0;
+    }
+
+    /**
+     * 输出摘要：最后 N 行输出，有省略的行时标明省略的行数
+     *
+     * @return
+     */
+    @Override
+    public String toString() {
+        long omitted = lineCount - Math.min(lineCount, tail.length);
+        String lines = String.join("\n", getTail());
+        return omitted > 0 ? String.format("...（省略 %d 行）\n%s", omitted, lines) : lines;
+    }
+
+}
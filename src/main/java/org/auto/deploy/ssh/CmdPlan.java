@@ -0,0 +1,279 @@
+package org.auto.deploy.ssh;
+
+import lombok.Data;
+import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.auto.deploy.util.Assert;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 命令执行计划
+ * <p>
+ * 有序的步骤集，可以逐步执行（每批命令一次往返），也可以编译为一个shell脚本在服务器上一次执行：
+ * 每个步骤结束时输出一行结构化结果 {标识}:{步骤序号}:{退出码}:{开始时间ns}:{结束时间ns}，
+ * 据此拆分每个步骤的输出、退出码及耗时。步骤执行失败（退出码不为0）时不再执行后续步骤，忽略错误的步骤除外。
+ *
+ * @author xiangqian
+ * @date 20:41 2022/10/16
+ */
+public class CmdPlan {
+
+    // 结果行标识
+    private final String sign;
+
+    private final Pattern signPattern;
+
+    private final List<Step> steps = new ArrayList<>();
+
+    public CmdPlan() {
+        sign = String.format("__AD_PLAN_%s", UUID.randomUUID().toString().replace("-", ""));
+        signPattern = Pattern.compile(Pattern.quote(sign) + ":(\\d+):(\\d+):(\\d+):(\\d+)");
+    }
+
+    /**
+     * 添加步骤，执行失败时不再执行后续步骤
+     *
+     * @param name    步骤名称
+     * @param cmd     命令
+     * @param timeout 执行超时时间
+     * @return
+     */
+    public CmdPlan add(String name, String cmd, Duration timeout) {
+        return add(name, cmd, timeout, null);
+    }
+
+    /**
+     * 添加步骤，执行失败时不再执行后续步骤
+     *
+     * @param name     步骤名称
+     * @param cmd      命令
+     * @param timeout  执行超时时间
+     * @param callback 步骤执行成功后的回调，参数为步骤执行结果（最后 N 行输出）
+     * @return
+     */
+    public CmdPlan add(String name, String cmd, Duration timeout, Consumer<CmdResult> callback) {
+        steps.add(new Step(name, List.of(cmd), false, false, timeout, callback));
+        return this;
+    }
+
+    /**
+     * 添加忽略错误的步骤，执行失败时继续执行后续步骤
+     *
+     * @param name    步骤名称
+     * @param cmd     命令
+     * @param timeout 执行超时时间
+     * @return
+     */
+    public CmdPlan addIgnoreError(String name, String cmd, Duration timeout) {
+        steps.add(new Step(name, List.of(cmd), true, false, timeout, null));
+        return this;
+    }
+
+    /**
+     * 添加并发执行的步骤，命令之间相互独立，任一命令执行失败时步骤执行失败
+     *
+     * @param name    步骤名称
+     * @param cmds    命令集，为空时忽略
+     * @param timeout 每条命令执行超时时间
+     * @return
+     */
+    public CmdPlan addConcurrently(String name, List<String> cmds, Duration timeout) {
+        if (CollectionUtils.isNotEmpty(cmds)) {
+            steps.add(new Step(name, List.copyOf(cmds), false, true, timeout, null));
+        }
+        return this;
+    }
+
+    public List<Step> getSteps() {
+        return steps;
+    }
+
+    public boolean isEmpty() {
+        return steps.isEmpty();
+    }
+
+    /**
+     * 整个计划的执行超时时间，即所有步骤超时时间之和
+     *
+     * @return
+     */
+    public Duration getTimeout() {
+        return steps.stream().map(Step::getTimeout).reduce(Duration.ZERO, Duration::plus);
+    }
+
+    /**
+     * 编译为shell脚本
+     * <p>
+     * 步骤在函数中执行，shell先读取整个函数再执行，执行过程中脚本文件被覆盖（例如解压）不影响执行；执行结束后删除脚本文件。
+     *
+     * @param decorator 命令修饰，例如sudo
+     * @return
+     */
+    public String toScript(UnaryOperator<String> decorator) {
+        Assert.isTrue(!steps.isEmpty(), "执行计划不能为空");
+        StringBuilder builder = new StringBuilder();
+        builder.append("#!/bin/sh").append('\n');
+        builder.append("# auto-deploy 执行计划（自动生成）").append('\n');
+        builder.append("__ad_now() {").append('\n');
+        builder.append("    __ad_t=$(date +%s%N 2>/dev/null)").append('\n');
+        builder.append("    case \"$__ad_t\" in ''|*[!0-9]*) __ad_t=$(($(date +%s) * 1000000000)) ;; esac").append('\n');
+        builder.append("    echo \"$__ad_t\"").append('\n');
+        builder.append("}").append('\n');
+        builder.append("__ad_main() {").append('\n');
+        for (int i = 0; i < steps.size(); i++) {
+            Step step = steps.get(i);
+            builder.append(String.format("    # [%d] %s", i, step.getName())).append('\n');
+            builder.append("    __ad_b=$(__ad_now)").append('\n');
+            if (step.isConcurrent()) {
+                builder.append("    __ad_rc=0").append('\n');
+                for (int j = 0; j < step.getCmds().size(); j++) {
+                    builder.append(String.format("    ( %s ) &", decorator.apply(step.getCmds().get(j)))).append('\n');
+                    builder.append(String.format("    __ad_p%d=$!", j)).append('\n');
+                }
+                for (int j = 0; j < step.getCmds().size(); j++) {
+                    builder.append(String.format("    wait \"$__ad_p%d\" || { __ad_r=$?; [ \"$__ad_rc\" != 0 ] || __ad_rc=$__ad_r; }", j)).append('\n');
+                }
+            } else {
+                builder.append("    ").append(decorator.apply(step.getCmd())).append('\n');
+                builder.append("    __ad_rc=$?").append('\n');
+            }
+            builder.append(String.format("    printf '%%s:%%d:%%d:%%s:%%s\\n' '%s' %d \"$__ad_rc\" \"$__ad_b\" \"$(__ad_now)\"", sign, i)).append('\n');
+            if (!step.isIgnoreError()) {
+                builder.append("    [ \"$__ad_rc\" = 0 ] || return \"$__ad_rc\"").append('\n');
+            }
+        }
+        builder.append("    return 0").append('\n');
+        builder.append("}").append('\n');
+        builder.append("__ad_main").append('\n');
+        builder.append("__ad_rc=$?").append('\n');
+        builder.append("rm -f \"$0\"").append('\n');
+        builder.append("exit \"$__ad_rc\"").append('\n');
+        return builder.toString();
+    }
+
+    /**
+     * 执行脚本输出的读取者，按结果行拆分每个步骤的执行结果
+     *
+     * @param outputs 每个步骤的输出
+     * @return
+     */
+    public Reader newReader(Supplier<CmdOutput> outputs) {
+        return new Reader(outputs);
+    }
+
+    /**
+     * 步骤
+     */
+    @Data
+    public static class Step {
+        // 步骤名称
+        private final String name;
+        // 命令集，并发执行的步骤有多条命令
+        private final List<String> cmds;
+        // 是否忽略错误
+        private final boolean ignoreError;
+        // 是否并发执行
+        private final boolean concurrent;
+        // 执行超时时间
+        private final Duration timeout;
+        // 执行成功后的回调
+        private final Consumer<CmdResult> callback;
+
+        public String getCmd() {
+            return StringUtils.join(cmds, " & ");
+        }
+    }
+
+    /**
+     * 执行脚本输出的读取者
+     * <p>
+     * 非线程安全。
+     */
+    public class Reader implements Consumer<String> {
+
+        private final Supplier<CmdOutput> outputs;
+
+        // 已结束步骤的执行结果
+        private final List<CmdResult> results = new ArrayList<>();
+
+        // 已结束步骤的输出
+        private final List<CmdOutput> stepOutputs = new ArrayList<>();
+
+        // 当前步骤的输出
+        private CmdOutput output;
+
+        private Reader(Supplier<CmdOutput> outputs) {
+            this.outputs = outputs;
+        }
+
+        @Override
+        public void accept(String line) {
+            Matcher matcher = signPattern.matcher(line);
+            if (!matcher.find()) {
+                getOutput().accept(line);
+                return;
+            }
+
+            // 步骤输出没有以换行结尾时，结果行前面为步骤输出
+            String prefix = line.substring(0, matcher.start());
+            if (StringUtils.isNotBlank(prefix)) {
+                getOutput().accept(prefix);
+            }
+
+            int index = Integer.parseInt(matcher.group(1));
+            if (index != results.size() || index >= steps.size()) {
+                return;
+            }
+            long time = (Long.parseLong(matcher.group(4)) - Long.parseLong(matcher.group(3))) / 1_000_000;
+            CmdOutput output = getOutput();
+            results.add(new CmdResult(steps.get(index).getCmd(), Integer.parseInt(matcher.group(2)), output.getTail(), time));
+            stepOutputs.add(output);
+            this.output = null;
+        }
+
+        private CmdOutput getOutput() {
+            if (Objects.isNull(output)) {
+                output = outputs.get();
+            }
+            return output;
+        }
+
+        /**
+         * 已结束步骤的执行结果，与步骤顺序一致
+         *
+         * @return
+         */
+        public List<CmdResult> getResults() {
+            return results;
+        }
+
+        /**
+         * 已结束步骤的输出，与步骤顺序一致
+         *
+         * @return
+         */
+        public List<CmdOutput> getOutputs() {
+            return stepOutputs;
+        }
+
+        /**
+         * 未结束步骤的输出（例如执行失败的启动命令、超时的步骤），没有时返回null
+         *
+         * @return
+         */
+        public CmdOutput getPendingOutput() {
+            return output;
+        }
+    }
+
+}
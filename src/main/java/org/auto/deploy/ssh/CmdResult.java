@@ -0,0 +1,67 @@
+package org.auto.deploy.ssh;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 命令执行结果
+ *
+ * @author xiangqian
+ * @date 20:16 2022/10/14
+ */
+@Data
+public class CmdResult {
+
+    /**
+     * 命令
+     */
+    private final String cmd;
+
+    /**
+     * 退出码，为null时表示命令在超时时间内未结束
+     */
+    private final Integer exitStatus;
+
+    /**
+     * 命令输出（只保留最后 N 行，结果已交给消费者时为空）
+     */
+    private final List<String> results;
+
+    /**
+     * 耗时，单位ms
+     */
+    private final long time;
+
+    public CmdResult(String cmd, Integer exitStatus, long time) {
+        this(cmd, exitStatus, new ArrayList<>(), time);
+    }
+
+    public CmdResult(String cmd, Integer exitStatus, List<String> results, long time) {
+        this.cmd = cmd;
+        this.exitStatus = exitStatus;
+        this.results = results;
+        this.time = time;
+    }
+
+    /**
+     * 命令是否执行成功（退出码为0）
+     *
+     * @return
+     */
+    public boolean isSuccess() {
+        return Objects.nonNull(exitStatus) && exitStatus == 0;
+    }
+
+    /**
+     * 命令是否超时
+     *
+     * @return
+     */
+    public boolean isTimeout() {
+        return Objects.isNull(exitStatus);
+    }
+
+}
@@ -0,0 +1,61 @@
+package org.auto.deploy.ssh;
+
+import org.apache.commons.collections4.CollectionUtils;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * 命令输出错误匹配器
+ * <p>
+ * 将多个错误模式（正则表达式）预编译为一个模式，每行输出只需要匹配一次，与错误模式数量无关。
+ * <p>
+ * 线程安全。
+ *
+ * @author xiangqian
+ * @date 21:46 2022/10/15
+ */
+public class ErrorMatcher {
+
+    // 不匹配任何输出
+    public static final ErrorMatcher NONE = new ErrorMatcher(null);
+
+    private final Pattern pattern;
+
+    private ErrorMatcher(Pattern pattern) {
+        this.pattern = pattern;
+    }
+
+    /**
+     * 编译错误模式集
+     *
+     * @param patterns 错误模式集（正则表达式），为空时不匹配任何输出
+     * @return
+     */
+    public static ErrorMatcher compile(Collection<String> patterns) {
+        if (CollectionUtils.isEmpty(patterns)) {
+            return NONE;
+        }
+        return new ErrorMatcher(Pattern.compile(patterns.stream()
+                .map(pattern -> String.format("(?:%s)", pattern))
+                .collect(Collectors.joining("|"))));
+    }
+
+    /**
+     * 匹配一行输出
+     *
+     * @param line
+     * @return 匹配到的错误，未匹配时返回null
+     */
+    public String match(String line) {
+        if (Objects.isNull(pattern)) {
+            return null;
+        }
+        Matcher matcher = pattern.matcher(line);
+        return matcher.find() ? matcher.group() : null;
+    }
+
+}
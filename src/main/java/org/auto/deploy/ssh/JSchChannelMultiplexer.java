@@ -0,0 +1,160 @@
+package org.auto.deploy.ssh;
+
+import com.jcraft.jsch.JSchException;
+import lombok.extern.slf4j.Slf4j;
+import org.auto.deploy.sftp.impl.JSchSftpImpl;
+import org.auto.deploy.ssh.impl.JSchExecChannelSshImpl;
+import org.auto.deploy.ssh.impl.JSchShellChannelSshImpl;
+import org.auto.deploy.util.Assert;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * 通道复用器：在同一个session上按需打开shell、exec、sftp通道，只需一次连接（认证）
+ * <p>
+ * 打开的shell、exec、sftp关闭时只关闭各自的通道，session由复用器（或 {@link SessionPool}）管理。
+ *
+ * @author xiangqian
+ * @date 22:18 2022/10/14
+ */
+@Slf4j
+public class JSchChannelMultiplexer extends JSchSupport {
+
+    /**
+     * 默认并发通道数
+     * <p>
+     * sshd默认每个连接最多10个会话通道（OpenSSH MaxSessions），需要为shell、sftp通道保留余量
+     */
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    /**
+     * sshd默认每个连接最多的会话通道数（OpenSSH MaxSessions）
+     */
+    public static final int MAX_SESSIONS = 10;
+
+    /**
+     * 分块并行上传的最大通道数
+     * <p>
+     * 同一session上已有shell、sftp、exec通道，并发执行命令时还有 {@link #DEFAULT_PARALLELISM} 个exec通道
+     */
+    public static final int MAX_UPLOAD_PARALLELISM = MAX_SESSIONS - 3 - DEFAULT_PARALLELISM;
+
+    private JSchChannelMultiplexer() {
+    }
+
+    /**
+     * 在session上打开shell
+     *
+     * @return
+     * @throws JSchException
+     */
+    public JSchShellChannelSshImpl shell() throws JSchException {
+        return JSchShellChannelSshImpl.builder()
+                .connectionProperties(connectionProperties)
+                .session(session)
+                .channelConnectTimeout(channelConnectTimeout)
+                .build();
+    }
+
+    /**
+     * 在session上打开exec，每条命令一个通道
+     *
+     * @return
+     * @throws JSchException
+     */
+    public JSchExecChannelSshImpl exec() throws JSchException {
+        return JSchExecChannelSshImpl.builder()
+                .connectionProperties(connectionProperties)
+                .session(session)
+                .channelConnectTimeout(channelConnectTimeout)
+                .build();
+    }
+
+    /**
+     * 在session上打开sftp
+     *
+     * @return
+     * @throws JSchException
+     */
+    public JSchSftpImpl sftp() throws JSchException {
+        return JSchSftpImpl.builder()
+                .connectionProperties(connectionProperties)
+                .session(session)
+                .channelConnectTimeout(channelConnectTimeout)
+                .build();
+    }
+
+    /**
+     * 并发执行相互独立的命令，每条命令使用一个exec通道
+     *
+     * @param cmds        命令集
+     * @param parallelism 并发通道数
+     * @param timeout     每条命令执行超时时间
+     * @return 每条命令的执行结果（与命令集顺序一致），超时的命令退出码为null
+     * @throws Exception
+     */
+    public List<CmdResult> executeConcurrently(List<String> cmds, int parallelism, Duration timeout) throws Exception {
+        return executeConcurrently(cmds, parallelism, timeout, CmdOutput::new);
+    }
+
+    /**
+     * 并发执行相互独立的命令，每条命令使用一个exec通道
+     *
+     * @param cmds        命令集
+     * @param parallelism 并发通道数
+     * @param timeout     每条命令执行超时时间
+     * @param outputs     每条命令的输出，按命令顺序获取，{@link CmdResult#getResults()} 为其最后 N 行
+     * @return 每条命令的执行结果（与命令集顺序一致），超时的命令退出码为null
+     * @throws Exception
+     */
+    public List<CmdResult> executeConcurrently(List<String> cmds, int parallelism, Duration timeout, Supplier<CmdOutput> outputs) throws Exception {
+        Assert.isTrue(parallelism > 0, "并发通道数必须大于0");
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.max(Math.min(parallelism, cmds.size()), 1));
+        try {
+            List<Future<CmdResult>> futures = new ArrayList<>(cmds.size());
+            for (String cmd : cmds) {
+                CmdOutput output = outputs.get();
+                futures.add(executorService.submit(() -> {
+                    long beginTime = System.currentTimeMillis();
+                    Integer exitStatus = null;
+                    try {
+                        exitStatus = exec(cmd, null, timeout, output);
+                    } catch (TimeoutException e) {
+                        log.debug("{}", e.getMessage());
+                    }
+                    return new CmdResult(cmd, exitStatus, output.getTail(), System.currentTimeMillis() - beginTime);
+                }));
+            }
+
+            List<CmdResult> cmdResults = new ArrayList<>(cmds.size());
+            for (Future<CmdResult> future : futures) {
+                cmdResults.add(future.get());
+            }
+            return cmdResults;
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder extends JSchSupport.Builder<Builder, JSchChannelMultiplexer> {
+        private Builder() {
+        }
+
+        @Override
+        protected JSchChannelMultiplexer get() {
+            return new JSchChannelMultiplexer();
+        }
+    }
+
+}
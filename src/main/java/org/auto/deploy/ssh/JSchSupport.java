@@ -3,6 +3,7 @@ package org.auto.deploy.ssh;
 import com.jcraft.jsch.*;
 import lombok.Getter;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.function.IOConsumer;
 import org.auto.deploy.util.Assert;
 
 import java.io.*;
@@ -11,6 +12,11 @@ import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 /**
@@ -27,6 +33,9 @@ public abstract class JSchSupport implements Closeable {
     protected Duration channelConnectTimeout;
     protected Session session;
 
+    // 共享的session（例如从 {@link SessionPool} 租用），关闭时只关闭通道，不断开session
+    private boolean sharedSession;
+
     protected void init(ConnectionProperties connectionProperties,
                         Duration sessionConnectTimeout,
                         Duration channelConnectTimeout) throws JSchException {
@@ -34,6 +43,13 @@ public abstract class JSchSupport implements Closeable {
         this.sessionConnectTimeout = sessionConnectTimeout;
         this.channelConnectTimeout = channelConnectTimeout;
 
+        // 在共享的session上打开通道
+        if (Objects.nonNull(session)) {
+            Assert.isTrue(session.isConnected(), "session未连接");
+            sharedSession = true;
+            return;
+        }
+
         JSch jSch = new JSch();
         // host & port
         // username & password
@@ -89,6 +105,91 @@ public abstract class JSchSupport implements Closeable {
         Assert.isTrue(channel.isConnected(), "channel连接失败");
     }
 
+    /**
+     * 通过 {@link ChannelExec} 执行命令，并将数据流式写入命令的标准输入
+     * <p>
+     * 写入与服务器端消费同时进行，写入完成后关闭标准输入（EOF）；
+     * 命令执行结果（标准输出、标准错误输出）到达时即按行交给消费者，命令结束时立即返回退出码，超时时间只作为上限。
+     *
+     * @param cmd      命令
+     * @param stdin    标准输入写入者，为null时直接关闭标准输入
+     * @param timeout  标准输入写入完成后，等待命令结束的超时时间
+     * @param consumer 命令执行结果（标准输出、标准错误输出）消费者
+     * @return 命令退出码
+     * @throws TimeoutException 命令执行超时
+     * @throws Exception
+     */
+    protected int exec(String cmd, IOConsumer<OutputStream> stdin, Duration timeout, Consumer<String> consumer) throws Exception {
+        Assert.notNull(cmd, "命令不能为null");
+        ChannelExec channel = null;
+        OutputStream os = null;
+        // 由session线程解码为行后放入队列，当前线程消费，避免消费者阻塞session线程
+        LineQueue lineQueue = new LineQueue();
+        try {
+            // 打开一个执行通道
+            channel = openExecChannel();
+
+            // 设置命令
+            channel.setCommand(cmd);
+
+            // 标准输出、标准错误输出，标准输出在EOF时关闭
+            channel.setOutputStream(lineQueue.stdout, false);
+            channel.setErrStream(lineQueue.stderr, true);
+
+            // 获取标准输入
+            os = channel.getOutputStream();
+
+            // 连接并执行命令
+            connectChannel(channel);
+
+            // 写入标准输入
+            IOException writeException = null;
+            try {
+                if (Objects.nonNull(stdin)) {
+                    stdin.accept(os);
+                }
+                os.close();
+            } catch (IOException e) {
+                // 服务器端命令提前结束（例如磁盘已满），以退出码为准
+                writeException = e;
+            }
+
+            // 读取命令执行结果，直到命令结束或者超时
+            long deadline = System.nanoTime() + timeout.toNanos();
+            boolean eof = false;
+            String line = null;
+            while (!channel.isClosed()) {
+                if (System.nanoTime() >= deadline) {
+                    throw new TimeoutException(String.format("命令执行超时: %s", cmd));
+                }
+                // EOF后退出码随即到达
+                line = lineQueue.queue.poll(eof ? 1 : 100, TimeUnit.MILLISECONDS);
+                if (line == LineQueue.EOF) {
+                    eof = true;
+                } else if (Objects.nonNull(line)) {
+                    consumer.accept(line);
+                }
+            }
+
+            // 剩余的命令执行结果
+            lineQueue.stderr.close();
+            while (Objects.nonNull(line = lineQueue.queue.poll())) {
+                if (line != LineQueue.EOF) {
+                    consumer.accept(line);
+                }
+            }
+
+            int exitStatus = channel.getExitStatus();
+            if (Objects.nonNull(writeException) && exitStatus == 0) {
+                throw writeException;
+            }
+            return exitStatus;
+        } finally {
+            IOUtils.closeQuietly(os);
+            close(channel);
+        }
+    }
+
     public static List<String> inputStreamToStrList(InputStream is, Function<String, String> function) throws IOException {
         byte[] buffer = is.readAllBytes();
         return byteArrayToStrList(buffer, 0, buffer.length, function);
@@ -121,6 +222,50 @@ public abstract class JSchSupport implements Closeable {
         }
     }
 
+    /**
+     * 命令执行结果行队列：标准输出、标准错误输出分别增量解码为行，放入同一个队列
+     */
+    private static class LineQueue {
+        // 标准输出结束标识
+        private static final String EOF = new String();
+
+        private final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        private final LineOutputStream stdout = new LineOutputStream(true);
+        private final LineOutputStream stderr = new LineOutputStream(false);
+
+        private class LineOutputStream extends OutputStream {
+            private final LineDecoder decoder = new LineDecoder();
+            private final boolean eof;
+            private boolean closed;
+
+            private LineOutputStream(boolean eof) {
+                this.eof = eof;
+            }
+
+            @Override
+            public void write(int b) {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                decoder.decode(b, off, len, queue::add);
+            }
+
+            @Override
+            public synchronized void close() {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                decoder.flush(queue::add);
+                if (eof) {
+                    queue.add(EOF);
+                }
+            }
+        }
+    }
+
     public static void close(Channel channel) {
         if (Objects.nonNull(channel)) {
             channel.disconnect();
@@ -130,7 +275,9 @@ public abstract class JSchSupport implements Closeable {
     @Override
     public void close() throws IOException {
         if (Objects.nonNull(session)) {
-            session.disconnect();
+            if (!sharedSession) {
+                session.disconnect();
+            }
             session = null;
         }
     }
@@ -140,6 +287,7 @@ public abstract class JSchSupport implements Closeable {
         protected ConnectionProperties connectionProperties;
         protected Duration sessionConnectTimeout;
         protected Duration channelConnectTimeout;
+        protected Session session;
 
         public B connectionProperties(ConnectionProperties connectionProperties) {
             this.connectionProperties = connectionProperties;
@@ -156,13 +304,25 @@ public abstract class JSchSupport implements Closeable {
             return (B) this;
         }
 
+        /**
+         * 使用已连接的session（例如从 {@link SessionPool} 租用），关闭时不断开session
+         *
+         * @param session
+         * @return
+         */
+        public B session(Session session) {
+            this.session = session;
+            return (B) this;
+        }
+
         protected abstract J get();
 
         public J build() throws JSchException {
             Assert.notNull(connectionProperties, "连接配置信息不能为空");
-            Assert.notNull(sessionConnectTimeout, "session连接超时时间不能为空");
+            Assert.isTrue(Objects.nonNull(session) || Objects.nonNull(sessionConnectTimeout), "session连接超时时间不能为空");
             Assert.notNull(channelConnectTimeout, "channel连接超时时间不能为空");
             J j = get();
+            j.session = session;
             j.init(connectionProperties, sessionConnectTimeout, channelConnectTimeout);
             return j;
         }
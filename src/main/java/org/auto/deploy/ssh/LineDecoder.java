@@ -0,0 +1,118 @@
+package org.auto.deploy.ssh;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * 增量UTF-8行解码器
+ * <p>
+ * 按读取到的字节块增量解码，跨块的多字节字符、跨块的行都能正确拼接；
+ * 遇到 '\n' 时输出一行（去除行尾 '\r'），未结束的行可以通过 {@link #pending()} 获取（例如没有换行的shell提示符）。
+ * <p>
+ * 非线程安全。
+ *
+ * @author xiangqian
+ * @date 21:32 2022/10/13
+ */
+public class LineDecoder {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    // 未解码的字节（可能包含不完整的多字节字符）
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+
+    // 未结束的行
+    private final StringBuilder line = new StringBuilder();
+
+    /**
+     * 解码字节块
+     *
+     * @param buffer
+     * @param offset
+     * @param length
+     * @param consumer 完整行消费者
+     */
+    public void decode(byte[] buffer, int offset, int length, Consumer<String> consumer) {
+        int end = offset + length;
+        while (offset < end) {
+            int len = Math.min(bytes.remaining(), end - offset);
+            bytes.put(buffer, offset, len);
+            offset += len;
+
+            bytes.flip();
+            while (true) {
+                boolean overflow = decoder.decode(bytes, chars, false).isOverflow();
+                chars.flip();
+                while (chars.hasRemaining()) {
+                    char c = chars.get();
+                    if (c == '\n') {
+                        consumer.accept(takeLine());
+                    } else {
+                        line.append(c);
+                    }
+                }
+                chars.clear();
+                if (!overflow) {
+                    break;
+                }
+            }
+            bytes.compact();
+        }
+    }
+
+    /**
+     * 未结束的行
+     *
+     * @return
+     */
+    public String pending() {
+        return line.toString();
+    }
+
+    /**
+     * 丢弃未结束的行
+     */
+    public void clearPending() {
+        line.setLength(0);
+    }
+
+    /**
+     * 输入结束，输出剩余的行
+     *
+     * @param consumer
+     */
+    public void flush(Consumer<String> consumer) {
+        bytes.flip();
+        decoder.decode(bytes, chars, true);
+        decoder.flush(chars);
+        chars.flip();
+        line.append(chars);
+        chars.clear();
+        bytes.clear();
+        decoder.reset();
+        if (line.length() > 0) {
+            consumer.accept(takeLine());
+        }
+    }
+
+    private String takeLine() {
+        int length = line.length();
+        if (length > 0 && line.charAt(length - 1) == '\r') {
+            line.setLength(length - 1);
+        }
+        String result = line.toString();
+        line.setLength(0);
+        return result;
+    }
+
+}
@@ -0,0 +1,270 @@
+package org.auto.deploy.ssh;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.auto.deploy.util.Assert;
+
+import java.time.Duration;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ssh session池，按 username@host:port 复用session
+ * <p>
+ * 每次部署从池中租用一个session，在其上打开shell、sftp、exec通道，部署结束后归还；
+ * 空闲session通过keepalive保持连接，租用时检查是否可用，空闲超时后关闭；每台主机的session数有上限。
+ *
+ * @author xiangqian
+ * @date 21:05 2022/10/14
+ */
+@Slf4j
+public class SessionPool {
+
+    // 每台主机最大session数（包括租用中和空闲的）
+    private static final int MAX_SESSIONS_PER_HOST = 8;
+
+    // 等待可用session的最长时间
+    private static final Duration LEASE_TIMEOUT = Duration.ofMinutes(10);
+
+    // 空闲超时
+    private static final Duration IDLE_TIMEOUT = Duration.ofMinutes(5);
+
+    // keepalive间隔，连续 KEEPALIVE_COUNT_MAX 次无响应时断开
+    private static final Duration KEEPALIVE_INTERVAL = Duration.ofSeconds(30);
+    private static final int KEEPALIVE_COUNT_MAX = 3;
+
+    // 空闲检查间隔
+    private static final Duration EVICT_INTERVAL = Duration.ofSeconds(30);
+
+    private static final Map<String, HostPool> hostPools = new ConcurrentHashMap<>();
+
+    // 租用中的session
+    private static final Map<Session, PooledSession> leasedSessions = new ConcurrentHashMap<>();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+
+    private static ScheduledExecutorService evictor;
+
+    private static volatile boolean isShutdown = false;
+
+    /**
+     * 租用session，优先复用可用的空闲session，没有时新建连接；主机session数达到上限时等待归还
+     *
+     * @param connectionProperties  连接配置信息
+     * @param sessionConnectTimeout session连接超时
+     * @return
+     * @throws Exception
+     */
+    public static Session lease(ConnectionProperties connectionProperties, Duration sessionConnectTimeout) throws Exception {
+        Assert.isTrue(!isShutdown, "session池已关闭!");
+        startEvictor();
+
+        String key = String.format("%s@%s:%d", connectionProperties.getUsername(), connectionProperties.getHost(), connectionProperties.getPort());
+        HostPool hostPool = hostPools.computeIfAbsent(key, k -> new HostPool());
+        Assert.isTrue(hostPool.permits.tryAcquire(LEASE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS), String.format("等待 %s 可用session超时", key));
+        try {
+            // 复用空闲session（后进先出，最近使用的连接最可能可用）
+            PooledSession pooledSession = null;
+            while (Objects.nonNull(pooledSession = hostPool.idleSessions.pollFirst())) {
+                if (Objects.equals(pooledSession.password, connectionProperties.getPassword()) && isHealthy(pooledSession.session)) {
+                    hits.incrementAndGet();
+                    leasedSessions.put(pooledSession.session, pooledSession);
+                    log.debug("复用session: {}, {}", key, getStats());
+                    return pooledSession.session;
+                }
+                evict(pooledSession);
+            }
+
+            // 新建session
+            misses.incrementAndGet();
+            Session session = connect(connectionProperties, sessionConnectTimeout);
+            leasedSessions.put(session, new PooledSession(hostPool, session, connectionProperties.getPassword()));
+            log.debug("新建session: {}, {}", key, getStats());
+            return session;
+        } catch (Exception e) {
+            hostPool.permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 归还session，连接已断开的session直接丢弃
+     *
+     * @param session
+     */
+    public static void release(Session session) {
+        if (Objects.isNull(session)) {
+            return;
+        }
+
+        PooledSession pooledSession = leasedSessions.remove(session);
+        if (Objects.isNull(pooledSession)) {
+            session.disconnect();
+            return;
+        }
+
+        HostPool hostPool = pooledSession.hostPool;
+        if (!isShutdown && session.isConnected()) {
+            pooledSession.releaseTime = System.currentTimeMillis();
+            hostPool.idleSessions.offerFirst(pooledSession);
+        } else {
+            session.disconnect();
+        }
+        hostPool.permits.release();
+    }
+
+    public static Stats getStats() {
+        Stats stats = new Stats();
+        stats.setHits(hits.get());
+        stats.setMisses(misses.get());
+        stats.setEvictions(evictions.get());
+        stats.setLeased(leasedSessions.size());
+        stats.setIdle(hostPools.values().stream().mapToInt(hostPool -> hostPool.idleSessions.size()).sum());
+        return stats;
+    }
+
+    public static synchronized void shutdown() {
+        isShutdown = true;
+        if (Objects.nonNull(evictor)) {
+            evictor.shutdownNow();
+            evictor = null;
+        }
+        for (HostPool hostPool : hostPools.values()) {
+            PooledSession pooledSession = null;
+            while (Objects.nonNull(pooledSession = hostPool.idleSessions.pollFirst())) {
+                pooledSession.session.disconnect();
+            }
+        }
+        log.debug("session池已关闭: {}", getStats());
+    }
+
+    private static Session connect(ConnectionProperties connectionProperties, Duration sessionConnectTimeout) throws JSchException {
+        JSch jSch = new JSch();
+        // host & port
+        // username & password
+        Session session = jSch.getSession(connectionProperties.getUsername(), connectionProperties.getHost(), connectionProperties.getPort());
+        session.setPassword(connectionProperties.getPassword());
+        // 跳过公钥检测
+        session.setConfig("StrictHostKeyChecking", "no");
+        // keepalive
+        session.setServerAliveInterval((int) KEEPALIVE_INTERVAL.toMillis());
+        session.setServerAliveCountMax(KEEPALIVE_COUNT_MAX);
+
+        // connect
+        session.connect((int) sessionConnectTimeout.toMillis());
+        Assert.isTrue(session.isConnected(), "session连接失败");
+        return session;
+    }
+
+    /**
+     * 健康检查：连接未断开，并且能发送keepalive
+     *
+     * @param session
+     * @return
+     */
+    private static boolean isHealthy(Session session) {
+        if (!session.isConnected()) {
+            return false;
+        }
+        try {
+            session.sendKeepAliveMsg();
+            return true;
+        } catch (Exception e) {
+            log.debug("session不可用: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private static void evict(PooledSession pooledSession) {
+        pooledSession.session.disconnect();
+        evictions.incrementAndGet();
+    }
+
+    private static synchronized void startEvictor() {
+        if (Objects.nonNull(evictor)) {
+            return;
+        }
+
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "ssh-session-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(SessionPool::evictIdleSessions, EVICT_INTERVAL.toMillis(), EVICT_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+        evictor = executor;
+    }
+
+    /**
+     * 关闭空闲超时或者连接已断开的session
+     */
+    private static void evictIdleSessions() {
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for (HostPool hostPool : hostPools.values()) {
+            Iterator<PooledSession> iterator = hostPool.idleSessions.iterator();
+            while (iterator.hasNext()) {
+                PooledSession pooledSession = iterator.next();
+                if ((now - pooledSession.releaseTime >= IDLE_TIMEOUT.toMillis() || !pooledSession.session.isConnected())
+                        && hostPool.idleSessions.remove(pooledSession)) {
+                    evict(pooledSession);
+                    count++;
+                }
+            }
+        }
+        if (count > 0) {
+            log.debug("已关闭 {} 个空闲session: {}", count, getStats());
+        }
+    }
+
+    /**
+     * session池统计
+     */
+    @Data
+    public static class Stats {
+        // 复用次数
+        private long hits;
+        // 新建次数
+        private long misses;
+        // 关闭的空闲（或不可用）session数
+        private long evictions;
+        // 租用中的session数
+        private int leased;
+        // 空闲session数
+        private int idle;
+    }
+
+    private static class HostPool {
+        private final Semaphore permits = new Semaphore(MAX_SESSIONS_PER_HOST);
+        private final Deque<PooledSession> idleSessions = new LinkedBlockingDeque<>();
+    }
+
+    private static class PooledSession {
+        private final HostPool hostPool;
+        private final Session session;
+        // 建立连接使用的密码，密码变更后不再复用
+        private final String password;
+        // 归还时间
+        private volatile long releaseTime;
+
+        private PooledSession(HostPool hostPool, Session session, String password) {
+            this.hostPool = hostPool;
+            this.session = session;
+            this.password = password;
+        }
+    }
+
+}
@@ -5,6 +5,7 @@ import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * ssh
@@ -22,22 +23,64 @@ public interface Ssh extends Closeable {
      * @param cmd      命令
      * @param timeout  执行命令超时时间
      * @param consumer 命令执行结果消费者
+     * @return 命令执行结果（退出码），命令输出已交给消费者
      * @throws Exception
      */
-    void execute(String cmd, Duration timeout, Consumer<String> consumer) throws Exception;
+    CmdResult execute(String cmd, Duration timeout, Consumer<String> consumer) throws Exception;
 
-    default void execute(String cmd, Consumer<String> consumer) throws Exception {
-        execute(cmd, DEFAULT_TIMEOUT, consumer);
+    default CmdResult execute(String cmd, Consumer<String> consumer) throws Exception {
+        return execute(cmd, DEFAULT_TIMEOUT, consumer);
     }
 
     default List<String> execute(String cmd, Duration timeout) throws Exception {
-        List<String> results = new ArrayList<>();
-        execute(cmd, timeout, results::add);
-        return results;
+        return executeForResult(cmd, timeout).getResults();
     }
 
     default List<String> execute(String cmd) throws Exception {
         return execute(cmd, DEFAULT_TIMEOUT);
     }
 
+    /**
+     * 执行命令，返回退出码及命令输出（最后 {@link CmdOutput#DEFAULT_TAIL_LINES} 行）
+     *
+     * @param cmd     命令
+     * @param timeout 执行命令超时时间
+     * @return
+     * @throws Exception
+     */
+    default CmdResult executeForResult(String cmd, Duration timeout) throws Exception {
+        CmdOutput output = new CmdOutput();
+        CmdResult result = execute(cmd, timeout, output);
+        return new CmdResult(cmd, result.getExitStatus(), output.getTail(), result.getTime());
+    }
+
+    default List<CmdResult> executeBatch(List<String> cmds, boolean continueOnError, Duration timeout) throws Exception {
+        return executeBatch(cmds, continueOnError, timeout, CmdOutput::new);
+    }
+
+    /**
+     * 批量执行命令，按顺序执行并返回每条命令的执行结果
+     *
+     * @param cmds            命令集
+     * @param continueOnError 命令执行失败（退出码不为0）时是否继续执行后续命令，为false时返回的结果不包含未执行的命令；超时后不再执行后续命令
+     * @param timeout         批量执行命令超时时间
+     * @param outputs         每条命令的输出，按命令顺序获取，{@link CmdResult#getResults()} 为其最后 N 行
+     * @return
+     * @throws Exception
+     */
+    default List<CmdResult> executeBatch(List<String> cmds, boolean continueOnError, Duration timeout, Supplier<CmdOutput> outputs) throws Exception {
+        List<CmdResult> results = new ArrayList<>(cmds.size());
+        long deadline = System.nanoTime() + timeout.toNanos();
+        for (String cmd : cmds) {
+            CmdOutput output = outputs.get();
+            CmdResult result = execute(cmd, Duration.ofNanos(Math.max(deadline - System.nanoTime(), 0)), output);
+            result = new CmdResult(cmd, result.getExitStatus(), output.getTail(), result.getTime());
+            results.add(result);
+            if (result.isTimeout() || (!continueOnError && !result.isSuccess())) {
+                break;
+            }
+        }
+        return results;
+    }
+
 }
@@ -2,23 +2,18 @@ package org.auto.deploy.ssh.impl;
 
 import com.jcraft.jsch.ChannelExec;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.io.IOUtils;
-import org.auto.deploy.util.Assert;
+import org.apache.commons.io.function.IOConsumer;
+import org.auto.deploy.ssh.CmdResult;
 import org.auto.deploy.ssh.JSchSupport;
 import org.auto.deploy.ssh.Ssh;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
+import java.io.OutputStream;
 import java.time.Duration;
-import java.util.Objects;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 
 /**
- * {@link ChannelExec}，一次只能执行一条命令
+ * {@link ChannelExec}，每条命令使用一个通道，命令之间不共享状态（例如当前目录）
  *
  * @author xiangqian
  * @date 13:11 2022/07/23
@@ -29,39 +24,35 @@ public class JSchExecChannelSshImpl extends JSchSupport implements Ssh {
     private JSchExecChannelSshImpl() {
     }
 
+    /**
+     * 执行命令，命令执行结果到达时即交给消费者，命令结束时立即返回，超时时间只作为上限
+     */
     @Override
-    public void execute(String cmd, Duration timeout, Consumer<String> consumer) throws Exception {
-        Assert.notNull(cmd, "命令不能为null");
-        ChannelExec channel = null;
-        InputStream is = null;
-        BufferedReader reader = null;
+    public CmdResult execute(String cmd, Duration timeout, Consumer<String> consumer) throws Exception {
+        long beginTime = System.currentTimeMillis();
+        Integer exitStatus = null;
         try {
-            // 打开一个执行通道
-            channel = openExecChannel();
-
-            // 获取输入流
-            is = channel.getInputStream();
-
-            // 设置命令
-            channel.setCommand(cmd);
-
-            // 连接并执行命令
-            connectChannel(channel);
-
-            // 线程阻塞等待，给时间让服务器端将结果输出到客户端
-            TimeUnit.MILLISECONDS.sleep(timeout.toMillis());
-
-            // 读取命令执行结果
-            byte[] buffer = is.readAllBytes();
-            reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(buffer, 0, buffer.length), StandardCharsets.UTF_8));
-            String line = null;
-            while (Objects.nonNull(line = reader.readLine())) {
-                consumer.accept(line);
-            }
-        } finally {
-            IOUtils.closeQuietly(reader, is);
-            close(channel);
+            exitStatus = exec(cmd, null, timeout, consumer);
+        } catch (TimeoutException e) {
+            log.debug("{}", e.getMessage());
         }
+        return new CmdResult(cmd, exitStatus, System.currentTimeMillis() - beginTime);
+    }
+
+    /**
+     * 执行命令，并将数据流式写入命令的标准输入
+     * <p>
+     * 写入与服务器端消费同时进行，写入完成后关闭标准输入（EOF），等待命令结束并返回退出码。
+     *
+     * @param cmd      命令
+     * @param stdin    标准输入写入者
+     * @param timeout  标准输入写入完成后，等待命令结束的超时时间
+     * @param consumer 命令执行结果（标准输出、标准错误输出）消费者
+     * @return 命令退出码
+     * @throws Exception
+     */
+    public int execute(String cmd, IOConsumer<OutputStream> stdin, Duration timeout, Consumer<String> consumer) throws Exception {
+        return exec(cmd, stdin, timeout, consumer);
     }
 
     public static Builder builder() {
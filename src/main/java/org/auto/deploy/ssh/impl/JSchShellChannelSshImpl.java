@@ -1,34 +1,41 @@
 package org.auto.deploy.ssh.impl;
 
-import com.jcraft.jsch.Channel;
 import com.jcraft.jsch.ChannelShell;
 import com.jcraft.jsch.JSchException;
-import lombok.AllArgsConstructor;
-import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.auto.deploy.util.Assert;
+import org.auto.deploy.ssh.CmdOutput;
+import org.auto.deploy.ssh.CmdResult;
 import org.auto.deploy.ssh.ConnectionProperties;
 import org.auto.deploy.ssh.JSchSupport;
+import org.auto.deploy.ssh.LineDecoder;
 import org.auto.deploy.ssh.Ssh;
 
-import java.io.*;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
 import java.time.Duration;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.Optional;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.UUID;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * {@link ChannelShell}，可执行多行命令
+ * <p>
+ * 每条命令后追加一条输出结束标识的命令：__AD_{会话标识}_{命令序号}:{退出码}，
+ * 读取到当前命令的结束标识时立即结束，并得到命令的退出码，不依赖提示符识别；
+ * 批量执行时所有命令一次性发送，按结束标识拆分每条命令的执行结果。
  *
  * @author xiangqian
  * @date 22:37 2022/07/25
@@ -36,17 +43,16 @@ import java.util.regex.Pattern;
 @Slf4j
 public class JSchShellChannelSshImpl extends JSchSupport implements Ssh, Runnable {
 
-    private final String FINISH = new String();
+    // 等待shell初始化（登录信息）的最长时间
+    private static final Duration INIT_TIMEOUT = Duration.ofSeconds(10);
 
-    // shell通道
-    private volatile ChannelShell channel;
+    // 关闭回显及提示符，避免命令及提示符混入命令输出
+    private static final String CMD_INIT = "stty -echo 2>/dev/null; set +o emacs +o vi 2>/dev/null; unset PROMPT_COMMAND; PS1=''; PS2=''";
 
-    // 命令队列
-    private BlockingQueue<CmdEntry> cmdEntryQueue;
     private final String CMD_EXIT = "exit";
 
-    // 命令执行结果队列
-    private BlockingQueue<String> resultQueue;
+    // shell通道
+    private volatile ChannelShell channel;
 
     // 输入流
     private volatile InputStream is;
@@ -54,198 +60,209 @@ public class JSchShellChannelSshImpl extends JSchSupport implements Ssh, Runnabl
     // 使用PrintWriter为了使用println方法，从而不需要在写入字符时添加\n
     private volatile PrintWriter writer;
 
-    // 执行命令线程循环标识
-    private volatile boolean flag;
+    // 结束标识前缀
+    private String sign;
+
+    // 结束标识模式
+    private Pattern signPattern;
+
+    // 命令序号
+    private long seq;
 
-    // 快速结束标识模式
-    private List<Pattern> quickEndSignPatterns;
+    // 读取线程
+    private Thread readerThread;
 
-    // shell是否已准备
-    private AtomicBoolean ready;
+    // 正在执行的命令，为null时表示没有正在执行的命令
+    private volatile Execution execution;
 
     private JSchShellChannelSshImpl() {
     }
 
     @Override
-    public void execute(String cmd, Duration timeout, Consumer<String> consumer) throws Exception {
-        Assert.notNull(cmd, "命令不能为null");
+    public CmdResult execute(String cmd, Duration timeout, Consumer<String> consumer) throws Exception {
+        Assert.notNull(consumer, "命令执行结果消费者不能为null");
+        return execute(List.of(cmd), true, timeout, () -> null, consumer).get(0);
+    }
 
-        // 等待shell初始化完成，最久等待5m
-        long max = 10 * 100 * 60 * 5;
-        while (max-- > 0 && !ready.get()) {
-            TimeUnit.MILLISECONDS.sleep(10);
-        }
+    /**
+     * 批量执行命令：所有命令（及各自的结束标识命令）一次性发送，只需要一次往返
+     */
+    @Override
+    public List<CmdResult> executeBatch(List<String> cmds, boolean continueOnError, Duration timeout, Supplier<CmdOutput> outputs) throws Exception {
+        return execute(cmds, continueOnError, timeout, outputs, null);
+    }
 
-        // 将命令添加到队列，添加成功返回true，添加失败或者超时返回false
-        Assert.isTrue(cmdEntryQueue.offer(new CmdEntry(cmd, timeout), timeout.toMillis(), TimeUnit.MILLISECONDS), String.format("命令执行超时: %s", cmd));
+    /**
+     * 执行命令
+     *
+     * @param cmds            命令集
+     * @param continueOnError 命令执行失败时是否继续执行后续命令
+     * @param timeout         执行命令超时时间
+     * @param outputs         每条命令的输出，consumer为null时使用，其最后 N 行保存到 {@link CmdResult#getResults()}
+     * @param consumer        命令执行结果消费者
+     * @return
+     * @throws Exception
+     */
+    private synchronized List<CmdResult> execute(List<String> cmds, boolean continueOnError, Duration timeout, Supplier<CmdOutput> outputs, Consumer<String> consumer) throws Exception {
+        Assert.isTrue(CollectionUtils.isNotEmpty(cmds), "命令不能为空");
+        cmds.forEach(cmd -> Assert.notNull(cmd, "命令不能为null"));
+        Assert.notNull(channel, "shell已关闭");
+
+        long beginTime = System.currentTimeMillis();
+        Execution execution = new Execution(seq + 1, cmds.size());
+        seq += cmds.size();
+        this.execution = execution;
+        try {
+            // 发送命令及结束标识命令
+            sendCmd(script(cmds, continueOnError, execution.firstSeq));
+
+            // 按顺序读取每条命令的执行结果，直到收到该命令的结束标识或者超时
+            List<CmdResult> cmdResults = new ArrayList<>(cmds.size());
+            long deadline = System.nanoTime() + timeout.toNanos();
+            for (int i = 0; i < cmds.size(); i++) {
+                String cmd = cmds.get(i);
+                CmdOutput output = Objects.nonNull(consumer) ? null : outputs.get();
+                Consumer<String> resultConsumer = Objects.nonNull(consumer) ? consumer : output;
+                String result = null;
+                while (Objects.nonNull(result = execution.queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) && result != Execution.FINISH) {
+                    resultConsumer.accept(result);
+                }
 
-        // 继续从队列中获取元素，直到队列中没有元素或者等待超时后返回null
-        String result = null;
-        while (Objects.nonNull(result = resultQueue.poll(timeout.toMillis(), TimeUnit.MILLISECONDS)) && result != FINISH) {
-            consumer.accept(result);
+                long endTime = System.currentTimeMillis();
+                Integer exitStatus = Objects.nonNull(result) ? execution.exitStatuses[i] : null;
+                cmdResults.add(new CmdResult(cmd, exitStatus, Objects.nonNull(output) ? output.getTail() : new ArrayList<>(), endTime - beginTime));
+                beginTime = endTime;
+                if (Objects.isNull(exitStatus)) {
+                    log.debug("命令执行超时: {}", cmd);
+                    break;
+                }
+                if (!continueOnError && exitStatus != 0) {
+                    break;
+                }
+            }
+            return cmdResults;
+        } finally {
+            this.execution = null;
         }
     }
 
+    /**
+     * 生成命令脚本，每条命令后输出结束标识（结束标识以拼接的方式输出，回显的命令不会被误识别为结束标识）；
+     * 命令执行失败时不再继续执行的，后续命令仅在此前命令均执行成功时执行
+     *
+     * @param cmds
+     * @param continueOnError
+     * @param firstSeq
+     * @return
+     */
+    private String script(List<String> cmds, boolean continueOnError, long firstSeq) {
+        boolean guard = !continueOnError && cmds.size() > 1;
+        StringBuilder builder = new StringBuilder();
+        if (guard) {
+            builder.append("__ad_stop=0").append('\n');
+        }
+        for (int i = 0; i < cmds.size(); i++) {
+            if (guard && i > 0) {
+                builder.append("if [ \"$__ad_stop\" = 0 ]; then").append('\n');
+            }
+            builder.append(cmds.get(i)).append('\n');
+            builder.append(String.format("__ad_rc=$?; printf '%%s%%s_%%d:%%d\\n' '%s' '%s' %d \"$__ad_rc\"",
+                    sign.substring(0, 2), sign.substring(2), firstSeq + i));
+            if (guard) {
+                builder.append("; [ \"$__ad_rc\" = 0 ] || __ad_stop=1");
+            }
+            builder.append('\n');
+            if (guard && i > 0) {
+                builder.append("fi").append('\n');
+            }
+        }
+        // 最后的换行由println输出
+        return builder.substring(0, builder.length() - 1);
+    }
+
     @Override
     protected void init(ConnectionProperties connectionProperties, Duration sessionConnectTimeout, Duration channelConnectTimeout) throws JSchException {
         super.init(connectionProperties, sessionConnectTimeout, channelConnectTimeout);
 
+        // 结束标识
+        sign = String.format("__AD_%s", UUID.randomUUID().toString().replace("-", ""));
+        signPattern = Pattern.compile(Pattern.quote(sign) + "_(\\d+):(\\d+)");
+
         // 初始化channel
         channel = openShellChannel();
-        cmdEntryQueue = new ArrayBlockingQueue<>(1);
-        resultQueue = new ArrayBlockingQueue<>(1);
-        flag = true;
-        ready = new AtomicBoolean(false);
-        new Thread(this).start();
-    }
-
-    public void run0() throws Exception {
-        // 获取输入流
-        is = channel.getInputStream();
-        // 初始化输出流
-        writer = new PrintWriter(channel.getOutputStream());
+        try {
+            // 获取输入流
+            is = channel.getInputStream();
+            // 初始化输出流
+            writer = new PrintWriter(channel.getOutputStream());
+        } catch (IOException e) {
+            throw new JSchException(e.getMessage(), e);
+        }
 
         // pty
         channel.setPty(true);
         // connect
         connectChannel(channel);
 
-        // 线程阻塞等待，给时间让服务器端将结果输出到客户端
-        TimeUnit.MILLISECONDS.sleep(200);
-
-        // 是否继续尝试从输入流中读取数据
-        AtomicBoolean tryBool = new AtomicBoolean(true);
-
-        // ###
-        int maxLength = 1024;
-        byte[] buffer = new byte[maxLength];
-        // 执行的命令
-        CmdEntry cmdEntry = null;
-        // 尝试计数
-        long tryCount = 0;
-        // 尝试从输入流中获取执行结果最大计数
-        long maxTryCount = 20;
-        // 每次尝试从输入流中读取完数据（或许未读取到数据）等待时间
-        Duration tryWaitTime = Duration.ofMillis(100);
-        while (flag) {
-            if (Objects.isNull(channel)) {
-                break;
-            }
-
-            // 如果channel已关闭时
-            if (channel.isClosed()) {
-                String exitStatus = String.format("exit-status: %s", Optional.ofNullable(channel).map(Channel::getExitStatus).orElse(null));
-                log.debug("exitStatus: {}", exitStatus);
-                break;
-            }
-
-            // 如果channel还未关闭时
-            // try
-            while (tryBool.get() && tryCount++ < maxTryCount) {
-                // 尝试从输入流获取执行结果
-                // 读取输入流可用的数据，循环获取可用数据大小（避免阻塞）
-                while (Objects.nonNull(is) && is.available() != 0) {
-                    // 读取执行结果到缓存数组
-                    int length = Objects.nonNull(is) ? is.read(buffer, 0, maxLength) : -1;
-                    if (length == -1) {
-                        break;
-                    }
-
-                    // 处理命令执行结果
-                    BufferedReader reader = null;
-                    try {
-                        reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(buffer, 0, length), StandardCharsets.UTF_8));
-                        String result = null;
-                        while (tryBool.get() && (result = reader.readLine()) != null) {
-                            if (CollectionUtils.isNotEmpty(quickEndSignPatterns)) {
-                                for (Pattern quickEndSignPattern : quickEndSignPatterns) {
-                                    if (quickEndSignPattern.matcher(result).matches()) {
-                                        tryBool.set(false);
-                                        result = FINISH;
-                                        break;
-                                    }
-                                }
-                            }
-
-                            if (Objects.nonNull(cmdEntry)) {
-                                // 将命令执行结果添加到队列，添加成功返回true，添加失败或者超时返回false
-                                resultQueue.offer(result, cmdEntry.getTimeout().toMillis(), TimeUnit.MILLISECONDS);
-
-                                // 清空命令队列（只移除一个头部元素），使得其他命令能够入队
-                                if (result == FINISH) {
-                                    cmdEntryQueue.poll();
-                                }
-                            } else {
-                                System.out.println(result);
-                            }
-                        }
-                    } finally {
-                        IOUtils.closeQuietly(reader);
-                    }
-                }
-
-//                log.debug("tryBool={}, tryCount={}, maxTryCount={}, cmdEntry={}", tryBool.get(), tryCount, maxTryCount, cmdEntry);
-                if (tryBool.get() && tryCount < maxTryCount) {
-                    // 线程阻塞等待，给时间让服务器端将结果输出到客户端
-                    TimeUnit.MILLISECONDS.sleep(tryWaitTime.toMillis());
-                }
-            }
+        // 阻塞读取线程，数据到达时立即处理
+        readerThread = new Thread(this, String.format("ssh-shell-%s", connectionProperties.getHost()));
+        readerThread.setDaemon(true);
+        readerThread.start();
 
-            // 当执行命令不为空时，
-            if (Objects.nonNull(cmdEntry) && tryBool.get()) {
-                // 向命令执行结果队列添加结束标识元素
-                // 将命令添加到队列，添加成功返回true，添加失败或者超时返回false
-                resultQueue.offer(FINISH, cmdEntry.getTimeout().toMillis(), TimeUnit.MILLISECONDS);
-                // 清空命令队列（只移除一个头部元素），使得其他命令能够入队
-                cmdEntryQueue.poll();
-            }
+        // 读取登录信息，关闭回显及提示符
+        try {
+            CmdResult result = execute(CMD_INIT, INIT_TIMEOUT, line -> log.debug("{}", line));
+            Assert.isTrue(!result.isTimeout(), "shell初始化超时");
+        } catch (Exception e) {
+            IOUtils.closeQuietly(this);
+            throw new JSchException(e.getMessage(), e);
+        }
+    }
 
-            // 初始化完毕
-            if (Objects.isNull(cmdEntry)) {
-                ready.set(true);
-            }
+    /**
+     * 阻塞读取输入流，增量解码为行，读取到当前命令的结束标识时立即结束当前命令
+     *
+     * @throws Exception
+     */
+    public void run0() throws Exception {
+        LineDecoder decoder = new LineDecoder();
+        byte[] buffer = new byte[8 * 1024];
+        int length = 0;
+        while (Objects.nonNull(is) && (length = is.read(buffer, 0, buffer.length)) != -1) {
+            decoder.decode(buffer, 0, length, this::accept);
+        }
+        decoder.flush(this::accept);
 
-            // 从队列中获取命令，如果队列为空，则阻塞，直至有数据
-//            CmdEntry preCmdEntry = cmdEntryQueue.take();
-            // 继续从队列中获取元素，直到队列中没有元素或者等待超时后返回null
-//            Duration cmdDequeueTimeout = Duration.ofSeconds(5);
-//            CmdEntry preCmdEntry = cmdEntryQueue.poll(cmdDequeueTimeout.toMillis(), TimeUnit.MILLISECONDS);
-            // 返回队列头部的元素（并不移除），如果队列为空，则返回null
-            Duration cmdDequeueTimeout = Duration.ofMillis(10);
-            CmdEntry preCmdEntry = cmdEntryQueue.peek();
-//            log.debug("preCmdEntry {}", preCmdEntry);
-            if (Objects.isNull(preCmdEntry)) {
-                tryBool.set(false);
-                TimeUnit.MILLISECONDS.sleep(cmdDequeueTimeout.toMillis());
-                continue;
-            }
+        if (Objects.nonNull(channel) && channel.isClosed()) {
+            log.debug("exitStatus: exit-status: {}", channel.getExitStatus());
+        }
+    }
 
-            if (Objects.isNull(is)) {
-                break;
+    private void accept(String line) {
+        Execution execution = this.execution;
+        Matcher matcher = signPattern.matcher(line);
+        if (matcher.find()) {
+            // 命令输出没有以换行结尾时，结束标识前面为命令输出
+            String prefix = line.substring(0, matcher.start());
+            if (StringUtils.isNotBlank(prefix)) {
+                output(execution, prefix);
             }
-            // 跳过输入流中可用的字节数（即，舍弃输入流中可用的字节数）
-            is.skip(is.available());
-
-            // 重置尝试标识
-            tryBool.set(true);
-
-            // 发送命令
-            sendCmd(preCmdEntry.getCmd());
 
-            // 重置尝试计数
-            tryCount = 0;
-
-            // 设置最大尝试次数
-            Duration timeout = preCmdEntry.getTimeout();
-//            long millis = timeout.toMillis();
-            long millis = (long) (timeout.toMillis() * 0.8);
-            maxTryCount = millis / tryWaitTime.toMillis();
-            if (millis % tryWaitTime.toMillis() != 0) {
-                maxTryCount += 1;
+            // 已超时命令的结束标识，忽略
+            long seq = Long.parseLong(matcher.group(1));
+            if (Objects.nonNull(execution)) {
+                execution.finish(seq, Integer.parseInt(matcher.group(2)));
             }
+            return;
+        }
+        output(execution, line);
+    }
 
-            //
-            cmdEntry = preCmdEntry;
+    private void output(Execution execution, String line) {
+        if (Objects.nonNull(execution)) {
+            execution.queue.add(line);
+        } else {
+            System.out.println(line);
         }
     }
 
@@ -263,9 +280,15 @@ public class JSchShellChannelSshImpl extends JSchSupport implements Ssh, Runnabl
         try {
             run0();
         } catch (Exception e) {
-            log.error("", e);
+            if (Objects.nonNull(channel)) {
+                log.error("", e);
+            }
         } finally {
-            IOUtils.closeQuietly(this);
+            // 唤醒等待中的命令
+            Execution execution = this.execution;
+            if (Objects.nonNull(execution)) {
+                execution.queue.add(Execution.FINISH);
+            }
         }
     }
 
@@ -275,97 +298,69 @@ public class JSchShellChannelSshImpl extends JSchSupport implements Ssh, Runnabl
             return;
         }
 
-        // 结束循环
-        flag = false;
-
         try {
-            // 发送exit命令，结束本次交互
+            // 发送exit命令，结束本次交互，等待读取线程读取完剩余的输出
             sendCmd(CMD_EXIT);
-
-            // 读取执行结果
-            long tryCount = 0;
-            long maxTryCount = 10;
-            Duration tryWaitTime = Duration.ofMillis(10);
-            int maxLength = 1024;
-            byte[] buffer = new byte[maxLength];
-            try_label:
-            while (tryCount++ < maxTryCount) {
-                while (is.available() != 0) {
-                    int length = is.read(buffer, 0, maxLength);
-                    BufferedReader reader = null;
-                    try {
-                        reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(buffer, 0, length), StandardCharsets.UTF_8));
-                        String result = null;
-                        while ((result = reader.readLine()) != null) {
-                            System.out.println(result);
-                            if (result.contains("logout")) {
-                                break try_label;
-                            }
-                        }
-                    } finally {
-                        IOUtils.closeQuietly(reader);
-                    }
-                }
-                if (tryCount < maxTryCount) {
-                    // 线程阻塞等待，给时间让服务器端将结果输出到客户端
-                    TimeUnit.MILLISECONDS.sleep(tryWaitTime.toMillis());
-                }
-            }
-
+            readerThread.join(1000);
         } catch (Exception e) {
             log.debug("", e);
         } finally {
             try {
+                // 关闭channel
+                ChannelShell channel = this.channel;
+                this.channel = null;
+                close(channel);
+
                 // 关闭输入流和输出流
                 IOUtils.closeQuietly(is, writer);
                 is = null;
                 writer = null;
-
-                // 关闭channel
-                close(channel);
-                channel = null;
             } finally {
                 super.close();
             }
         }
     }
 
-    @Data
-    @AllArgsConstructor
-    private static class CmdEntry {
-        private String cmd;
-        private Duration timeout;
-    }
-
     public static Builder builder() {
         return new Builder();
     }
 
-    public static class Builder extends JSchSupport.Builder<Builder, JSchShellChannelSshImpl> {
-        private List<Pattern> quickEndSignPatterns;
+    /**
+     * 正在执行的命令
+     */
+    private static class Execution {
+        private static final String FINISH = new String();
 
-        private Builder() {
+        // 首条命令序号
+        private final long firstSeq;
+
+        // 执行结果队列，每条命令结束时加入FINISH
+        private final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+
+        // 退出码，在加入FINISH之前写入
+        private final Integer[] exitStatuses;
+
+        private Execution(long firstSeq, int count) {
+            this.firstSeq = firstSeq;
+            this.exitStatuses = new Integer[count];
         }
 
-        public Builder quickEndSignPatterns(Pattern... quickEndSignPatterns) {
-            this.quickEndSignPatterns = Optional.ofNullable(quickEndSignPatterns).map(Arrays::asList).orElse(null);
-            return this;
+        private void finish(long seq, int exitStatus) {
+            long index = seq - firstSeq;
+            if (index >= 0 && index < exitStatuses.length) {
+                exitStatuses[(int) index] = exitStatus;
+                queue.add(FINISH);
+            }
         }
+    }
 
-        public Builder defaultQuickEndSignPatterns() {
-            // 以 "$ "结尾的命令执行结果
-            // (.*)(\$ )$
-            return quickEndSignPatterns(Pattern.compile("(.*)(\\$ )$"),
-                    // 以 "]# "结尾的命令执行结果
-                    // (.*)(\]# )$
-                    Pattern.compile("(.*)(\\]# )$"));
+    public static class Builder extends JSchSupport.Builder<Builder, JSchShellChannelSshImpl> {
+        private Builder() {
         }
 
         @Override
         protected JSchShellChannelSshImpl get() {
-            JSchShellChannelSshImpl jschShellChannelSshImpl = new JSchShellChannelSshImpl();
-            jschShellChannelSshImpl.quickEndSignPatterns = quickEndSignPatterns;
-            return jschShellChannelSshImpl;
+            return new JSchShellChannelSshImpl();
         }
     }
 
@@ -6,10 +6,12 @@ import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 
 import java.io.*;
+import java.nio.file.Path;
 import java.util.Objects;
 import java.util.UUID;
 
@@ -22,24 +24,113 @@ import java.util.UUID;
 @Slf4j
 public class CompressionUtils {
 
+    // 流缓冲区大小
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 打包并压缩为 .tar.gz 文件
+     *
+     * @param srcFiles 要添加到归档的本地文件夹或者文件集
+     * @param destFile .tar.gz文件
+     * @throws IOException
+     */
     public static void tarGz(File[] srcFiles, File destFile) throws IOException {
+        tarGz(srcFiles, destFile, 1);
+    }
+
+    /**
+     * 打包并压缩为 .tar.gz 文件
+     *
+     * @param srcFiles 要添加到归档的本地文件夹或者文件集
+     * @param destFile .tar.gz文件
+     * @param threads  gzip压缩线程数，小于等于1时单线程压缩
+     * @throws IOException
+     */
+    public static void tarGz(File[] srcFiles, File destFile, int threads) throws IOException {
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(destFile);
+            tarGz(srcFiles, out, threads);
+            out.close();
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    public static void tarGz(File[] srcFiles, OutputStream out) throws IOException {
+        tarGz(srcFiles, out, 1);
+    }
+
+    /**
+     * 打包并压缩到输出流
+     * <p>
+     * tar -> gz -> out 以流的方式串联，不在内存中缓存整个归档，内存占用与归档大小无关。
+     * 方法返回时gzip尾部已写出，但不会关闭 out。
+     *
+     * @param srcFiles 要添加到归档的本地文件夹或者文件集
+     * @param out      输出流
+     * @param threads  gzip压缩线程数，小于等于1时单线程压缩，否则使用 {@link ParallelGzipOutputStream} 多核并行压缩
+     * @throws IOException
+     */
+    public static void tarGz(File[] srcFiles, OutputStream out, int threads) throws IOException {
         TarArchiveOutputStream tarOut = null;
-        InputStream tarIn = null;
-        GzipCompressorOutputStream gzOut = null;
         try {
-            // tar
-            ByteArrayOutputStream byteArrayOut = new ByteArrayOutputStream();
-            tarOut = new TarArchiveOutputStream(byteArrayOut);
+            tarOut = new TarArchiveOutputStream(gz(new BufferedOutputStream(CloseShieldOutputStream.wrap(out), BUFFER_SIZE), threads));
             tarOut.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
             tar(srcFiles, null, tarOut);
-            tarIn = new ByteArrayInputStream(byteArrayOut.toByteArray());
+            // 写出tar结束块、gzip尾部并刷新缓冲区（CloseShieldOutputStream保证 out 不会被关闭）
+            tarOut.close();
+        } finally {
+            IOUtils.closeQuietly(tarOut);
+        }
+    }
 
-            // gz
-            gzOut = new GzipCompressorOutputStream(new FileOutputStream(destFile));
-            gz(tarIn, gzOut);
+    /**
+     * 打包（不压缩）到输出流，方法返回时tar结束块已写出，但不会关闭 out
+     *
+     * @param srcFiles 要添加到归档的本地文件夹或者文件集
+     * @param out      输出流，可以是任意压缩输出流
+     * @throws IOException
+     */
+    public static void tar(File[] srcFiles, OutputStream out) throws IOException {
+        tar(srcFiles, out, null);
+    }
+
+    /**
+     * 打包（不压缩）到输出流，目录按过滤器过滤（排除的目录不遍历），方法返回时tar结束块已写出，但不会关闭 out
+     *
+     * @param srcFiles 要添加到归档的本地文件夹或者文件集，本身不过滤
+     * @param out      输出流，可以是任意压缩输出流
+     * @param filter   文件过滤器，以各目录为根目录，为null时不过滤
+     * @throws IOException
+     */
+    public static void tar(File[] srcFiles, OutputStream out, PathFilter filter) throws IOException {
+        TarArchiveOutputStream tarOut = null;
+        try {
+            tarOut = new TarArchiveOutputStream(new BufferedOutputStream(CloseShieldOutputStream.wrap(out), BUFFER_SIZE));
+            tarOut.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            for (File srcFile : srcFiles) {
+                tar(srcFile, null, tarOut, filter, srcFile.toPath());
+            }
+            tarOut.close();
         } finally {
-            IOUtils.closeQuietly(tarIn, tarOut, gzOut);
+            IOUtils.closeQuietly(tarOut);
+        }
+    }
+
+    /**
+     * gzip压缩输出流
+     *
+     * @param out
+     * @param threads gzip压缩线程数，小于等于1时单线程压缩
+     * @return
+     * @throws IOException
+     */
+    public static OutputStream gz(OutputStream out, int threads) throws IOException {
+        if (threads <= 1) {
+            return new GzipCompressorOutputStream(out);
         }
+        return new ParallelGzipOutputStream(out, threads);
     }
 
     // 拷贝文件到目录：
@@ -135,6 +226,14 @@ public class CompressionUtils {
      * @param tarOut  tar归档输出流
      */
     public static void tar(File srcFile, String base, TarArchiveOutputStream tarOut) throws IOException {
+        tar(srcFile, base, tarOut, null, null);
+    }
+
+    private static void tar(File srcFile, String base, TarArchiveOutputStream tarOut, PathFilter filter, Path root) throws IOException {
+        if (Objects.nonNull(filter) && !filter.accept(root, srcFile.toPath())) {
+            return;
+        }
+
         if (StringUtils.isEmpty(base = StringUtils.trimToNull(base))) {
             base = srcFile.getName();
         } else {
@@ -160,7 +259,7 @@ public class CompressionUtils {
         File[] children = srcFile.listFiles();
         if (ArrayUtils.isNotEmpty(children)) {
             for (File child : children) {
-                tar(child, base, tarOut);
+                tar(child, base, tarOut, filter, root);
             }
         }
     }
@@ -0,0 +1,228 @@
+package org.auto.deploy.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 多核并行gzip压缩输出流（参考 pigz）
+ * <p>
+ * 将输入切分为固定大小的数据块，在 {@link ForkJoinPool} 上并行deflate，
+ * 每个数据块使用上一个数据块末尾32KB作为预设字典，非最后一块以 SYNC_FLUSH 结束（字节对齐且不设置BFINAL），
+ * 按顺序拼接后即为标准gzip流，可以被 gzip / tar -z 正常解压。
+ * <p>
+ * 同时处理中的数据块数量有上限，内存占用与数据大小无关。
+ *
+ * @author xiangqian
+ * @date 21:12 2022/10/08
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+    // 默认数据块大小
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+    // deflate窗口（预设字典）大小
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private final OutputStream out;
+    private final int blockSize;
+    private final int level;
+    private final ForkJoinPool pool;
+
+    // 正在压缩的数据块，按提交顺序写出
+    private final Deque<Future<byte[]>> pending;
+    private final int maxPending;
+
+    // 当前数据块
+    private byte[] block;
+    private int blockLength;
+
+    // 上一个数据块末尾数据，作为下一个数据块的预设字典
+    private byte[] dictionary;
+
+    // gzip尾部：未压缩数据的CRC32及长度
+    private final CRC32 crc;
+    private long size;
+
+    private boolean finished;
+
+    public ParallelGzipOutputStream(OutputStream out, int threads) throws IOException {
+        this(out, threads, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param out       输出流
+     * @param threads   压缩线程数
+     * @param blockSize 数据块大小，不能小于32KB
+     * @param level     压缩级别
+     * @throws IOException
+     */
+    public ParallelGzipOutputStream(OutputStream out, int threads, int blockSize, int level) throws IOException {
+        Assert.notNull(out, "输出流不能为null");
+        Assert.isTrue(threads > 0, "压缩线程数必须大于0");
+        Assert.isTrue(blockSize >= DICTIONARY_SIZE, String.format("数据块大小不能小于 %s", DICTIONARY_SIZE));
+        this.out = out;
+        this.blockSize = blockSize;
+        this.level = level;
+        this.pool = new ForkJoinPool(threads);
+        this.pending = new ArrayDeque<>();
+        this.maxPending = threads * 2;
+        this.block = new byte[blockSize];
+        this.blockLength = 0;
+        this.crc = new CRC32();
+        this.size = 0;
+        this.finished = false;
+        writeHeader();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Assert.state(!finished, "gzip流已结束");
+        Objects.checkFromIndexSize(off, len, b.length);
+        crc.update(b, off, len);
+        size += len;
+        while (len > 0) {
+            int n = Math.min(len, blockSize - blockLength);
+            System.arraycopy(b, off, block, blockLength, n);
+            blockLength += n;
+            off += n;
+            len -= n;
+            if (blockLength == blockSize) {
+                submit(false);
+            }
+        }
+    }
+
+    /**
+     * 提交当前数据块
+     *
+     * @param last 是否是最后一个数据块
+     */
+    private void submit(boolean last) throws IOException {
+        byte[] input = block;
+        int length = blockLength;
+        byte[] dict = dictionary;
+        pending.add(pool.submit(() -> deflate(input, length, dict, last)));
+
+        // 当前数据块末尾作为下一个数据块的字典
+        if (!last) {
+            int dictLength = Math.min(DICTIONARY_SIZE, length);
+            dictionary = new byte[dictLength];
+            System.arraycopy(input, length - dictLength, dictionary, 0, dictLength);
+            block = new byte[blockSize];
+            blockLength = 0;
+        }
+
+        // 限制同时处理中的数据块数量
+        while (pending.size() >= maxPending) {
+            writeCompleted();
+        }
+    }
+
+    private byte[] deflate(byte[] input, int length, byte[] dict, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (Objects.nonNull(dict)) {
+                deflater.setDictionary(dict);
+            }
+            deflater.setInput(input, 0, length);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[16 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    compressed.write(buffer, 0, n);
+                }
+            } else {
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeCompleted() throws IOException {
+        Future<byte[]> future = pending.poll();
+        try {
+            out.write(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        // ID1 ID2 CM FLG MTIME(4) XFL OS
+        out.write(new byte[]{0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff});
+    }
+
+    private void writeTrailer() throws IOException {
+        writeInt((int) crc.getValue());
+        writeInt((int) size);
+    }
+
+    private void writeInt(int i) throws IOException {
+        out.write(i & 0xff);
+        out.write((i >> 8) & 0xff);
+        out.write((i >> 16) & 0xff);
+        out.write((i >> 24) & 0xff);
+    }
+
+    /**
+     * 写出剩余数据块及gzip尾部，不关闭输出流
+     *
+     * @throws IOException
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        try {
+            submit(true);
+            while (!pending.isEmpty()) {
+                writeCompleted();
+            }
+            writeTrailer();
+            out.flush();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+}
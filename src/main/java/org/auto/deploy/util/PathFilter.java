@@ -0,0 +1,237 @@
+package org.auto.deploy.util;
+
+import org.apache.commons.collections4.CollectionUtils;
+import org.eclipse.jgit.ignore.IgnoreNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * 文件过滤器，遍历目录时判断文件或者目录是否排除
+ * <p>
+ * 排除: 匹配 excludes（glob，匹配相对路径或者其中任一级名称），或者被遍历到的目录下的忽略文件（.gitignore、.deployignore，gitignore语法）忽略；
+ * 包含: includes（glob，匹配相对路径）为空时包含所有文件，否则只包含匹配的文件（目录都遍历）。
+ * 排除的目录在遍历时剪枝，不再遍历其下的文件（不统计其大小）。
+ * <p>
+ * 一个实例用于一次部署，统计排除的文件数、字节数及剪枝的目录数；可以被多个线程使用。
+ *
+ * @author xiangqian
+ * @date 01:12 2022/10/19
+ */
+public class PathFilter {
+
+    /**
+     * 默认排除的文件或者目录
+     */
+    public static final List<String> DEFAULT_EXCLUDES = List.of(".git", ".svn", ".hg", ".idea", ".vscode");
+
+    /**
+     * 默认忽略文件
+     */
+    public static final List<String> DEFAULT_IGNORE_FILES = List.of(".gitignore", ".deployignore");
+
+    private final List<PathMatcher> includes;
+    private final List<PathMatcher> excludes;
+    private final List<String> ignoreFiles;
+
+    // 目录 -> 忽略规则（目录下的忽略文件，没有时为空）
+    private final Map<Path, List<IgnoreNode>> ignoreNodes = new ConcurrentHashMap<>();
+
+    private final LongAdder excludedFiles = new LongAdder();
+    private final LongAdder excludedBytes = new LongAdder();
+    private final LongAdder prunedDirs = new LongAdder();
+
+    /**
+     * @param includes    包含的文件（glob），为null或者空时包含所有文件
+     * @param excludes    排除的文件或者目录（glob），为null时为 {@link #DEFAULT_EXCLUDES}
+     * @param ignoreFiles 忽略文件名，为null时为 {@link #DEFAULT_IGNORE_FILES}
+     */
+    public PathFilter(List<String> includes, List<String> excludes, List<String> ignoreFiles) {
+        this.includes = compile(includes);
+        this.excludes = compile(Optional.ofNullable(excludes).orElse(DEFAULT_EXCLUDES));
+        this.ignoreFiles = Optional.ofNullable(ignoreFiles).orElse(DEFAULT_IGNORE_FILES);
+    }
+
+    /**
+     * 编译glob
+     *
+     * @param patterns
+     * @return
+     */
+    public static List<PathMatcher> compile(List<String> patterns) {
+        if (CollectionUtils.isEmpty(patterns)) {
+            return Collections.emptyList();
+        }
+        return patterns.stream()
+                .map(pattern -> FileSystems.getDefault().getPathMatcher("glob:" + pattern))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 相对路径或者其中任一级名称是否匹配
+     *
+     * @param matchers
+     * @param relativePath
+     * @return
+     */
+    public static boolean matches(List<PathMatcher> matchers, Path relativePath) {
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(relativePath)) {
+                return true;
+            }
+            for (Path name : relativePath) {
+                if (matcher.matches(name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 是否包含，遍历时父目录都已包含
+     *
+     * @param root  遍历的根目录（不过滤）
+     * @param path  根目录下的文件或者目录
+     * @param attrs 文件属性（不跟随符号链接）
+     * @return 目录不包含时不再遍历
+     */
+    public boolean accept(Path root, Path path, BasicFileAttributes attrs) {
+        Path relativePath = root.relativize(path);
+        if (relativePath.toString().isEmpty()) {
+            return true;
+        }
+
+        boolean directory = attrs.isDirectory();
+        boolean accepted = test(root, path, relativePath, directory);
+        if (!accepted) {
+            if (directory) {
+                prunedDirs.increment();
+            } else {
+                excludedFiles.increment();
+                excludedBytes.add(attrs.size());
+            }
+        }
+        return accepted;
+    }
+
+    public boolean accept(Path root, Path path) throws IOException {
+        return accept(root, path, Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+    }
+
+    /**
+     * 不遍历时（例如文件变更事件）判断是否包含：文件及其所有上级目录都包含，不统计
+     *
+     * @param root      根目录（不过滤）
+     * @param path      根目录下的文件或者目录，可以已删除
+     * @param directory 是否是目录
+     * @return
+     */
+    public boolean accept(Path root, Path path, boolean directory) {
+        Path relativePath = root.relativize(path);
+        int count = relativePath.getNameCount();
+        if (relativePath.toString().isEmpty()) {
+            return true;
+        }
+
+        Path current = root;
+        for (int i = 0; i < count; i++) {
+            current = current.resolve(relativePath.getName(i).toString());
+            if (!test(root, current, relativePath.subpath(0, i + 1), i < count - 1 || directory)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 是否是忽略文件（忽略文件修改后需要新的过滤器）
+     *
+     * @param path
+     * @return
+     */
+    public boolean isIgnoreFile(Path path) {
+        return Objects.nonNull(path.getFileName()) && ignoreFiles.contains(path.getFileName().toString());
+    }
+
+    private boolean test(Path root, Path path, Path relativePath, boolean directory) {
+        return !matches(excludes, relativePath)
+                && !isIgnored(root, path, directory)
+                && (directory || includes.isEmpty() || includes.stream().anyMatch(matcher -> matcher.matches(relativePath)));
+    }
+
+    /**
+     * 从文件所在目录到根目录，由最近的忽略规则决定是否忽略
+     */
+    private boolean isIgnored(Path root, Path path, boolean directory) {
+        Path dir = path.getParent();
+        while (Objects.nonNull(dir) && dir.startsWith(root)) {
+            String entryPath = dir.relativize(path).toString().replace('\\', '/');
+            for (IgnoreNode ignoreNode : getIgnoreNodes(dir)) {
+                Boolean ignored = ignoreNode.checkIgnored(entryPath, directory);
+                if (Objects.nonNull(ignored)) {
+                    return ignored;
+                }
+            }
+            dir = dir.getParent();
+        }
+        return false;
+    }
+
+    /**
+     * 目录下的忽略规则，后面的忽略文件（.deployignore）优先
+     */
+    private List<IgnoreNode> getIgnoreNodes(Path dir) {
+        return ignoreNodes.computeIfAbsent(dir, key -> {
+            List<IgnoreNode> nodes = new ArrayList<>();
+            for (String ignoreFile : ignoreFiles) {
+                Path file = dir.resolve(ignoreFile);
+                if (!Files.isRegularFile(file)) {
+                    continue;
+                }
+                IgnoreNode ignoreNode = new IgnoreNode();
+                try (InputStream in = Files.newInputStream(file)) {
+                    ignoreNode.parse(file.toString(), in);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                nodes.add(0, ignoreNode);
+            }
+            return nodes;
+        });
+    }
+
+    public long getExcludedFiles() {
+        return excludedFiles.sum();
+    }
+
+    public long getExcludedBytes() {
+        return excludedBytes.sum();
+    }
+
+    public long getPrunedDirs() {
+        return prunedDirs.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("排除 %d 个文件 (%d B), 跳过 %d 个目录", getExcludedFiles(), getExcludedBytes(), getPrunedDirs());
+    }
+
+}
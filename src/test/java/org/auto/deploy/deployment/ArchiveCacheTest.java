@@ -0,0 +1,84 @@
+package org.auto.deploy.deployment;
+
+import org.apache.commons.io.FileUtils;
+import org.auto.deploy.core.deployment.archive.ArchiveCache;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * 归档指纹：每台主机的临时目录下生成的脚本按内容计算，内容相同的主机共用归档
+ *
+ * @author xiangqian
+ * @date 21:05 2022/10/20
+ */
+public class ArchiveCacheTest {
+
+    private File dir;
+
+    @Before
+    public void before() throws IOException {
+        dir = Files.createTempDirectory("archive-cache").toFile();
+    }
+
+    @After
+    public void after() {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    @Test
+    public void generatedFiles() throws IOException {
+        File jar = write("target/app.jar", "jar");
+        File host1 = new File(dir, "temp_1");
+        File host2 = new File(dir, "temp_2");
+        File host3 = new File(dir, "temp_3");
+        File startup1 = write("temp_1/startup.sh", "java -jar /opt/app/app.jar");
+        File startup2 = write("temp_2/startup.sh", "java -jar /opt/app/app.jar");
+        // 修改时间不同，内容相同
+        Assert.assertTrue(startup2.setLastModified(startup1.lastModified() - 60_000));
+        // 大小及修改时间相同，内容不同（工作目录不同）
+        File startup3 = write("temp_3/startup.sh", "java -jar /opt/bpp/app.jar");
+        Assert.assertTrue(startup3.setLastModified(startup1.lastModified()));
+
+        try (ArchiveCache archiveCache = new ArchiveCache()) {
+            String fingerprint1 = archiveCache.fingerprint("tar.gz", new File[]{jar, startup1}, null, host1);
+            String fingerprint2 = archiveCache.fingerprint("tar.gz", new File[]{startup2, jar}, null, host2);
+            String fingerprint3 = archiveCache.fingerprint("tar.gz", new File[]{jar, startup3}, null, host3);
+            Assert.assertEquals(fingerprint1, fingerprint2);
+            Assert.assertNotEquals(fingerprint1, fingerprint3);
+            Assert.assertNotEquals(fingerprint1, archiveCache.fingerprint("tar.zst", new File[]{jar, startup1}, null, host1));
+            Assert.assertNotEquals(fingerprint1, archiveCache.fingerprint("tar.gz", new File[]{jar}, null, host1));
+        }
+    }
+
+    /**
+     * 构建产物按大小及修改时间计算，同一部署只计算一次
+     */
+    @Test
+    public void outputs() throws IOException {
+        File jar = write("target/app.jar", "jar");
+        String fingerprint = null;
+        try (ArchiveCache archiveCache = new ArchiveCache()) {
+            fingerprint = archiveCache.fingerprint("tar.gz", new File[]{jar}, null, null);
+            write("target/app.jar", "jar2");
+            Assert.assertEquals(fingerprint, archiveCache.fingerprint("tar.gz", new File[]{jar}, null, null));
+        }
+        // 下一次部署重新计算
+        try (ArchiveCache archiveCache = new ArchiveCache()) {
+            Assert.assertNotEquals(fingerprint, archiveCache.fingerprint("tar.gz", new File[]{jar}, null, null));
+        }
+    }
+
+    private File write(String path, String content) throws IOException {
+        File file = new File(dir, path);
+        FileUtils.writeStringToFile(file, content, StandardCharsets.UTF_8);
+        return file;
+    }
+
+}
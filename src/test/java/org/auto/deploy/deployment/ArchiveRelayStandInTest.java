@@ -0,0 +1,133 @@
+package org.auto.deploy.deployment;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.auto.deploy.core.deployment.archive.ArchiveRelay;
+import org.auto.deploy.core.server.Server;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 归档文件中继：本机的多个sshd（不同端口）模拟多台主机，主机之间通过ssh转发
+ * <p>
+ * 启动sshd（当前用户，公钥已加入 ~/.ssh/authorized_keys，主机之间的转发也使用此公钥）:
+ * <pre>
+ * mkdir -p /tmp/relay && ssh-keygen -q -N '' -t ed25519 -f /tmp/relay/host_key
+ * for port in 2201 2202 2203 2204 2205 2206; do
+ *     mkdir -p /tmp/relay/$port
+ *     $(command -v sshd) -D -f /dev/null -h /tmp/relay/host_key -p $port -o PidFile=none &
+ * done
+ * </pre>
+ * 每台主机的工作目录为 /tmp/relay/{port}，运行后检查每个工作目录都有归档文件、转发主机的中继文件已删除。
+ * 可以通过系统属性修改: ports、username、password、seeds、degree、size（归档文件大小，单位MB）、fail（不能连接的主机端口，验证由本机上传）
+ *
+ * @author xiangqian
+ * @date 21:58 2022/10/19
+ */
+@Slf4j
+public class ArchiveRelayStandInTest implements Closeable {
+
+    private File dir;
+    private List<Server.Config> hosts;
+    private ArchiveRelay relay;
+
+    public static void main(String[] args) throws Exception {
+        new ArchiveRelayStandInTest().main();
+    }
+
+    public void main() throws Exception {
+        try {
+            init();
+            testUpload();
+        } finally {
+            IOUtils.closeQuietly(this);
+        }
+    }
+
+    private void init() throws IOException {
+        dir = Files.createTempDirectory("archive-relay").toFile();
+        String fail = System.getProperty("fail", "");
+        hosts = new ArrayList<>();
+        for (String port : System.getProperty("ports", "2201,2202,2203,2204,2205,2206").split(",")) {
+            Server.Config config = new Server.Config();
+            config.setHost("127.0.0.1");
+            config.setPort(Integer.parseInt(port.trim()));
+            config.setUsername(System.getProperty("username", System.getProperty("user.name")));
+            config.setPassword(System.getProperty("password"));
+            config.setSessionConnTimeout(10);
+            config.setChannelConnTimeout(10);
+            config.setWorkDir(String.format("/tmp/relay/%s", port.trim()));
+            config.setExecChannel(true);
+            hosts.add(config);
+        }
+
+        Server.Config.Relay config = new Server.Config.Relay();
+        config.setSeeds(Integer.getInteger("seeds", 1));
+        config.setDegree(Integer.getInteger("degree", 2));
+        config.setTimeout(60);
+        config.validate();
+        relay = new ArchiveRelay(hosts, config);
+        for (int i = 0; i < hosts.size(); i++) {
+            log.debug("{}: 上级主机 {}, 转发 {}", hosts.get(i).getPort(), relay.getParent(i), relay.hasChildren(i));
+        }
+
+        // 不能连接的主机（例如停止其中一个sshd），其下级主机由本机上传
+        for (Server.Config host : hosts) {
+            if (fail.equals(String.valueOf(host.getPort()))) {
+                relay.finish(new Server(host).getName());
+            }
+        }
+    }
+
+    /**
+     * 所有主机并发上传（与部署一致），下级主机等待上级主机接收后转发
+     */
+    private void testUpload() throws Exception {
+        File archiveFile = new File(dir, "app.tar.gz");
+        try (RandomAccessFile raf = new RandomAccessFile(archiveFile, "rw")) {
+            raf.setLength(Integer.getInteger("size", 64) * 1024L * 1024L);
+        }
+
+        long beginTime = System.currentTimeMillis();
+        ExecutorService executorService = Executors.newFixedThreadPool(hosts.size());
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Server.Config host : hosts) {
+                futures.add(executorService.submit(() -> {
+                    Server server = new Server(host);
+                    try {
+                        server.connect();
+                        relay.upload(server, archiveFile);
+                    } finally {
+                        relay.finish(server.getName());
+                        IOUtils.closeQuietly(server);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        log.debug("已上传到 {} 台主机: {} ms", hosts.size(), System.currentTimeMillis() - beginTime);
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOUtils.closeQuietly(relay);
+        FileUtils.deleteQuietly(dir);
+    }
+
+}
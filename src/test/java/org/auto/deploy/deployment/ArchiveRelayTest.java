@@ -0,0 +1,286 @@
+package org.auto.deploy.deployment;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.auto.deploy.core.deployment.archive.ArchiveRelay;
+import org.auto.deploy.core.server.Server;
+import org.auto.deploy.ssh.CmdResult;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 归档文件中继：中继拓扑（树形、链式、种子主机数不小于主机数），上级主机未接收或者转发失败时由本机上传
+ * <p>
+ * 主机之间真实的ssh转发见 {@link ArchiveRelayStandInTest}
+ *
+ * @author xiangqian
+ * @date 21:40 2022/10/19
+ */
+public class ArchiveRelayTest {
+
+    @Test
+    public void tree() {
+        ArchiveRelay relay = new ArchiveRelay(hosts(7), relay(1, 2));
+        Assert.assertArrayEquals(new int[]{-1, 0, 0, 1, 1, 2, 2}, parents(relay, 7));
+        Assert.assertArrayEquals(new Boolean[]{true, true, true, false, false, false, false}, children(relay, 7));
+    }
+
+    @Test
+    public void chain() {
+        ArchiveRelay relay = new ArchiveRelay(hosts(4), relay(1, 1));
+        Assert.assertArrayEquals(new int[]{-1, 0, 1, 2}, parents(relay, 4));
+        Assert.assertArrayEquals(new Boolean[]{true, true, true, false}, children(relay, 4));
+    }
+
+    @Test
+    public void defaults() {
+        ArchiveRelay relay = new ArchiveRelay(hosts(6), new Server.Config.Relay());
+        Assert.assertArrayEquals(new int[]{-1, -1, 0, 0, 1, 1}, parents(relay, 6));
+        Assert.assertArrayEquals(new Boolean[]{true, true, false, false, false, false}, children(relay, 6));
+    }
+
+    @Test
+    public void seedsNotLessThanHosts() {
+        for (int seeds : new int[]{3, 5}) {
+            ArchiveRelay relay = new ArchiveRelay(hosts(3), relay(seeds, 2));
+            Assert.assertArrayEquals(new int[]{-1, -1, -1}, parents(relay, 3));
+            Assert.assertArrayEquals(new Boolean[]{false, false, false}, children(relay, 3));
+        }
+    }
+
+    /**
+     * 任意主机数、种子主机数、转发数：上级主机在前（先部署），每台主机最多转发 degree 台，有上级主机的主机的上级主机都需要转发
+     */
+    @Test
+    public void topology() {
+        for (int size = 1; size <= 40; size++) {
+            for (int seeds = 1; seeds <= 5; seeds++) {
+                for (int degree = 1; degree <= 4; degree++) {
+                    ArchiveRelay relay = new ArchiveRelay(hosts(size), relay(seeds, degree));
+                    int[] counts = new int[size];
+                    for (int i = 0; i < size; i++) {
+                        int parent = relay.getParent(i);
+                        if (i < Math.min(seeds, size)) {
+                            Assert.assertEquals(-1, parent);
+                            continue;
+                        }
+                        Assert.assertTrue(parent >= 0 && parent < i);
+                        Assert.assertTrue(relay.hasChildren(parent));
+                        counts[parent]++;
+                    }
+                    for (int i = 0; i < size; i++) {
+                        Assert.assertTrue(counts[i] <= degree);
+                        Assert.assertEquals(counts[i] > 0, relay.hasChildren(i));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 上级主机部署失败（未接收归档文件）时，下级主机由本机上传
+     */
+    @Test
+    public void parentFailed() throws Exception {
+        File dir = Files.createTempDirectory("archive-relay").toFile();
+        try {
+            File archiveFile = archiveFile(dir);
+            List<Server.Config> hosts = hosts(3);
+            List<String> uploads = new CopyOnWriteArrayList<>();
+            ArchiveRelay relay = new ArchiveRelay(hosts, relay(1, 2));
+
+            relay.finish(new Server(hosts.get(0)).getName());
+            for (int i = 1; i < 3; i++) {
+                LocalServer server = new LocalServer(hosts.get(i), new File(dir, "host" + i), uploads);
+                relay.upload(server, archiveFile);
+                Assert.assertTrue(new File(server.dir, archiveFile.getName()).isFile());
+            }
+            Assert.assertEquals(List.of(hosts.get(1).getPort() + ":" + archiveFile.getName(), hosts.get(2).getPort() + ":" + archiveFile.getName()), uploads);
+        } finally {
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    /**
+     * 上级主机已接收，但主机之间的转发失败（上级主机不能连接）时，下级主机由本机上传；
+     * 需要转发的主机保留中继文件并硬链接为归档文件
+     */
+    @Test
+    public void forwardFailed() throws Exception {
+        File dir = Files.createTempDirectory("archive-relay").toFile();
+        try {
+            File archiveFile = archiveFile(dir);
+            List<Server.Config> hosts = hosts(3);
+            List<String> uploads = new CopyOnWriteArrayList<>();
+            ArchiveRelay relay = new ArchiveRelay(hosts, relay(1, 2));
+
+            List<LocalServer> servers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                servers.add(new LocalServer(hosts.get(i), new File(dir, "host" + i), uploads));
+            }
+
+            // 下级主机先等待上级主机接收
+            ExecutorService executorService = Executors.newFixedThreadPool(2);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int i = 1; i < 3; i++) {
+                    LocalServer server = servers.get(i);
+                    futures.add(executorService.submit(() -> {
+                        relay.upload(server, archiveFile);
+                        return null;
+                    }));
+                }
+                relay.upload(servers.get(0), archiveFile);
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } finally {
+                executorService.shutdownNow();
+            }
+
+            Assert.assertEquals(3, uploads.size());
+            Assert.assertEquals(hosts.get(0).getPort() + ":.auto-deploy-relay." + archiveFile.getName(), uploads.get(0));
+            for (LocalServer server : servers) {
+                Assert.assertTrue(new File(server.dir, archiveFile.getName()).isFile());
+            }
+        } finally {
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    @Test
+    public void sshOptions() {
+        Server.Config.Relay relay = new Server.Config.Relay();
+        Assert.assertEquals("-o BatchMode=yes -o StrictHostKeyChecking=accept-new", relay.getSshOptions());
+        relay.setSshOptions("-i ~/.ssh/deploy_key");
+        relay.setStrictHostKeyChecking("no");
+        Assert.assertEquals("-i ~/.ssh/deploy_key -o BatchMode=yes -o StrictHostKeyChecking=no", relay.getSshOptions());
+        relay.validate();
+
+        relay.setStrictHostKeyChecking("off");
+        try {
+            relay.validate();
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    private static int[] parents(ArchiveRelay relay, int size) {
+        int[] parents = new int[size];
+        for (int i = 0; i < size; i++) {
+            parents[i] = relay.getParent(i);
+        }
+        return parents;
+    }
+
+    private static Boolean[] children(ArchiveRelay relay, int size) {
+        Boolean[] children = new Boolean[size];
+        for (int i = 0; i < size; i++) {
+            children[i] = relay.hasChildren(i);
+        }
+        return children;
+    }
+
+    private static Server.Config.Relay relay(int seeds, int degree) {
+        Server.Config.Relay relay = new Server.Config.Relay();
+        relay.setSeeds(seeds);
+        relay.setDegree(degree);
+        relay.setTimeout(10);
+        return relay;
+    }
+
+    /**
+     * 主机配置，端口都没有监听（主机之间的转发连接失败）
+     */
+    private static List<Server.Config> hosts(int size) {
+        List<Server.Config> hosts = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Server.Config config = new Server.Config();
+            config.setHost("127.0.0.1");
+            config.setPort(unusedPort());
+            config.setUsername("deploy");
+            config.setSessionConnTimeout(5);
+            config.setChannelConnTimeout(5);
+            config.setWorkDir(".");
+            hosts.add(config);
+        }
+        return hosts;
+    }
+
+    private static int unusedPort() {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            return serverSocket.getLocalPort();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static File archiveFile(File dir) throws IOException {
+        File archiveFile = new File(dir, "app.tar.gz");
+        FileUtils.writeStringToFile(archiveFile, "archive", StandardCharsets.UTF_8);
+        return archiveFile;
+    }
+
+    /**
+     * 本地目录模拟的服务器：上传即复制，命令只支持 sha256sum、ln -f
+     */
+    private static class LocalServer extends Server {
+
+        private final Config config;
+        private final File dir;
+        private final List<String> uploads;
+
+        private LocalServer(Config config, File dir, List<String> uploads) throws IOException {
+            super(config);
+            this.config = config;
+            this.dir = dir;
+            this.uploads = uploads;
+            FileUtils.forceMkdir(dir);
+        }
+
+        @Override
+        public void uploadFile(String src, String dst) throws Exception {
+            Files.copy(new File(src).toPath(), new File(dir, dst).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            uploads.add(config.getPort() + ":" + dst);
+        }
+
+        @Override
+        public CmdResult executeCmdForResult(String cmd, Duration timeout) throws Exception {
+            Assert.assertTrue(cmd, cmd.startsWith("sha256sum ./"));
+            String name = cmd.substring("sha256sum ./".length());
+            try (InputStream in = Files.newInputStream(new File(dir, name).toPath())) {
+                return new CmdResult(cmd, 0, new ArrayList<>(List.of(DigestUtils.sha256Hex(in) + "  ./" + name)), 0);
+            }
+        }
+
+        @Override
+        public void executeCmd(String cmd, boolean isIgnoreError) throws Exception {
+            String[] args = cmd.split(" ");
+            Assert.assertEquals(cmd, "ln", args[0]);
+            File target = new File(dir, args[3].substring(2));
+            Files.deleteIfExists(target.toPath());
+            Files.createLink(target.toPath(), new File(dir, args[2].substring(2)).toPath());
+        }
+
+        @Override
+        public String getAbsoluteWorkDir() {
+            return dir.getAbsolutePath();
+        }
+    }
+
+}
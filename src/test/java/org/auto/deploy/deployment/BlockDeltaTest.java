@@ -0,0 +1,126 @@
+package org.auto.deploy.deployment;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.auto.deploy.core.deployment.jar.delta.BlockDelta;
+import org.auto.deploy.core.deployment.jar.delta.BlockPatcher;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 块级差量基准测试：模拟两次构建的fat jar（只有少量class变化），对比差量传输与完整上传的字节数及耗时
+ *
+ * @author xiangqian
+ * @date 22:10 2022/10/12
+ */
+@Slf4j
+public class BlockDeltaTest {
+
+    // 模拟的依赖jar数量及大小
+    private static final int LIB_COUNT = 60;
+    private static final int LIB_SIZE = 1024 * 1024;
+
+    // 模拟的class数量
+    private static final int CLASS_COUNT = 2000;
+
+    // 假定的上传带宽，10MB/s
+    private static final long BANDWIDTH = 10 * 1024 * 1024;
+
+    @Test
+    public void benchmark() throws Exception {
+        File dir = Files.createTempDirectory("block-delta").toFile();
+        try {
+            File oldJar = new File(dir, "old.jar");
+            File newJar = new File(dir, "new.jar");
+            fatJar(oldJar, -1);
+            fatJar(newJar, 1234);
+
+            long beginTime = System.currentTimeMillis();
+            File signatureFile = new File(dir, "old.jar.sig");
+            BlockPatcher.sign(oldJar, signatureFile, BlockDelta.DEFAULT_BLOCK_SIZE);
+            long signTime = System.currentTimeMillis() - beginTime;
+
+            beginTime = System.currentTimeMillis();
+            File deltaFile = new File(dir, "new.jar.delta");
+            BlockDelta.Result result;
+            try (InputStream in = new FileInputStream(signatureFile);
+                 OutputStream out = new FileOutputStream(deltaFile)) {
+                result = BlockDelta.diff(BlockDelta.readSignature(in), newJar, out);
+            }
+            long diffTime = System.currentTimeMillis() - beginTime;
+
+            beginTime = System.currentTimeMillis();
+            File patchedJar = new File(dir, "patched.jar");
+            BlockPatcher.patch(oldJar, deltaFile, patchedJar);
+            long patchTime = System.currentTimeMillis() - beginTime;
+            Assert.assertTrue(FileUtils.contentEquals(newJar, patchedJar));
+
+            long fullBytes = newJar.length();
+            long deltaBytes = deltaFile.length() + signatureFile.length();
+            long fullTime = fullBytes * 1000 / BANDWIDTH;
+            long deltaTime = deltaBytes * 1000 / BANDWIDTH + signTime + diffTime + patchTime;
+            log.debug("完整上传: {} B, 预估 {} ms", fullBytes, fullTime);
+            log.debug("块级差量: {} B（差量 {} B + 签名 {} B），复用 {} B，新数据 {} B，签名 {} ms，差量 {} ms，合成 {} ms，预估 {} ms",
+                    deltaBytes, deltaFile.length(), signatureFile.length(), result.getCopiedBytes(), result.getLiteralBytes(),
+                    signTime, diffTime, patchTime, deltaTime);
+            Assert.assertTrue(deltaBytes * 10 < fullBytes);
+        } finally {
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    /**
+     * 生成模拟的fat jar：依赖jar不压缩存储（与spring boot一致），class压缩存储
+     *
+     * @param file
+     * @param changedClass 变化的class序号，小于0时不变化
+     * @throws IOException
+     */
+    private static void fatJar(File file, int changedClass) throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            for (int i = 0; i < CLASS_COUNT; i++) {
+                byte[] bytes = classBytes(i, i == changedClass);
+                ZipEntry entry = new ZipEntry(String.format("BOOT-INF/classes/org/example/Class%04d.class", i));
+                entry.setTime(0);
+                out.putNextEntry(entry);
+                out.write(bytes);
+                out.closeEntry();
+            }
+
+            Random random = new Random(0);
+            byte[] bytes = new byte[LIB_SIZE];
+            for (int i = 0; i < LIB_COUNT; i++) {
+                random.nextBytes(bytes);
+                CRC32 crc32 = new CRC32();
+                crc32.update(bytes);
+                ZipEntry entry = new ZipEntry(String.format("BOOT-INF/lib/lib-%02d.jar", i));
+                entry.setTime(0);
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(bytes.length);
+                entry.setCrc(crc32.getValue());
+                out.putNextEntry(entry);
+                out.write(bytes);
+                out.closeEntry();
+            }
+        }
+    }
+
+    private static byte[] classBytes(int index, boolean changed) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            builder.append("public void method").append(index).append('_').append(i).append("() {}\n");
+        }
+        if (changed) {
+            builder.append("public void newMethod() { System.out.println(\"changed\"); }\n");
+        }
+        return builder.toString().getBytes();
+    }
+
+}
@@ -30,6 +30,7 @@ public class SftpTest implements Closeable {
 //            testLs();
 //            testMkdir();
             testPut();
+//            testParallelPut();
 //            testGet();
 
         } finally {
@@ -51,6 +52,15 @@ public class SftpTest implements Closeable {
         ll();
     }
 
+    private void testParallelPut() throws Exception {
+        sftp.cd("test");
+        sftp.put("C:\\Users\\xiangqian\\Desktop\\tmp\\apache-skywalking-java-agent-8.9.0.tgz",
+                "apache-skywalking-java-agent-8.9.0.tgz",
+                DefaultSftpProgressMonitor.builder().build(),
+                4);
+        ll();
+    }
+
     private void testGet() throws Exception {
         sftp.cd("test");
         sftp.get("Screenshot_1.png",
@@ -0,0 +1,204 @@
+package org.auto.deploy.ssh;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * 执行计划：编译的shell脚本在本机 sh 执行，输出交给 {@link CmdPlan.Reader} 拆分每个步骤的结果
+ *
+ * @author xiangqian
+ * @date 22:20 2022/10/19
+ */
+public class CmdPlanTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    @Test
+    public void steps() throws Exception {
+        CmdPlan plan = new CmdPlan()
+                .add("a", "echo a1; echo a2", TIMEOUT)
+                .add("b", "echo b", TIMEOUT);
+        Execution execution = execute(plan);
+
+        Assert.assertEquals(0, execution.exitStatus);
+        CmdPlan.Reader reader = execution.reader;
+        Assert.assertEquals(2, reader.getResults().size());
+        Assert.assertEquals(List.of("a1", "a2"), reader.getResults().get(0).getResults());
+        Assert.assertEquals(List.of("b"), reader.getResults().get(1).getResults());
+        Assert.assertEquals("echo b", reader.getResults().get(1).getCmd());
+        for (CmdResult result : reader.getResults()) {
+            Assert.assertTrue(result.isSuccess());
+            Assert.assertTrue(result.getTime() >= 0);
+        }
+        Assert.assertEquals(2, reader.getOutputs().size());
+        Assert.assertNull(reader.getPendingOutput());
+    }
+
+    /**
+     * 步骤执行失败时不再执行后续步骤，脚本退出码为失败步骤的退出码
+     */
+    @Test
+    public void stopOnError() throws Exception {
+        CmdPlan plan = new CmdPlan()
+                .add("a", "echo a", TIMEOUT)
+                .add("b", "echo b; (exit 3)", TIMEOUT)
+                .add("c", "echo c", TIMEOUT);
+        Execution execution = execute(plan);
+
+        Assert.assertEquals(3, execution.exitStatus);
+        List<CmdResult> results = execution.reader.getResults();
+        Assert.assertEquals(2, results.size());
+        Assert.assertEquals(Integer.valueOf(0), results.get(0).getExitStatus());
+        Assert.assertEquals(Integer.valueOf(3), results.get(1).getExitStatus());
+        Assert.assertEquals(List.of("b"), results.get(1).getResults());
+        Assert.assertFalse(execution.lines.contains("c"));
+        Assert.assertNull(execution.reader.getPendingOutput());
+    }
+
+    /**
+     * 忽略错误的步骤执行失败时继续执行后续步骤
+     */
+    @Test
+    public void ignoreError() throws Exception {
+        CmdPlan plan = new CmdPlan()
+                .addIgnoreError("a", "echo a; false", TIMEOUT)
+                .add("b", "echo b", TIMEOUT);
+        Execution execution = execute(plan);
+
+        Assert.assertEquals(0, execution.exitStatus);
+        List<CmdResult> results = execution.reader.getResults();
+        Assert.assertEquals(2, results.size());
+        Assert.assertEquals(Integer.valueOf(1), results.get(0).getExitStatus());
+        Assert.assertTrue(results.get(1).isSuccess());
+    }
+
+    /**
+     * 步骤输出没有以换行结尾时，结果行前面的部分为步骤输出
+     */
+    @Test
+    public void prefixBeforeSign() throws Exception {
+        CmdPlan plan = new CmdPlan()
+                .add("a", "printf 'no newline'", TIMEOUT)
+                .add("b", "printf '   '", TIMEOUT);
+        Execution execution = execute(plan);
+
+        List<CmdResult> results = execution.reader.getResults();
+        Assert.assertEquals(2, results.size());
+        Assert.assertEquals(List.of("no newline"), results.get(0).getResults());
+        Assert.assertEquals(List.of(), results.get(1).getResults());
+    }
+
+    /**
+     * 并发执行的步骤：所有命令都执行，任一命令失败时步骤失败
+     */
+    @Test
+    public void concurrently() throws Exception {
+        CmdPlan plan = new CmdPlan()
+                .addConcurrently("a", List.of("echo a1", "(exit 5)", "echo a3"), TIMEOUT)
+                .add("b", "echo b", TIMEOUT);
+        Execution execution = execute(plan);
+
+        Assert.assertEquals(5, execution.exitStatus);
+        List<CmdResult> results = execution.reader.getResults();
+        Assert.assertEquals(1, results.size());
+        Assert.assertEquals(Integer.valueOf(5), results.get(0).getExitStatus());
+        Assert.assertTrue(results.get(0).getResults().containsAll(List.of("a1", "a3")));
+    }
+
+    @Test
+    public void decorator() throws Exception {
+        CmdPlan plan = new CmdPlan().add("a", "echo a", TIMEOUT);
+        Execution execution = execute(plan, cmd -> "echo decorated; " + cmd);
+        Assert.assertEquals(List.of("decorated", "a"), execution.reader.getResults().get(0).getResults());
+    }
+
+    /**
+     * 未结束的步骤（超时、连接断开）：没有结果行，输出为未结束步骤的输出
+     */
+    @Test
+    public void unfinishedStep() throws Exception {
+        CmdPlan plan = new CmdPlan()
+                .add("a", "echo a", TIMEOUT)
+                .add("b", "echo started", TIMEOUT);
+        Execution execution = execute(plan);
+
+        // 丢弃最后一个结果行，模拟步骤在超时时间内未结束
+        CmdPlan.Reader reader = plan.newReader(CmdOutput::new);
+        List<String> lines = execution.lines;
+        for (String line : lines.subList(0, lines.size() - 1)) {
+            reader.accept(line);
+        }
+        Assert.assertEquals(1, reader.getResults().size());
+        Assert.assertNotNull(reader.getPendingOutput());
+        Assert.assertEquals(List.of("started"), reader.getPendingOutput().getTail());
+    }
+
+    /**
+     * 其他计划的结果行作为步骤输出，序号不符的结果行忽略
+     */
+    @Test
+    public void foreignSign() throws Exception {
+        CmdPlan plan = new CmdPlan().add("a", "echo a", TIMEOUT);
+        CmdPlan other = new CmdPlan().add("a", "echo other", TIMEOUT);
+        List<String> otherLines = execute(other).lines;
+        List<String> lines = execute(plan).lines;
+
+        CmdPlan.Reader reader = plan.newReader(CmdOutput::new);
+        // 序号不符（步骤0未结束时出现步骤0之后的结果行）
+        reader.accept(lines.get(lines.size() - 1).replaceFirst(":0:", ":1:"));
+        for (String line : otherLines) {
+            reader.accept(line);
+        }
+        for (String line : lines) {
+            reader.accept(line);
+        }
+        Assert.assertEquals(1, reader.getResults().size());
+        Assert.assertEquals(otherLines.get(0), reader.getResults().get(0).getResults().get(0));
+        Assert.assertEquals(otherLines.get(1), reader.getResults().get(0).getResults().get(1));
+        Assert.assertEquals("a", reader.getResults().get(0).getResults().get(2));
+    }
+
+    private static Execution execute(CmdPlan plan) throws Exception {
+        return execute(plan, UnaryOperator.identity());
+    }
+
+    /**
+     * 本机 sh 执行脚本，脚本执行结束后删除脚本文件
+     */
+    private static Execution execute(CmdPlan plan, UnaryOperator<String> decorator) throws Exception {
+        File script = Files.createTempFile("plan", ".sh").toFile();
+        try {
+            FileUtils.writeStringToFile(script, plan.toScript(decorator), StandardCharsets.UTF_8);
+            Process process = new ProcessBuilder("sh", script.getAbsolutePath()).redirectErrorStream(true).start();
+            List<String> lines = IOUtils.readLines(process.getInputStream(), StandardCharsets.UTF_8);
+            Execution execution = new Execution();
+            execution.exitStatus = process.waitFor();
+            execution.lines = lines;
+            execution.reader = plan.newReader(CmdOutput::new);
+            for (String line : lines) {
+                execution.reader.accept(line);
+            }
+            Assert.assertFalse("脚本文件未删除", script.exists());
+            return execution;
+        } finally {
+            FileUtils.deleteQuietly(script);
+        }
+    }
+
+    private static class Execution {
+        private int exitStatus;
+        private List<String> lines = new ArrayList<>();
+        private CmdPlan.Reader reader;
+    }
+
+}
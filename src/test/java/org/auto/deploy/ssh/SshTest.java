@@ -86,7 +86,6 @@ public class SshTest implements Closeable {
                 .connectionProperties(getConnectionProperties())
                 .sessionConnectTimeout(Duration.ofSeconds(60))
                 .channelConnectTimeout(Duration.ofSeconds(60))
-                .defaultQuickEndSignPatterns()
                 .build();
 //            log.debug("ssh {}", ssh);
     }
@@ -1,19 +1,125 @@
 package org.auto.deploy.utils;
 
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
 import org.auto.deploy.util.CompressionUtils;
+import org.junit.Assert;
 import org.junit.Test;
 
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
 
 /**
  * @author xiangqian
  * @date 10:17 2022/08/14
  */
+@Slf4j
 public class CompressionUtilsTest {
 
+    /**
+     * 流式 tar.gz 的堆内存占用不随归档大小增长：10MB -> 2GB
+     */
+    @Test
+    public void tarGzHeapUsage() throws Exception {
+        long mb = 1024 * 1024;
+        long[] sizes = {10 * mb, 100 * mb, 1024 * mb, 2048 * mb};
+        File dir = Files.createTempDirectory("tar-gz-heap").toFile();
+        try {
+            Runtime runtime = Runtime.getRuntime();
+            for (long size : sizes) {
+                // 稀疏文件，不占用实际磁盘空间
+                File srcFile = new File(dir, String.format("%s.bin", size));
+                try (RandomAccessFile raf = new RandomAccessFile(srcFile, "rw")) {
+                    raf.setLength(size);
+                }
+
+                System.gc();
+                long baseline = runtime.totalMemory() - runtime.freeMemory();
+                AtomicLong peak = new AtomicLong(baseline);
+                AtomicBoolean running = new AtomicBoolean(true);
+                Thread sampler = new Thread(() -> {
+                    while (running.get()) {
+                        peak.accumulateAndGet(runtime.totalMemory() - runtime.freeMemory(), Math::max);
+                        try {
+                            TimeUnit.MILLISECONDS.sleep(5);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                });
+                sampler.start();
+
+                long beginTime = System.currentTimeMillis();
+                try {
+                    CompressionUtils.tarGz(new File[]{srcFile}, NullOutputStream.NULL_OUTPUT_STREAM);
+                } finally {
+                    running.set(false);
+                    sampler.join();
+                    FileUtils.forceDelete(srcFile);
+                }
+
+                long growth = peak.get() - baseline;
+                log.debug("size: {} MB, heap growth: {} MB, time: {} ms", size / mb, growth / mb, System.currentTimeMillis() - beginTime);
+                Assert.assertTrue(String.format("heap growth %s MB for %s MB input", growth / mb, size / mb), growth < 64 * mb);
+            }
+        } finally {
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    /**
+     * 单线程与多线程gzip吞吐量对比，并校验并行压缩结果是标准gzip流
+     */
+    @Test
+    public void parallelTarGzThroughput() throws Exception {
+        long mb = 1024 * 1024;
+        File dir = Files.createTempDirectory("tar-gz-parallel").toFile();
+        try {
+            // 可压缩的文本数据
+            File srcFile = new File(dir, "data.txt");
+            String[] words = {"deploy", "server", "source", "build", "archive", "compress", "upload", "0123456789"};
+            Random random = new Random(0);
+            try (Writer writer = new BufferedWriter(new FileWriter(srcFile))) {
+                while (srcFile.length() < 256 * mb) {
+                    for (int i = 0; i < 64 * 1024; i++) {
+                        writer.write(words[random.nextInt(words.length)]);
+                        writer.write(random.nextInt(100) == 0 ? '\n' : ' ');
+                    }
+                    writer.flush();
+                }
+            }
+
+            int cores = Runtime.getRuntime().availableProcessors();
+            for (int threads : new int[]{1, Math.max(2, cores)}) {
+                File destFile = new File(dir, String.format("data-%s.tar.gz", threads));
+                long beginTime = System.currentTimeMillis();
+                CompressionUtils.tarGz(new File[]{srcFile}, destFile, threads);
+                long time = System.currentTimeMillis() - beginTime;
+                log.debug("threads: {}, size: {} MB -> {} MB, time: {} ms, throughput: {} MB/s",
+                        threads, srcFile.length() / mb, destFile.length() / mb, time, srcFile.length() / mb * 1000 / Math.max(time, 1));
+
+                // GZIPInputStream 会校验CRC32及长度
+                long length = 0;
+                try (TarArchiveInputStream tarIn = new TarArchiveInputStream(new GZIPInputStream(new FileInputStream(destFile)))) {
+                    Assert.assertNotNull(tarIn.getNextTarEntry());
+                    length = IOUtils.consume(tarIn);
+                }
+                Assert.assertEquals(srcFile.length(), length);
+            }
+        } finally {
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
     @Test
     public void tarGz() throws Exception {
         TarArchiveOutputStream tarOut = null;
@@ -0,0 +1,171 @@
+package org.auto.deploy.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.auto.deploy.util.PathFilter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 文件过滤器：各级目录的忽略文件（.deployignore 优先）、排除、包含及剪枝
+ *
+ * @author xiangqian
+ * @date 22:45 2022/10/19
+ */
+public class PathFilterTest {
+
+    private Path root;
+
+    @Before
+    public void before() throws IOException {
+        root = Files.createTempDirectory("path-filter");
+    }
+
+    @After
+    public void after() {
+        FileUtils.deleteQuietly(root.toFile());
+    }
+
+    /**
+     * 下级目录的忽略规则优先于上级目录，同一目录的 .deployignore 优先于 .gitignore
+     */
+    @Test
+    public void nestedIgnoreFiles() throws IOException {
+        write(".gitignore", "*.log\ndist/\n");
+        write("a.log", "");
+        write("app.jar", "");
+        write("sub/.gitignore", "!keep.log\n");
+        write("sub/keep.log", "");
+        write("sub/other.log", "");
+        write("web/.gitignore", "secret.txt\n");
+        write("web/.deployignore", "!dist/\n!secret.txt\n");
+        write("web/dist/index.html", "");
+        write("web/secret.txt", "");
+        write("dist/a.js", "");
+        write("conf/.deployignore", "*.yml\n");
+        write("conf/.gitignore", "!*.yml\n");
+        write("conf/app.yml", "");
+
+        Set<String> files = walk(new PathFilter(null, null, null));
+        Assert.assertEquals(new TreeSet<>(List.of(
+                ".gitignore", "app.jar",
+                "sub/.gitignore", "sub/keep.log",
+                "web/.gitignore", "web/.deployignore", "web/dist/index.html", "web/secret.txt",
+                "conf/.deployignore", "conf/.gitignore")), files);
+    }
+
+    /**
+     * 排除的目录不再遍历，不统计其下的文件
+     */
+    @Test
+    public void prune() throws IOException {
+        write(".gitignore", "node_modules/\n");
+        write("node_modules/a/index.js", "12345");
+        write("node_modules/b/index.js", "12345");
+        write(".git/HEAD", "ref");
+        write("src/a.txt", "a");
+        write("src/a.tmp", "123");
+
+        PathFilter filter = new PathFilter(null, List.of(".git", "*.tmp"), null);
+        Set<String> visited = new TreeSet<>();
+        Set<String> files = walk(filter, visited);
+        Assert.assertEquals(new TreeSet<>(List.of(".gitignore", "src/a.txt")), files);
+        Assert.assertFalse(visited.stream().anyMatch(path -> path.startsWith("node_modules/") || path.startsWith(".git/")));
+        Assert.assertEquals(2, filter.getPrunedDirs());
+        Assert.assertEquals(1, filter.getExcludedFiles());
+        Assert.assertEquals(3, filter.getExcludedBytes());
+    }
+
+    /**
+     * includes 只匹配文件，目录都遍历
+     */
+    @Test
+    public void includes() throws IOException {
+        write("app.jar", "");
+        write("lib/a.jar", "");
+        write("lib/a.txt", "");
+        write("README.md", "");
+
+        Assert.assertEquals(new TreeSet<>(List.of("app.jar", "lib/a.jar")), walk(new PathFilter(List.of("*.jar", "**/*.jar"), null, null)));
+        Assert.assertEquals(new TreeSet<>(List.of("lib/a.jar")), walk(new PathFilter(List.of("lib/*.jar"), null, null)));
+    }
+
+    @Test
+    public void noIgnoreFiles() throws IOException {
+        write(".gitignore", "*.log\n");
+        write("a.log", "");
+        Assert.assertEquals(new TreeSet<>(List.of(".gitignore", "a.log")), walk(new PathFilter(null, List.of(), List.of())));
+    }
+
+    /**
+     * 不遍历时判断（文件变更事件）：上级目录排除时文件也排除，已删除的文件也可以判断
+     */
+    @Test
+    public void acceptWithoutWalk() throws IOException {
+        write(".gitignore", "dist/\n*.log\n");
+        write("src/.gitignore", "!debug.log\n");
+        write("dist/a.js", "");
+
+        PathFilter filter = new PathFilter(null, null, null);
+        Assert.assertFalse(filter.accept(root, root.resolve("dist/a.js"), false));
+        Assert.assertFalse(filter.accept(root, root.resolve("dist/deleted/b.js"), false));
+        Assert.assertFalse(filter.accept(root, root.resolve("dist"), true));
+        Assert.assertFalse(filter.accept(root, root.resolve("src/a.log"), false));
+        Assert.assertTrue(filter.accept(root, root.resolve("src/debug.log"), false));
+        Assert.assertTrue(filter.accept(root, root.resolve("src/deleted.txt"), false));
+        Assert.assertFalse(filter.accept(root, root.resolve(".git/HEAD"), false));
+        Assert.assertTrue(filter.accept(root, root, true));
+        Assert.assertEquals(0, filter.getExcludedFiles());
+        Assert.assertTrue(filter.isIgnoreFile(root.resolve("src/.gitignore")));
+        Assert.assertFalse(filter.isIgnoreFile(root.resolve("src/a.log")));
+    }
+
+    private void write(String path, String content) throws IOException {
+        FileUtils.writeStringToFile(root.resolve(path).toFile(), content, StandardCharsets.UTF_8);
+    }
+
+    private Set<String> walk(PathFilter filter) throws IOException {
+        return walk(filter, new TreeSet<>());
+    }
+
+    /**
+     * 遍历根目录，返回包含的文件（相对路径）
+     */
+    private Set<String> walk(PathFilter filter, Set<String> visited) throws IOException {
+        Set<String> files = new TreeSet<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                visited.add(relativize(dir));
+                return filter.accept(root, dir, attrs) ? FileVisitResult.CONTINUE : FileVisitResult.SKIP_SUBTREE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                visited.add(relativize(file));
+                if (filter.accept(root, file, attrs)) {
+                    files.add(relativize(file));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    private String relativize(Path path) {
+        return root.relativize(path).toString().replace('\\', '/');
+    }
+
+}